@@ -1,20 +1,52 @@
 package com.alerts;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.alerts.checks.AlertCheck;
+import com.alerts.checks.BloodPressureTrendCheck;
+import com.alerts.checks.CriticalThresholdCheck;
+import com.alerts.checks.EcgCheck;
+import com.alerts.checks.HypotensiveHypoxemiaCheck;
+import com.alerts.checks.LowSaturationCheck;
+import com.alerts.checks.RapidDropCheck;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.PatientSnapshot;
+import com.data_management.RecordTypeRegistry;
+import com.data_management.RecordVisitor;
 
 /**
  * The {@code AlertGenerator} class is responsible for monitoring patient data
  * and generating alerts when certain predefined conditions are met. This class
  * relies on a {@link DataStorage} instance to access patient data and evaluate
  * it against specific health criteria.
+ * Every check is an {@link AlertCheck} from {@code com.alerts.checks} that is
+ * streamed over the patient's records and reused between evaluations, so evaluating a patient allocates
+ * nothing unless an alert is triggered. A generator is meant to be used by one
+ * thread at a time.
+ * Each check can also be applied to a list of records.
+ * The checks judge individual measurements, so they only read raw records:
+ * history already rolled up into minute and hour buckets by retention is not
+ * evaluated, both by {@link #evaluateData} and by the single checks.
  */
 public class AlertGenerator {
+    static final long EVALUATION_WINDOW_MILLIS = 10 * 60 * 1000L; // the longest window any check looks at
+
     private DataStorage dataStorage;
+    private long evaluationsWithoutEcg; // counted rather than reported, evaluations must not allocate
+    private final LowSaturationCheck lowSaturationCheck = new LowSaturationCheck();
+    private final HypotensiveHypoxemiaCheck hypotensiveHypoxemiaCheck = new HypotensiveHypoxemiaCheck();
+    private final RapidDropCheck rapidDropCheck = new RapidDropCheck();
+    private final BloodPressureTrendCheck bloodPressureTrendCheck = new BloodPressureTrendCheck();
+    private final CriticalThresholdCheck criticalThresholdCheck = new CriticalThresholdCheck();
+    private final EcgCheck ecgCheck = new EcgCheck();
+    // the checks sharing one pass over the records in evaluateData
+    private final CombinedCheck oldestFirstChecks = new CombinedCheck(lowSaturationCheck, hypotensiveHypoxemiaCheck);
+    private final LatestRecord latest = new LatestRecord();
+    private final LatestRecord previous = new LatestRecord(); // the saturation before the newest record
+    private final PatientSnapshot snapshot = new PatientSnapshot(); // reused by every range check
 
 
     /**
@@ -34,99 +66,184 @@ public class AlertGenerator {
      * Evaluates the specified patient's data to determine if any alert conditions
      * are met. If a condition is met, an alert is triggered via the
      * {@link #triggerAlert}
-     * method. This method should define the specific conditions under which an
-     * alert
-     * will be triggered.
+     * method. Only the records of the last ten minutes are evaluated, which is
+     * the longest window any of the checks looks at.
      *
      * @param patient the patient data to evaluate for alert conditions
      */
     public void evaluateData(Patient patient) {
-        
+        evaluateData(patient, System.currentTimeMillis() - EVALUATION_WINDOW_MILLIS, Long.MAX_VALUE);
     }
 
     /**
-     * Triggers an alert for the monitoring system. This method can be extended to
-     * notify medical staff, log the alert, or perform other actions. The method
-     * currently assumes that the alert information is fully formed when passed as
-     * an argument.
+     * Evaluates the specified patient's records within a time range against
+     * all alert conditions. The checks run on a point-in-time snapshot of the
+     * raw records of the range, so ingest for the patient continues while
+     * they run and both passes see the same records; the snapshot is cleared
+     * once they are done. The records are streamed, not copied into a list:
+     * once oldest first for the checks looking for the first match and once
+     * newest first, until the trend check has its latest records. The rapid
+     * drop, critical threshold and ECG checks, which start from the latest
+     * readings, read them from the latest-value table instead, see
+     * {@link #checkRapidDropAlert(Patient, long, long)}.
      *
-     * @paramalert the alert object containing details about the alert condition
+     * @param patient   the patient data to evaluate for alert conditions
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
      */
-
-    public boolean checkLowSaturationAlert(Patient patient, List<PatientRecord> records) {
-        int patientId = patient.getPatientId();
-        for (PatientRecord record : records) {
-            if (record.getPatientId() == patientId && record.getRecordType().equals("Saturation") &&
-                    record.getMeasurementValue() < 92.0) {
-                triggerAlert(new Alert(
-                        patientId,
-                        "Blood oxygen saturation level fell below 92%.",
-                        record.getTimestamp()
-                ));
-                return true;
-            }
+    public void evaluateData(Patient patient, long startTime, long endTime) {
+        PatientSnapshot view = patient.rawSnapshot(startTime, endTime, snapshot);
+        try {
+            lowSaturationCheck.reset();
+            hypotensiveHypoxemiaCheck.reset();
+            oldestFirstChecks.reset();
+            view.forEachRecord(startTime, endTime, oldestFirstChecks);
+
+            bloodPressureTrendCheck.reset();
+            view.forEachRecordDescending(startTime, endTime, bloodPressureTrendCheck);
+        } finally {
+            // the generator outlives the evaluation, its snapshot must not keep chunks or tiers alive
+            snapshot.clear();
         }
-        return false;
+        finish(patient, lowSaturationCheck);
+        finish(patient, hypotensiveHypoxemiaCheck);
+        finish(patient, bloodPressureTrendCheck);
+        checkRapidDropAlert(patient, startTime, endTime);
+        checkBloodPressureCriticalThreshold(patient, startTime, endTime);
+        checkECG(patient, startTime, endTime);
     }
 
-    public boolean checkHypotensiveHypoxemiaAlert(Patient patient, List<PatientRecord> records) {
-        int patientId = patient.getPatientId();
-        boolean lowSaturation = false;
-        boolean lowBloodPressure = false;
-
-        for (PatientRecord record : records) {
-            if (record.getPatientId() == patientId) {
-                if (record.getRecordType().equals("Saturation") && record.getMeasurementValue() < 92.0) {
-                    lowSaturation = true;
-                }
-                if (record.getRecordType().equals("SystolicPressure") && record.getMeasurementValue() < 90.0) {
-                    lowBloodPressure = true;
-                }
-            }
-
-            if (lowSaturation && lowBloodPressure) {
-                triggerAlert(new Alert(
-                        patientId,
-                        "Hypotensive Hypoxemia Alert: Blood oxygen saturation level fell below 92% and systolic blood pressure fell below 90 mmHg.",
-                        record.getTimestamp()
+    /**
+     * Returns how many ECG checks could not be evaluated because the patient
+     * had no ECG record, or none in the minute before the latest one.
+     *
+     * @return the number of ECG checks without data
+     */
+    public long getEvaluationsWithoutEcgCount() {
+        return evaluationsWithoutEcg;
+    }
 
-                ));
-                return true;
-            }
-        }
+    public boolean checkLowSaturationAlert(Patient patient, List<PatientRecord> records) {
+        lowSaturationCheck.visitAll(records, patient.getPatientId());
+        return finish(patient, lowSaturationCheck);
+    }
 
-        return false;
+    public boolean checkLowSaturationAlert(Patient patient, long startTime, long endTime) {
+        lowSaturationCheck.reset();
+        // only the chunks of the saturation history holding a reading below 92% are decoded
+        patient.forEachRecordBetween(RecordTypeRegistry.SATURATION, startTime, endTime,
+                Double.NEGATIVE_INFINITY, Math.nextDown(LowSaturationCheck.THRESHOLD), lowSaturationCheck);
+        return finish(patient, lowSaturationCheck);
     }
 
-    public boolean checkRapidDropAlert(Patient patient, List<PatientRecord> records) {
-        int lastIndex = records.size() - 1;
-        PatientRecord currentRecord = records.get(lastIndex);
-        System.out.println(currentRecord);
+    public boolean checkHypotensiveHypoxemiaAlert(Patient patient, List<PatientRecord> records) {
+        hypotensiveHypoxemiaCheck.visitAll(records, patient.getPatientId());
+        return finish(patient, hypotensiveHypoxemiaCheck);
+    }
 
-        // Start from the second last record and iterate backwards
-        for (int i = lastIndex; i >= 0; i--) {
-            PatientRecord previousRecord = records.get(i-1);
+    public boolean checkHypotensiveHypoxemiaAlert(Patient patient, long startTime, long endTime) {
+        hypotensiveHypoxemiaCheck.reset();
+        visitRaw(patient, startTime, endTime, false, hypotensiveHypoxemiaCheck);
+        return finish(patient, hypotensiveHypoxemiaCheck);
+    }
 
-            if (previousRecord.getRecordType().equals("BloodSaturation")) {
-                // Found the previous saturation record
+    public boolean checkRapidDropAlert(Patient patient, List<PatientRecord> records) {
+        rapidDropCheck.visitAllDescending(records);
+        return finish(patient, rapidDropCheck);
+    }
 
-                if ((currentRecord.getTimestamp() - previousRecord.getTimestamp()) <= 600000 &&
-                        ((currentRecord.getMeasurementValue() - previousRecord.getMeasurementValue()) /  previousRecord.getMeasurementValue()) <= - 0.05) {
+    /**
+     * Compares the newest reading within a time range with the blood
+     * saturation reading before it. The newest reading comes from the
+     * patient's latest-value table; the saturation before it is the latest
+     * one too unless the newest reading is a saturation itself, in which case
+     * only the ten minutes of saturation history before it are decoded. Only
+     * if a newer reading lies past the end of the range is the history
+     * scanned.
+     */
+    public boolean checkRapidDropAlert(Patient patient, long startTime, long endTime) {
+        rapidDropCheck.reset();
+        latest.found = patient.visitNewestRecord(latest);
+        if (latest.found && latest.timestamp > endTime) {
+            visitRaw(patient, startTime, endTime, true, rapidDropCheck);
+        } else if (latest.found && latest.timestamp >= startTime) {
+            rapidDropCheck.visit(latest.timestamp, latest.recordTypeCode, latest.value);
+            long earliest = Math.max(startTime, latest.timestamp - RapidDropCheck.WINDOW_MILLIS);
+            if (latest.recordTypeCode != RecordTypeRegistry.BLOOD_SATURATION) {
+                previous.found = patient.visitLatestRecord(RecordTypeRegistry.BLOOD_SATURATION, previous);
+            } else {
+                previous.found = false;
+                patient.forEachRecordBetween(RecordTypeRegistry.BLOOD_SATURATION, earliest, latest.timestamp - 1,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, previous);
+            }
+            if (previous.found && previous.timestamp >= earliest) {
+                rapidDropCheck.visit(previous.timestamp, RecordTypeRegistry.BLOOD_SATURATION, previous.value);
+            }
+        }
+        return finish(patient, rapidDropCheck);
+    }
 
-                    triggerAlert(new Alert(
-                            patient.getPatientId(),
-                            "Blood oxygen saturation level dropped by 5% or more within 10 minutes.",
-                            currentRecord.getTimestamp()));
-                    return true;
-                }
+    /**
+     * Feeds a check the latest record of one type, if it lies within the time
+     * range.
+     *
+     * @return {@code false} if the latest record is newer than the range, so
+     *         the newest one within it has to be searched in the history
+     */
+    private boolean visitLatest(Patient patient, int recordTypeCode, long startTime, long endTime,
+                                AlertCheck check) {
+        latest.found = patient.visitLatestRecord(recordTypeCode, latest);
+        if (!latest.found || latest.timestamp < startTime) {
+            return true; // no record of the type within the range
+        }
+        if (latest.timestamp > endTime) {
+            return false;
+        }
+        check.visit(latest.timestamp, recordTypeCode, latest.value);
+        return true;
+    }
 
-                // Exit the loop once we find the first previous saturation record
-                break;
+    /**
+     * Streams the raw records of a range to one check through the reused
+     * snapshot, which is cleared again afterwards.
+     */
+    private void visitRaw(Patient patient, long startTime, long endTime, boolean descending, AlertCheck check) {
+        try {
+            PatientSnapshot view = patient.rawSnapshot(startTime, endTime, snapshot);
+            if (descending) {
+                view.forEachRecordDescending(startTime, endTime, check);
+            } else {
+                view.forEachRecord(startTime, endTime, check);
             }
+        } finally {
+            snapshot.clear();
+        }
+    }
+
+    /**
+     * Triggers the alert of a check whose condition was met by the visited
+     * records.
+     *
+     * @return {@code true} if an alert was triggered
+     */
+    private boolean finish(Patient patient, AlertCheck check) {
+        String condition = check.condition();
+        if (condition == null) {
+            return false;
         }
-        return false;
+        triggerAlert(new Alert(patient.getPatientId(), condition, check.alertTimestamp()));
+        return true;
     }
 
+    /**
+     * Triggers an alert for the monitoring system. This method can be extended to
+     * notify medical staff, log the alert, or perform other actions. The method
+     * currently assumes that the alert information is fully formed when passed as
+     * an argument.
+     *
+     * @param alert the alert object containing details about the alert condition
+     */
     private void triggerAlert(Alert alert) {
         // Implementation might involve logging the alert or notifying staff
     }
@@ -158,126 +275,117 @@ public class AlertGenerator {
     }
 
     public boolean checkBloodPressureTrend(Patient patient, List<PatientRecord> records) {
-    List<PatientRecord> patientRecord = records;
-
-    List<Double> sysValues = new ArrayList<>();
-    List<Double> diaValues = new ArrayList<>();
-
-    for (int i = patientRecord.size() - 1; i >= 0; i--) {
-        PatientRecord lastRecord = patientRecord.get(i);
-
-        if (lastRecord.getRecordType().equals("SystolicPressure") && sysValues.size() < 3) {
-            sysValues.add(lastRecord.getMeasurementValue());
-        } else if (lastRecord.getRecordType().equals("DiastolicPressure") && diaValues.size() < 3) {
-            diaValues.add(lastRecord.getMeasurementValue());
-        }
+        bloodPressureTrendCheck.visitAllDescending(records);
+        return finish(patient, bloodPressureTrendCheck);
+    }
 
-        if (sysValues.size() >= 3 && diaValues.size() >= 3) {
-            break;
-        }
+    public boolean checkBloodPressureTrend(Patient patient, long startTime, long endTime) {
+        bloodPressureTrendCheck.reset();
+        visitRaw(patient, startTime, endTime, true, bloodPressureTrendCheck);
+        return finish(patient, bloodPressureTrendCheck);
     }
 
-    if (sysValues.size() == 3) {
-        if ((sysValues.get(0) - sysValues.get(1) > 10 && sysValues.get(1) - sysValues.get(2) > 10) ||
-            (sysValues.get(2) - sysValues.get(1) > 10 && sysValues.get(1) - sysValues.get(0) > 10)) {
-            triggerAlert(new Alert(patient.getPatientId(), "Blood Pressure Trend Alert", System.currentTimeMillis()));
-            return true;
-        }
+    public boolean checkBloodPressureCriticalThreshold(Patient patient, List<PatientRecord> records) {
+        criticalThresholdCheck.visitAllDescending(records);
+        return finish(patient, criticalThresholdCheck);
     }
 
-    if (diaValues.size() == 3) {
-        if ((diaValues.get(0) - diaValues.get(1) > 10 && diaValues.get(1) - diaValues.get(2) > 10) ||
-            (diaValues.get(2) - diaValues.get(1) > 10 && diaValues.get(1) - diaValues.get(0) > 10)) {
-            triggerAlert(new Alert(patient.getPatientId(), "Blood Pressure Trend Alert", System.currentTimeMillis()));
-            return true;
+    /**
+     * Checks the latest systolic and diastolic readings within a time range.
+     * They come from the patient's latest-value table; only if a newer
+     * reading lies past the end of the range is the history scanned.
+     */
+    public boolean checkBloodPressureCriticalThreshold(Patient patient, long startTime, long endTime) {
+        criticalThresholdCheck.reset();
+        // both types are looked up, so not &&
+        if (!(visitLatest(patient, RecordTypeRegistry.SYSTOLIC_PRESSURE, startTime, endTime, criticalThresholdCheck)
+                & visitLatest(patient, RecordTypeRegistry.DIASTOLIC_PRESSURE, startTime, endTime,
+                criticalThresholdCheck))) {
+            criticalThresholdCheck.reset();
+            visitRaw(patient, startTime, endTime, true, criticalThresholdCheck);
         }
+        return finish(patient, criticalThresholdCheck);
     }
 
-    return false;
+    public boolean checkECG(Patient patient, List<PatientRecord> records) {
+        ecgCheck.visitAllDescending(records);
+        return finishECG(patient);
     }
 
-    public boolean checkBloodPressureCriticalThreshold(Patient patient, List<PatientRecord> records) {
-        List<PatientRecord> patientRecord = records;
-
-        Double sysValue = null;
-        Double diaValue = null;
-
-        for (int i = patientRecord.size() - 1; i >= 0; i--) {
-            PatientRecord lastRecord = patientRecord.get(i);
-
-            if (sysValue == null && lastRecord.getRecordType().equals("SystolicPressure")) {
-                sysValue = lastRecord.getMeasurementValue();
-            } else if (diaValue == null && lastRecord.getRecordType().equals("DiastolicPressure")) {
-                diaValue = lastRecord.getMeasurementValue();
-            }
-
-            if (sysValue != null && diaValue != null) {
-                break;
-            }
+    /**
+     * Checks the latest ECG reading within a time range against the average
+     * of the minute before it. The latest reading comes from the patient's
+     * latest-value table, so only that minute of the ECG history is decoded;
+     * only if a newer reading lies past the end of the range is the history
+     * scanned.
+     */
+    public boolean checkECG(Patient patient, long startTime, long endTime) {
+        ecgCheck.reset();
+        if (!visitLatest(patient, RecordTypeRegistry.ECG, startTime, endTime, ecgCheck)) {
+            ecgCheck.reset();
+            visitRaw(patient, startTime, endTime, true, ecgCheck);
+        } else if (latest.found && latest.timestamp >= startTime) {
+            patient.forEachRecordBetween(RecordTypeRegistry.ECG, Math.max(startTime, latest.timestamp - 60000),
+                    latest.timestamp - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, ecgCheck);
         }
+        return finishECG(patient);
+    }
 
-        if (sysValue != null && (sysValue > 180 || sysValue < 90)) {
-            triggerAlert(new Alert(patient.getPatientId(), "Blood Pressure Systolic Threshold Alert", System.currentTimeMillis()));
-            return true;
+    private boolean finishECG(Patient patient) {
+        if (ecgCheck.isMissingData()) {
+            evaluationsWithoutEcg++;
+            return false;
         }
+        return finish(patient, ecgCheck);
+    }
 
-        if (diaValue != null && (diaValue > 120 || diaValue < 60)) {
-            triggerAlert(new Alert(patient.getPatientId(), "Blood Pressure Diastolic Threshold Alert", System.currentTimeMillis()));
+    /**
+     * Holds the last record passed to it, e.g. by
+     * {@link Patient#visitLatestRecord}.
+     */
+    private static final class LatestRecord implements RecordVisitor {
+        boolean found;
+        long timestamp;
+        int recordTypeCode;
+        double value;
+
+        @Override
+        public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+            this.found = true;
+            this.timestamp = timestamp;
+            this.recordTypeCode = recordTypeCode;
+            this.value = measurementValue;
             return true;
         }
-
-        return false;
     }
 
-    public boolean checkECG(Patient patient, List<PatientRecord> records) {
-        List<PatientRecord> patientRecord = records;
-    
-        PatientRecord lastRecord = null;
-    
-        // Find the most recent ECG record
-        for (int i = patientRecord.size() - 1; i >= 0; i--) {
-            if (patientRecord.get(i).getRecordType().equals("ECG")) {
-                lastRecord = patientRecord.get(i);
-                break;
-            }
+    /**
+     * Feeds every record to several checks until all of them are done.
+     */
+    private static final class CombinedCheck implements RecordVisitor {
+        private final RecordVisitor[] checks;
+        private final boolean[] done;
+        private int remaining;
+
+        CombinedCheck(RecordVisitor... checks) {
+            this.checks = checks;
+            this.done = new boolean[checks.length];
         }
-    
-        if (lastRecord == null) {
-            System.err.println("No ECG record found for patient " + patient.getPatientId());
-            return false;
+
+        void reset() {
+            Arrays.fill(done, false);
+            remaining = checks.length;
         }
-    
-        double sumOfMeasurements = 0;
-        double numOfMeasurements = 0;
-    
-        // Calculate the average ECG measurement within the last minute
-        for (int i = patientRecord.size() - 1; i >= 0; i--) {
-            PatientRecord currentRecord = patientRecord.get(i);
-            if (currentRecord.getTimestamp() < lastRecord.getTimestamp() && currentRecord.getTimestamp() >= lastRecord.getTimestamp() - 60000) {
-                if (currentRecord.getRecordType().equals("ECG")) {
-                    sumOfMeasurements += currentRecord.getMeasurementValue();
-                    numOfMeasurements++;
+
+        @Override
+        public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+            for (int i = 0; i < checks.length; i++) {
+                if (!done[i] && !checks[i].visit(timestamp, recordTypeCode, measurementValue)) {
+                    done[i] = true;
+                    remaining--;
                 }
-            } else if (currentRecord.getTimestamp() < lastRecord.getTimestamp() - 60000) {
-                break;
             }
+            return remaining > 0;
         }
-    
-        if (numOfMeasurements == 0) {
-            System.err.println("No ECG records found within the last minute for patient " + patient.getPatientId());
-            return false;
-        }
-    
-        double average = sumOfMeasurements / numOfMeasurements;
-    
-        if (Math.abs(lastRecord.getMeasurementValue()) > 1.2 * average || Math.abs(lastRecord.getMeasurementValue()) < 0.8 * average) {
-            // A deviation of more than 20% is considered significant.
-            triggerAlert(new Alert(patient.getPatientId(), "ECG Abnormal Data Alert", System.currentTimeMillis()));
-            return true;
-        }
-    
-        return false;
     }
-
 }
-
@@ -0,0 +1,68 @@
+package com.alerts.checks;
+
+import com.data_management.PatientRecord;
+import com.data_management.RecordVisitor;
+
+import java.util.List;
+
+/**
+ * An alert condition evaluated by streaming a patient's records through it.
+ * A check is reset before every evaluation and reused afterwards, so
+ * evaluating allocates nothing; once the records have been visited,
+ * {@link #condition()} tells whether and why an alert is due. The
+ * {@link com.alerts.AlertGenerator} and the alert strategies share these
+ * checks, so every threshold is defined once. Not thread-safe.
+ */
+public abstract class AlertCheck implements RecordVisitor {
+
+    /**
+     * Forgets the records of the previous evaluation.
+     */
+    public abstract void reset();
+
+    /**
+     * Returns the condition found among the visited records.
+     *
+     * @return the description of the alert, or {@code null} if no alert is due
+     */
+    public abstract String condition();
+
+    /**
+     * Returns the time the alert refers to, the current time unless the check
+     * names the record that raised it.
+     *
+     * @return the timestamp of the alert, in milliseconds since UNIX epoch
+     */
+    public long alertTimestamp() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Resets this check and feeds it the records of one patient in list
+     * order, until it is done.
+     *
+     * @param records   the records, possibly of several patients
+     * @param patientId the patient whose records are visited
+     */
+    public void visitAll(List<PatientRecord> records, int patientId) {
+        reset();
+        for (int i = 0; i < records.size(); i++) {
+            PatientRecord record = records.get(i);
+            if (record.getPatientId() == patientId
+                    && !visit(record.getTimestamp(), record.getRecordTypeCode(), record.getMeasurementValue())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Resets this check and feeds it a list of records in reverse order,
+     * until it is done.
+     *
+     * @param records the records
+     */
+    public void visitAllDescending(List<PatientRecord> records) {
+        reset();
+        RecordVisitor.visitAllDescending(records, this);
+    }
+}
@@ -0,0 +1,42 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Collects the last three systolic and diastolic readings, visiting
+ * records newest first, and reports a steady rise or fall of more than
+ * 10 mmHg per reading.
+ */
+public final class BloodPressureTrendCheck extends AlertCheck {
+    private final double[] sysValues = new double[3];
+    private final double[] diaValues = new double[3];
+    private int sysCount;
+    private int diaCount;
+
+    @Override
+    public void reset() {
+        sysCount = 0;
+        diaCount = 0;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (recordTypeCode == RecordTypeRegistry.SYSTOLIC_PRESSURE && sysCount < 3) {
+            sysValues[sysCount++] = measurementValue;
+        } else if (recordTypeCode == RecordTypeRegistry.DIASTOLIC_PRESSURE && diaCount < 3) {
+            diaValues[diaCount++] = measurementValue;
+        }
+        return sysCount < 3 || diaCount < 3;
+    }
+
+    @Override
+    public String condition() {
+        boolean trend = (sysCount == 3 && isTrend(sysValues)) || (diaCount == 3 && isTrend(diaValues));
+        return trend ? "Blood Pressure Trend Alert" : null;
+    }
+
+    private static boolean isTrend(double[] values) {
+        return (values[0] - values[1] > 10 && values[1] - values[2] > 10) ||
+                (values[2] - values[1] > 10 && values[1] - values[0] > 10);
+    }
+}
@@ -0,0 +1,43 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Finds the latest systolic and diastolic reading, visiting records newest
+ * first, and reports a reading outside the safe range.
+ */
+public final class CriticalThresholdCheck extends AlertCheck {
+    private boolean hasSys;
+    private double sysValue;
+    private boolean hasDia;
+    private double diaValue;
+
+    @Override
+    public void reset() {
+        hasSys = false;
+        hasDia = false;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (!hasSys && recordTypeCode == RecordTypeRegistry.SYSTOLIC_PRESSURE) {
+            hasSys = true;
+            sysValue = measurementValue;
+        } else if (!hasDia && recordTypeCode == RecordTypeRegistry.DIASTOLIC_PRESSURE) {
+            hasDia = true;
+            diaValue = measurementValue;
+        }
+        return !(hasSys && hasDia);
+    }
+
+    @Override
+    public String condition() {
+        if (hasSys && (sysValue > 180 || sysValue < 90)) {
+            return "Blood Pressure Systolic Threshold Alert";
+        }
+        if (hasDia && (diaValue > 120 || diaValue < 60)) {
+            return "Blood Pressure Diastolic Threshold Alert";
+        }
+        return null;
+    }
+}
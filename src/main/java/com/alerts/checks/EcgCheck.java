@@ -0,0 +1,65 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Finds the most recent ECG record and averages the ECG records of the
+ * minute before it, visiting records newest first. The latest reading
+ * deviating by more than 20% from that average is abnormal.
+ */
+public final class EcgCheck extends AlertCheck {
+    private boolean found;
+    private long lastTimestamp;
+    private double lastValue;
+    private double sumOfMeasurements;
+    private int numOfMeasurements;
+
+    @Override
+    public void reset() {
+        found = false;
+        sumOfMeasurements = 0;
+        numOfMeasurements = 0;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (!found) {
+            if (recordTypeCode == RecordTypeRegistry.ECG) {
+                found = true;
+                lastTimestamp = timestamp;
+                lastValue = measurementValue;
+            }
+            return true;
+        }
+        if (timestamp < lastTimestamp && timestamp >= lastTimestamp - 60000) {
+            if (recordTypeCode == RecordTypeRegistry.ECG) {
+                sumOfMeasurements += measurementValue;
+                numOfMeasurements++;
+            }
+        } else if (timestamp < lastTimestamp - 60000) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the visited records lacked an ECG record, or ECG
+     * records in the minute before the latest one, to average over.
+     *
+     * @return {@code true} if the check could not be evaluated
+     */
+    public boolean isMissingData() {
+        return !found || numOfMeasurements == 0;
+    }
+
+    @Override
+    public String condition() {
+        if (isMissingData()) {
+            return null;
+        }
+        // A deviation of more than 20% is considered significant.
+        double average = sumOfMeasurements / numOfMeasurements;
+        boolean abnormal = Math.abs(lastValue) > 1.2 * average || Math.abs(lastValue) < 0.8 * average;
+        return abnormal ? "ECG Abnormal Data Alert" : null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Finds the first record by which both a saturation below 92% and a
+ * systolic pressure below 90 mmHg have been seen, visiting records oldest
+ * first.
+ */
+public final class HypotensiveHypoxemiaCheck extends AlertCheck {
+    private boolean lowSaturation;
+    private boolean lowBloodPressure;
+    private boolean found;
+    private long timestamp;
+
+    @Override
+    public void reset() {
+        lowSaturation = false;
+        lowBloodPressure = false;
+        found = false;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (recordTypeCode == RecordTypeRegistry.SATURATION && measurementValue < LowSaturationCheck.THRESHOLD) {
+            lowSaturation = true;
+        }
+        if (recordTypeCode == RecordTypeRegistry.SYSTOLIC_PRESSURE && measurementValue < 90.0) {
+            lowBloodPressure = true;
+        }
+        if (lowSaturation && lowBloodPressure) {
+            found = true;
+            this.timestamp = timestamp;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String condition() {
+        return found ? "Hypotensive Hypoxemia Alert: Blood oxygen saturation level fell below 92% and systolic blood pressure fell below 90 mmHg." : null;
+    }
+
+    @Override
+    public long alertTimestamp() {
+        return timestamp;
+    }
+}
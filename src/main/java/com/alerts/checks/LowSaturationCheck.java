@@ -0,0 +1,40 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Finds the first saturation record below 92%, visiting records oldest
+ * first.
+ */
+public final class LowSaturationCheck extends AlertCheck {
+    /** The saturation, in percent, below which an alert is raised. */
+    public static final double THRESHOLD = 92.0;
+
+    private boolean found;
+    private long timestamp;
+
+    @Override
+    public void reset() {
+        found = false;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (recordTypeCode == RecordTypeRegistry.SATURATION && measurementValue < THRESHOLD) {
+            found = true;
+            this.timestamp = timestamp;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String condition() {
+        return found ? "Blood oxygen saturation level fell below 92%." : null;
+    }
+
+    @Override
+    public long alertTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,55 @@
+package com.alerts.checks;
+
+import com.data_management.RecordTypeRegistry;
+
+/**
+ * Compares the newest record with the blood saturation record before it,
+ * visiting records newest first.
+ */
+public final class RapidDropCheck extends AlertCheck {
+    /** The longest time between the two readings compared. */
+    public static final long WINDOW_MILLIS = 600000;
+
+    private boolean hasCurrent;
+    private long currentTimestamp;
+    private double currentValue;
+    private boolean hasPrevious;
+    private long previousTimestamp;
+    private double previousValue;
+
+    @Override
+    public void reset() {
+        hasCurrent = false;
+        hasPrevious = false;
+    }
+
+    @Override
+    public boolean visit(long timestamp, int recordTypeCode, double measurementValue) {
+        if (!hasCurrent) {
+            hasCurrent = true;
+            currentTimestamp = timestamp;
+            currentValue = measurementValue;
+            return true;
+        }
+        if (recordTypeCode == RecordTypeRegistry.BLOOD_SATURATION) {
+            // Found the previous saturation record
+            hasPrevious = true;
+            previousTimestamp = timestamp;
+            previousValue = measurementValue;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String condition() {
+        boolean drop = hasPrevious && (currentTimestamp - previousTimestamp) <= WINDOW_MILLIS &&
+                ((currentValue - previousValue) / previousValue) <= -0.05;
+        return drop ? "Blood oxygen saturation level dropped by 5% or more within 10 minutes." : null;
+    }
+
+    @Override
+    public long alertTimestamp() {
+        return currentTimestamp;
+    }
+}
@@ -0,0 +1,53 @@
+package com.data_management;
+
+/**
+ * The minimum, maximum, sum and count of the measurements of one record type
+ * within a time range, as answered by {@link DataStorage#aggregate} from the
+ * incrementally maintained rollup buckets.
+ * An aggregate over no measurements has a count of zero and {@code NaN} as
+ * minimum, maximum and average.
+ */
+public final class Aggregate {
+    static final Aggregate EMPTY = new Aggregate(Double.NaN, Double.NaN, 0, 0);
+
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long count;
+
+    Aggregate(double min, double max, double sum, long count) {
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the average of the measurements.
+     *
+     * @return the average, or {@code NaN} if there are no measurements
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+}
@@ -0,0 +1,375 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads record files into a {@link DataStorage} on several threads. Every
+ * file is split into line-aligned chunks that are memory-mapped and parsed
+ * in place by a pool of workers, so files are read at the speed of the disk
+ * rather than of one parsing thread.
+ * Storing records out of timestamp order is expensive, so every worker
+ * splits the records of its chunk into lanes by patient and each lane is
+ * stored in chunk order: the records of a patient reach the storage in file
+ * order, while different lanes are stored in parallel.
+ * Workers copy their mapped chunk block by block onto the heap and widen
+ * every line into a reused {@link CharSlice}, so parsing reads arrays rather
+ * than the mapping. Lines are decoded as ASCII, lines containing other bytes
+ * as UTF-8.
+ */
+public final class BulkFileLoader {
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+    private static final int BOUNDARY_PROBE_BYTES = 4096; // read at a time when aligning chunks to lines
+    private static final int BLOCK_BYTES = 64 << 10; // copied from the mapping at a time
+    private static final int MALFORMED_EXAMPLES = 3; // malformed lines quoted in the summary of a load
+
+    private final DataStorage storage;
+    private final RecordFormat format;
+    private final int threads;
+    private final int chunkBytes;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+    private final LongAdder records = new LongAdder();
+    private final LongAdder malformedLines = new LongAdder();
+
+    // per load: the chunk every lane stores next, guarded by laneLocks
+    private Object[] laneLocks;
+    private int[] nextChunk;
+    private final List<String> malformedExamples = new ArrayList<>(); // the first malformed lines, guarded by itself
+
+    /**
+     * Constructs a loader with one worker per available processor and chunks
+     * of {@value #DEFAULT_CHUNK_BYTES} bytes.
+     *
+     * @param storage the storage the records are added to
+     * @param format  the format of the lines
+     */
+    public BulkFileLoader(DataStorage storage, RecordFormat format) {
+        this(storage, format, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Constructs a loader.
+     *
+     * @param storage    the storage the records are added to
+     * @param format     the format of the lines
+     * @param threads    the number of workers
+     * @param chunkBytes the size of the chunks the files are split into
+     * @throws IllegalArgumentException if {@code threads} or {@code chunkBytes}
+     *                                  is not positive
+     */
+    public BulkFileLoader(DataStorage storage, RecordFormat format, int threads, int chunkBytes) {
+        if (threads <= 0 || chunkBytes <= 0) {
+            throw new IllegalArgumentException("A loader needs at least one worker and one byte per chunk");
+        }
+        this.storage = storage;
+        this.format = format;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Loads the records of the given files. Malformed lines are skipped and
+     * counted; once the load is done, one line on the standard error reports
+     * their number and quotes the first few. Only one load runs at a time.
+     *
+     * @param files the files to load
+     * @throws IOException if a file cannot be read
+     */
+    public synchronized void load(List<Path> files) throws IOException {
+        long malformedBefore = malformedLines.sum();
+        synchronized (malformedExamples) {
+            malformedExamples.clear();
+        }
+        try {
+            loadChunks(files);
+        } finally {
+            reportMalformedLines(malformedLines.sum() - malformedBefore);
+        }
+    }
+
+    private void loadChunks(List<Path> files) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // chunks are numbered across all files and queued in that order
+            List<Chunk> chunks = new ArrayList<>();
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                split(channel, chunks);
+            }
+            laneLocks = new Object[threads];
+            nextChunk = new int[threads];
+            for (int i = 0; i < threads; i++) {
+                laneLocks[i] = new Object();
+            }
+            // a fixed pool takes tasks in queue order, so a chunk only ever waits for chunks already taken
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                int sequence = i;
+                results.add(pool.submit(() -> {
+                    load(chunk, sequence);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Loading failed", cause);
+        } finally {
+            pool.shutdownNow();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private void reportMalformedLines(long count) {
+        if (count == 0) {
+            return;
+        }
+        synchronized (malformedExamples) {
+            System.err.println("Skipped " + count + " malformed lines, the first: " + malformedExamples);
+        }
+    }
+
+    /**
+     * Returns the number of records parsed by this loader so far.
+     *
+     * @return the number of records
+     */
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    /**
+     * Returns the number of lines this loader skipped because they were not
+     * records of its format.
+     *
+     * @return the number of malformed lines
+     */
+    public long getMalformedLineCount() {
+        return malformedLines.sum();
+    }
+
+    /**
+     * Splits a file into chunks of about {@code chunkBytes}, each ending
+     * right after a line feed or at the end of the file.
+     */
+    private void split(FileChannel channel, List<Chunk> chunks) throws IOException {
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_BYTES);
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkBytes;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = lineEnd(channel, end - 1, size, probe);
+            }
+            chunks.add(new Chunk(channel, start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the position after the first line feed at or after a position,
+     * or the size of the file if there is none.
+     */
+    private static long lineEnd(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        while (position < size) {
+            probe.clear();
+            int count = channel.read(probe, position);
+            if (count <= 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += count;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a chunk into the lanes of the calling worker and stores each lane
+     * once the chunks before have been stored in it. The lanes are stored even
+     * if parsing failed, empty, so later chunks do not wait forever.
+     */
+    private void load(Chunk chunk, int sequence) {
+        Worker worker = workers.get();
+        RecordBatch[] batches = worker.lanes;
+        boolean parsed = false;
+        try {
+            worker.parse(chunk);
+            parsed = true;
+        } finally {
+            try {
+                for (int i = 0; i < threads; i++) {
+                    // start at different lanes, so workers do not queue up behind each other
+                    int lane = (sequence + i) % threads;
+                    awaitTurn(lane, sequence);
+                    try {
+                        if (parsed) {
+                            storage.addPatientData(batches[lane]);
+                        }
+                    } finally {
+                        pass(lane);
+                    }
+                }
+            } finally {
+                for (RecordBatch batch : batches) {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void awaitTurn(int lane, int sequence) {
+        boolean interrupted = false;
+        synchronized (laneLocks[lane]) {
+            while (nextChunk[lane] != sequence) {
+                try {
+                    laneLocks[lane].wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the turn has to be taken anyway, or later chunks wait forever
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void pass(int lane) {
+        synchronized (laneLocks[lane]) {
+            nextChunk[lane]++;
+            laneLocks[lane].notifyAll();
+        }
+    }
+
+    /**
+     * A line-aligned range of a file.
+     */
+    private static final class Chunk {
+        final FileChannel channel;
+        final long start;
+        final long end;
+
+        Chunk(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The buffers of a worker thread, reused for all the chunks it parses.
+     */
+    private final class Worker {
+        final RecordBatch[] lanes = new RecordBatch[threads];
+        final RecordConsumer router = (patientId, timestamp, recordTypeCode, measurementValue) ->
+                lanes[Math.floorMod(patientId, lanes.length)]
+                        .add(patientId, measurementValue, recordTypeCode, timestamp);
+        final byte[] block = new byte[BLOCK_BYTES];
+        final CharSlice line = new CharSlice();
+        char[] chars = new char[256]; // the line being read, one char per byte
+
+        Worker() {
+            for (int i = 0; i < threads; i++) {
+                lanes[i] = new RecordBatch();
+            }
+        }
+
+        void parse(Chunk chunk) {
+            ByteBuffer bytes;
+            try {
+                bytes = chunk.channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int length = 0;
+            boolean ascii = true;
+            while (bytes.hasRemaining()) {
+                int count = Math.min(block.length, bytes.remaining());
+                bytes.get(block, 0, count);
+                for (int i = 0; i < count; i++) {
+                    byte b = block[i];
+                    if (b == '\n') {
+                        accept(length, ascii);
+                        length = 0;
+                        ascii = true;
+                        continue;
+                    }
+                    if (length == chars.length) {
+                        chars = Arrays.copyOf(chars, length * 2);
+                    }
+                    chars[length++] = (char) (b & 0xFF);
+                    ascii &= b >= 0;
+                }
+            }
+            accept(length, ascii); // the end of the file ends the last line
+        }
+
+        private void accept(int length, boolean ascii) {
+            if (length > 0 && chars[length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0) {
+                return;
+            }
+            CharSequence text = ascii ? line.wrap(chars, 0, length) : decode(length);
+            if (format.parse(text, router)) {
+                records.increment();
+            } else {
+                malformedLines.increment();
+                synchronized (malformedExamples) {
+                    if (malformedExamples.size() < MALFORMED_EXAMPLES) {
+                        malformedExamples.add(text.toString());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Decodes the line as UTF-8, narrowing its chars back to the bytes
+         * they were widened from.
+         */
+        private String decode(int length) {
+            byte[] utf8 = new byte[length];
+            for (int i = 0; i < length; i++) {
+                utf8[i] = (byte) chars[i];
+            }
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.data_management;
+
+/**
+ * A reusable view of a range of a {@code char} array, through which the
+ * ingest path hands lines to a {@link RecordFormat} without creating a
+ * String per line. Keeping to this one view also keeps the parser's calls
+ * to {@link CharSequence#charAt} cheap.
+ */
+final class CharSlice implements CharSequence {
+    private char[] chars;
+    private int start;
+    private int length;
+
+    /**
+     * Points the view at a range of an array.
+     *
+     * @return this view
+     */
+    CharSlice wrap(char[] chars, int start, int end) {
+        this.chars = chars;
+        this.start = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " outside of a line of " + length);
+        }
+        return chars[start + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + ", " + end + " outside of a line of " + length);
+        }
+        return new String(chars, this.start + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, start, length);
+    }
+}
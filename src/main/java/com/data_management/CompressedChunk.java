@@ -0,0 +1,276 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed run of consecutive measurements of one series,
+ * encoded like the chunks of Facebook's Gorilla time series database.
+ * Timestamps are stored as delta-of-deltas, which take a single bit for a
+ * sample arriving at the usual cadence. Values are XORed with their
+ * predecessor and only the meaningful bits of the result are stored, which
+ * takes a single bit for an unchanged value and few bits for a slow drift.
+ * The first and last timestamp are kept uncompressed in the header, so a
+ * range query can skip chunks without decoding them. So are the minimum and
+ * maximum value, a zone map letting value queries skip chunks that cannot
+ * hold a match.
+ */
+final class CompressedChunk {
+    private final long[] bits;
+    private final int count;
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final double minValue; // NaN values are left out of both bounds
+    private final double maxValue;
+
+    private CompressedChunk(long[] bits, int count, long firstTimestamp, long lastTimestamp,
+                            double minValue, double maxValue) {
+        this.bits = bits;
+        this.count = count;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Compresses {@code count} measurements, ordered by timestamp, starting at
+     * {@code offset} of the given columns.
+     *
+     * @param timestamps the timestamp column
+     * @param values     the value column
+     * @param offset     the index of the first measurement
+     * @param count      the number of measurements, at least one
+     * @return the sealed chunk
+     */
+    static CompressedChunk seal(long[] timestamps, double[] values, int offset, int count) {
+        BitWriter out = new BitWriter(count);
+        long previousTimestamp = timestamps[offset];
+        long previousDelta = 0;
+        long previousBits = Double.doubleToRawLongBits(values[offset]);
+        int previousLeading = -1; // no window to reuse yet
+        int previousTrailing = 0;
+        out.write(previousBits, 64);
+        double minValue = Double.POSITIVE_INFINITY;
+        double maxValue = Double.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + count; i++) {
+            // comparisons are false for NaN, unlike Math.min and Math.max
+            if (values[i] < minValue) {
+                minValue = values[i];
+            }
+            if (values[i] > maxValue) {
+                maxValue = values[i];
+            }
+        }
+
+        for (int i = offset + 1; i < offset + count; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long valueBits = Double.doubleToRawLongBits(values[i]);
+            long xor = valueBits ^ previousBits;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                    // the meaningful bits fit the window of the previous value
+                    out.write(0b10, 2);
+                    out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                } else {
+                    int meaningful = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(meaningful - 1, 6);
+                    out.write(xor >>> trailing, meaningful);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            previousBits = valueBits;
+        }
+        return new CompressedChunk(out.toArray(), count, timestamps[offset], previousTimestamp, minValue, maxValue);
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Returns whether a measurement of this chunk may lie within
+     * {@code [low, high]}. If not, no measurement does.
+     */
+    boolean mayContain(double low, double high) {
+        return minValue <= high && maxValue >= low;
+    }
+
+    /**
+     * Returns the approximate heap size of this chunk in bytes.
+     */
+    long sizeInBytes() {
+        // object header and fields, array header and payload
+        return 56 + 16 + (long) bits.length * Long.BYTES;
+    }
+
+    /**
+     * Decodes the measurements within {@code [startTime, endTime]} and adds
+     * them to a buffer. Decoding stops at the first measurement after the
+     * range.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param out       the buffer receiving the measurements
+     */
+    void decode(long startTime, long endTime, SampleBuffer out) {
+        BitReader in = new BitReader(bits);
+        long timestamp = firstTimestamp;
+        long delta = 0;
+        long valueBits = in.read(64);
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 0; ; ) {
+            if (timestamp > endTime) {
+                return;
+            }
+            if (timestamp >= startTime) {
+                out.add(timestamp, Double.longBitsToDouble(valueBits));
+            }
+            if (++i == count) {
+                return;
+            }
+
+            if (in.read(1) != 0) {
+                if (in.read(1) == 0) {
+                    delta += in.readSigned(7);
+                } else if (in.read(1) == 0) {
+                    delta += in.readSigned(9);
+                } else if (in.read(1) == 0) {
+                    delta += in.readSigned(12);
+                } else {
+                    delta += in.read(64);
+                }
+            }
+            timestamp += delta;
+
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                valueBits ^= in.read(64 - leading - trailing) << trailing;
+            }
+        }
+    }
+
+    /**
+     * Decodes all measurements into a buffer.
+     *
+     * @param out the buffer receiving the measurements
+     */
+    void decodeAll(SampleBuffer out) {
+        decode(Long.MIN_VALUE, Long.MAX_VALUE, out);
+    }
+
+    /**
+     * Appends bit fields to a growable array of words, most significant bit
+     * first.
+     */
+    private static final class BitWriter {
+        private long[] words;
+        private int position; // in bits
+
+        BitWriter(int expectedSamples) {
+            // two bits per sample plus the first value is typical for regular vitals
+            this.words = new long[Math.max(2, expectedSamples / 16 + 2)];
+        }
+
+        /**
+         * Writes the lowest {@code length} bits of {@code value}.
+         */
+        void write(long value, int length) {
+            if (length == 0) {
+                return;
+            }
+            if (length < 64) {
+                value &= (1L << length) - 1;
+            }
+            int word = position >>> 6;
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int free = 64 - (position & 63);
+            if (length <= free) {
+                words[word] |= value << (free - length);
+            } else {
+                words[word] |= value >>> (length - free);
+                words[word + 1] |= value << (64 - (length - free));
+            }
+            position += length;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    /**
+     * Reads bit fields written by {@link BitWriter}.
+     */
+    private static final class BitReader {
+        private final long[] words;
+        private int position; // in bits
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int word = position >>> 6;
+            int offset = position & 63;
+            position += length;
+            long value = words[word] << offset;
+            if (offset + length > 64) {
+                value |= words[word + 1] >>> (64 - offset);
+            }
+            return value >>> (64 - length);
+        }
+
+        long readSigned(int length) {
+            long value = read(length);
+            // the ranges are asymmetric, e.g. -63..64 in 7 bits, so 64 is kept positive where plain
+            // two's-complement sign extension would turn it into -64; the comparison must stay >, not >=
+            long limit = 1L << (length - 1);
+            return value > limit ? value - (1L << length) : value;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.data_management;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The throughput and lag of one connection of a {@link MyWebSocketClient}.
+ * The message counters are kept by the receiving thread, the record counts
+ * are taken from the client's {@link IngestRingBuffer} at the connection's
+ * start and end, so metrics cost the receiver no more than two counter
+ * increments per message. While the connection is open the metrics are live,
+ * afterwards they are frozen at its close.
+ */
+public final class ConnectionMetrics {
+    private final int connection;
+    private final IngestRingBuffer ingest;
+    private final long openedAtMillis;
+    private final long publishedBefore;
+    private final long droppedBefore;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder characters = new LongAdder();
+    // set once when the connection closes, closedAtMillis last
+    private volatile long publishedAfter;
+    private volatile long droppedAfter;
+    private volatile long lagAtClose;
+    private volatile long closedAtMillis;
+
+    ConnectionMetrics(int connection, IngestRingBuffer ingest) {
+        this.connection = connection;
+        this.ingest = ingest;
+        this.openedAtMillis = System.currentTimeMillis();
+        this.publishedBefore = ingest.getPublishedRecordCount();
+        this.droppedBefore = ingest.getDroppedRecordCount();
+    }
+
+    void onMessage(String message) {
+        messages.increment();
+        characters.add(message.length());
+    }
+
+    void close() {
+        publishedAfter = ingest.getPublishedRecordCount();
+        droppedAfter = ingest.getDroppedRecordCount();
+        lagAtClose = currentLag();
+        closedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of the connection, 1 for the client's first one.
+     *
+     * @return the connection number
+     */
+    public int getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns when the connection was opened.
+     *
+     * @return the time, in milliseconds since UNIX epoch
+     */
+    public long getOpenedAtMillis() {
+        return openedAtMillis;
+    }
+
+    /**
+     * Returns whether the connection is still open; the metrics are frozen
+     * once it is not.
+     *
+     * @return {@code true} until the connection closed
+     */
+    public boolean isOpen() {
+        return closedAtMillis == 0;
+    }
+
+    /**
+     * Returns how long the connection has been, or was, open.
+     *
+     * @return the duration in milliseconds
+     */
+    public long getDurationMillis() {
+        long closed = closedAtMillis;
+        return (closed == 0 ? System.currentTimeMillis() : closed) - openedAtMillis;
+    }
+
+    /**
+     * Returns the number of messages received on this connection, malformed
+     * ones included.
+     *
+     * @return the number of messages
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    /**
+     * Returns the total length of the messages received on this connection.
+     *
+     * @return the number of characters
+     */
+    public long getCharacterCount() {
+        return characters.sum();
+    }
+
+    /**
+     * Returns the number of records received on this connection and queued
+     * for storing.
+     *
+     * @return the number of records
+     */
+    public long getRecordCount() {
+        return (isOpen() ? ingest.getPublishedRecordCount() : publishedAfter) - publishedBefore;
+    }
+
+    /**
+     * Returns the number of records received on this connection and dropped
+     * because the ingest buffer was full.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordCount() {
+        return (isOpen() ? ingest.getDroppedRecordCount() : droppedAfter) - droppedBefore;
+    }
+
+    /**
+     * Returns the average rate records were received at on this connection.
+     *
+     * @return the records per second
+     */
+    public double getRecordsPerSecond() {
+        return getRecordCount() * 1000.0 / Math.max(1, getDurationMillis());
+    }
+
+    /**
+     * Returns how far the storage is behind the sender: the time since the
+     * newest stored record was taken, by the sender's clock. Frozen at the
+     * close of the connection.
+     *
+     * @return the lag in milliseconds, or -1 if nothing has been stored yet
+     */
+    public long getLagMillis() {
+        return isOpen() ? currentLag() : lagAtClose;
+    }
+
+    private long currentLag() {
+        long newest = ingest.getNewestStoredTimestamp();
+        return newest == Long.MIN_VALUE ? -1 : Math.max(0, System.currentTimeMillis() - newest);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connection %d: %d messages, %d records (%.0f/s), %d dropped, lag %d ms",
+                connection, getMessageCount(), getRecordCount(), getRecordsPerSecond(), getDroppedRecordCount(),
+                getLagMillis());
+    }
+}
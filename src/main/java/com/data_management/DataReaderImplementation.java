@@ -1,50 +1,107 @@
 package com.data_management;
 
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DataReaderImplementation implements DataReader{
 
     private String outputDirectory;
+    private final RecordFormat fileFormat;
+    private int ingestCapacity = IngestRingBuffer.DEFAULT_CAPACITY;
+    private IngestRingBuffer.WaitStrategy ingestWaitStrategy = IngestRingBuffer.WaitStrategy.BLOCKING;
+    private IngestRingBuffer.OverflowPolicy ingestOverflowPolicy = IngestRingBuffer.OverflowPolicy.DROP_NEWEST;
+    private volatile MyWebSocketClient realTimeClient; // null until real-time reading starts
 
+    /**
+     * Constructs a reader of the {@link RecordFormat#CSV} files in a directory.
+     *
+     * @param outputDirectory the directory the files are read from
+     */
     public DataReaderImplementation(String outputDirectory) {
+        this(outputDirectory, RecordFormat.CSV);
+    }
+
+    /**
+     * Constructs a reader of the files in a directory, e.g. of the simulator's
+     * file output with {@link RecordFormat#FILE_OUTPUT}.
+     *
+     * @param outputDirectory the directory the files are read from
+     * @param fileFormat      the format of the lines in the files
+     */
+    public DataReaderImplementation(String outputDirectory, RecordFormat fileFormat) {
         this.outputDirectory = outputDirectory;
+        this.fileFormat = fileFormat;
+    }
+
+    /**
+     * Configures the ring buffer {@link #readRealTimeData} hands the received
+     * records to its storing thread through, dropping records while it is
+     * full. Applies to connections opened afterwards.
+     *
+     * @param capacity     the number of records buffered
+     * @param waitStrategy how the storing thread waits for records
+     */
+    public void setRealTimeIngest(int capacity, IngestRingBuffer.WaitStrategy waitStrategy) {
+        setRealTimeIngest(capacity, waitStrategy, IngestRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Configures the ring buffer {@link #readRealTimeData} hands the received
+     * records to its storing thread through. Applies to connections opened
+     * afterwards.
+     *
+     * @param capacity       the number of records buffered
+     * @param waitStrategy   how the storing thread waits for records
+     * @param overflowPolicy what happens to records while the buffer is full
+     */
+    public void setRealTimeIngest(int capacity, IngestRingBuffer.WaitStrategy waitStrategy,
+                                  IngestRingBuffer.OverflowPolicy overflowPolicy) {
+        this.ingestCapacity = capacity;
+        this.ingestWaitStrategy = waitStrategy;
+        this.ingestOverflowPolicy = overflowPolicy;
     }
 
+    /**
+     * Returns the ring buffer of the last real-time client, whose queue depth
+     * and drop counts show whether the storage keeps up.
+     *
+     * @return the ring buffer, or {@code null} if no client was started
+     */
+    public IngestRingBuffer getRealTimeIngest() {
+        MyWebSocketClient client = realTimeClient;
+        return client == null ? null : client.getIngest();
+    }
+
+    /**
+     * Returns the last real-time client, e.g. for its connection metrics or
+     * to shut it down.
+     *
+     * @return the client, or {@code null} if none was started
+     */
+    public MyWebSocketClient getRealTimeClient() {
+        return realTimeClient;
+    }
+
+    /**
+     * Starts a client receiving the simulator's records from a WebSocket on
+     * this host. The client reconnects whenever the connection is lost,
+     * until it is shut down.
+     */
     @Override
     public void readRealTimeData(DataStorage dataStorage, int websocketPort) throws IOException {
         String websocketUrl = "ws://localhost:" + websocketPort;
+        // the simulator sends the timestamp before the value
+        IngestRingBuffer ingest = new IngestRingBuffer(dataStorage, RecordFormat.SIMULATOR, ingestCapacity,
+                ingestWaitStrategy, ingestOverflowPolicy);
         try {
-            MyWebSocketClient client = new MyWebSocketClient(new URI(websocketUrl)) {
-                @Override
-                public void onOpen(ServerHandshake handshakedata) {
-                    System.out.println("Connected to WebSocket server");
-                }
-
-                @Override
-                public void onMessage(String message) {
-                    // Store the received message in dataStorage
-                    dataStorage.storeData(message);
-                }
-
-                @Override
-                public void onClose(int code, String reason, boolean remote) {
-                    System.out.println("Disconnected from WebSocket server");
-                }
-
-                @Override
-                public void onError(Exception ex) {
-                    ex.printStackTrace();
-                }
-            };
-            client.connect();
+            MyWebSocketClient client = new MyWebSocketClient(new URI(websocketUrl), ingest);
+            client.start();
+            realTimeClient = client;
         } catch (URISyntaxException e) {
             throw new IOException("Invalid WebSocket URI", e);
         }
@@ -62,14 +119,12 @@ public class DataReaderImplementation implements DataReader{
             throw new IOException("No files found in the directory");
         }
 
+        // mapped and parsed in parallel chunks, see BulkFileLoader
+        List<Path> paths = new ArrayList<>();
         for (File file : files) {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    dataStorage.storeData(line);
-                }
-            }
+            paths.add(file.toPath());
         }
+        new BulkFileLoader(dataStorage, fileFormat).load(paths);
     }
 
 
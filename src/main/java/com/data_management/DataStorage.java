@@ -1,11 +1,20 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import com.alerts.AlertGenerator;
 
 /**
@@ -13,24 +22,74 @@ import com.alerts.AlertGenerator;
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
- * Implemented as singleton.
+ * Patients are hash-partitioned by their ID across independent
+ * {@link StorageShard}s, by default one per available processor, and every
+ * patient guards its own records, so ingest for different patients never
+ * contends and readers only wait for writers of the patient they are reading.
+ * {@link #getInstance()} provides a process-wide default instance; further
+ * independent instances can be constructed directly.
+ * An optional {@link RetentionPolicy} ages old data into downsampled tiers
+ * and eventually evicts it, in small steps on a background thread.
+ * An optional memory budget degrades the oldest data first when the held
+ * memory exceeds it, and turns new patients away if that is not enough.
+ * With durability enabled every added record is written to a write-ahead log
+ * and periodic snapshots allow a fast restart.
  */
 public class DataStorage {
-    private Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
-    private String dataToProcess;
-    private Lock lock; // lock to ensure thread safety
+    private static final long RETENTION_STEP_MILLIS = 100; // pause between two retention steps
+    private static final int RETENTION_PATIENTS_PER_STEP = 64;
+    private static final int RETENTION_ENTRIES_PER_LOCK = 4096; // bounds how long a patient stays locked
+    private static final long MEMORY_CHECK_MILLIS = 1000; // pause between two memory budget checks
+    private static final long PROTECTED_MILLIS = 10 * 60 * 1000L; // the newest data, needed by the alert checks
+
+    private StorageShard[] shards; // Stores patient objects partitioned by their unique patient ID.
+    private StorageBackend backend; // where the patients keep their histories
+    private final RecordConsumer ingest = (patientId, timestamp, recordTypeCode, measurementValue) ->
+            addPatientData(patientId, measurementValue, recordTypeCode, timestamp);
+    private final ThreadLocal<MessageBuffer> messageBuffers = ThreadLocal.withInitial(MessageBuffer::new);
+    private volatile RetentionPolicy retentionPolicy; // null keeps the whole history
+    private ScheduledExecutorService maintenanceExecutor; // runs retention and the memory budget
+    private volatile long memoryBudget = Long.MAX_VALUE; // in bytes
+    private volatile boolean overBudget; // closes admission for new patients
+    private long lastMemoryCheck; // only used by the maintenance thread
+    private final LongAdder rejectedRecords = new LongAdder();
+    private Iterator<Patient> retentionCursor; // only used by the retention thread
+    private int retentionShard; // the shard retentionCursor walks through
+    private volatile StoragePersistence persistence; // null unless durability is enabled
+    private volatile long allowedLatenessMillis = -1; // negative while records are stored as they arrive
+    private volatile LateRecordHandler lateRecordHandler; // null drops late records after counting them
+    private final LongAdder lateRecords = new LongAdder();
+    private final LongAdder maintenanceFailures = new LongAdder();
+    private volatile RuntimeException lastMaintenanceFailure; // null until a maintenance step failed
 
     // Private static variable that holds the single instance of the class
     private static volatile DataStorage instance;
 
+    /**
+     * Constructs a new instance of DataStorage keeping patient histories on the
+     * heap, with one shard per available processor.
+     */
+    public DataStorage() {
+        this(StorageBackend.heap(), Runtime.getRuntime().availableProcessors());
+    }
+
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
      * structure.
+     *
+     * @param backend    the backend holding the patient histories
+     * @param shardCount the number of shards the patients are partitioned into
+     * @throws IllegalArgumentException if {@code shardCount} is not positive
      */
-    private DataStorage() {
-        this.patientMap = new HashMap<>();
-        this.lock = new ReentrantLock();
-        this.dataToProcess = "";
+    public DataStorage(StorageBackend backend, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("DataStorage needs at least one shard");
+        }
+        this.backend = backend;
+        this.shards = new StorageShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new StorageShard(backend);
+        }
     }
 
     // Public static method to provide access to the instance
@@ -45,11 +104,63 @@ public class DataStorage {
         return instance;
     }
 
+    /**
+     * Provides access to the instance, creating it with the given storage
+     * backend if it does not exist yet.
+     *
+     * @param backend the backend holding the patient histories
+     * @return the single DataStorage instance
+     * @throws IllegalStateException if the instance was already created with
+     *                               another backend
+     */
+    public static DataStorage getInstance(StorageBackend backend) {
+        if (instance == null) {
+            synchronized (DataStorage.class) {
+                if (instance == null) {
+                    instance = new DataStorage(backend, Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        if (!instance.backend.equals(backend)) {
+            throw new IllegalStateException("DataStorage was already created with another storage backend");
+        }
+        return instance;
+    }
+
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private StorageShard shardFor(int patientId) {
+        // spread consecutive IDs, which are the common case, evenly
+        return shards[Math.floorMod(patientId * 0x9E3779B9, shards.length)];
+    }
+
+    /**
+     * Returns the patient with the given ID, creating it if it is unknown.
+     */
+    Patient getOrCreatePatient(int patientId) {
+        return shardFor(patientId).getOrCreate(patientId);
+    }
+
+    /**
+     * Adds a restored patient, replacing a patient with the same ID.
+     */
+    void putPatient(Patient patient) {
+        shardFor(patient.getPatientId()).put(patient);
+    }
+
     /**
      * Adds or updates patient data in the storage.
      * If the patient does not exist, a new Patient object is created and added to
      * the storage.
      * Otherwise, the new data is added to the existing patient's records.
+     * Data the patient already holds, a record with the same type and
+     * timestamp, is ignored, see {@link #getDuplicateRecordCount()}.
      *
      * @param patientId        the unique identifier of the patient
      * @param measurementValue the value of the health metric being recorded
@@ -59,19 +170,100 @@ public class DataStorage {
      *                         milliseconds since the Unix epoch
      */
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        lock.lock(); // acquire the lock before updating patient data
-        try {
-            Patient patient = patientMap.get(patientId);
+        // translate the label once here, storage and alert checks only see the code
+        addPatientData(patientId, measurementValue, RecordTypeRegistry.codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds patient data whose record type has already been translated to its
+     * {@link RecordTypeRegistry} code.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeCode   the code of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public void addPatientData(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        StorageShard shard = shardFor(patientId);
+        Patient patient = shard.get(patientId);
+        if (patient == null) {
+            if (overBudget) {
+                // known patients keep being monitored, new ones are turned away
+                rejectedRecords.increment();
+                return;
+            }
+            patient = shard.getOrCreate(patientId);
+        }
+        StoragePersistence durable = persistence;
+        WriteAheadLog log = durable == null ? null : durable.getLog();
+        long lateness = allowedLatenessMillis;
+        if (lateness < 0) {
+            patient.addRecord(measurementValue, recordTypeCode, timestamp, log);
+        } else if (!patient.offerRecord(measurementValue, recordTypeCode, timestamp, log, lateness)) {
+            lateRecords.increment();
+            LateRecordHandler handler = lateRecordHandler;
+            if (handler != null) {
+                handler.onLateRecord(patientId, recordTypeCode, timestamp, measurementValue);
+            }
+        }
+    }
+
+    /**
+     * Adds the records of a batch, as {@link #addPatientData(int, double, int, long)}
+     * would add them one at a time. The records are grouped by patient and the
+     * records of each patient are added in one critical section, so a batch
+     * costs one patient lookup and one lock acquisition per patient instead of
+     * per record. Records of one patient are added in batch order. The batch is
+     * left unchanged and can be cleared and refilled afterwards.
+     *
+     * @param batch the records to add
+     */
+    public void addPatientData(RecordBatch batch) {
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        batch.groupByPatient();
+        StoragePersistence durable = persistence;
+        WriteAheadLog log = durable == null ? null : durable.getLog();
+        long lateness = allowedLatenessMillis;
+        for (int group = 0; group < batch.groupCount(); group++) {
+            int patientId = batch.groupPatientId(group);
+            int from = batch.groupStart(group);
+            int to = batch.groupStart(group + 1);
+            StorageShard shard = shardFor(patientId);
+            Patient patient = shard.get(patientId);
+            if (patient == null && overBudget) {
+                rejectedRecords.add(to - from);
+                continue;
+            }
             if (patient == null) {
-                patient = new Patient(patientId);
-                patientMap.put(patientId, patient);
+                patient = shard.getOrCreate(patientId);
             }
-            patient.addRecord(measurementValue, recordType, timestamp);
-        } finally {
-            lock.unlock(); // release the lock after updating patient data
+            batch.clearLate();
+            patient.addRecords(batch, from, to, log, lateness);
+            reportLate(batch);
         }
     }
 
+    private void reportLate(RecordBatch batch) {
+        int count = batch.lateCount();
+        if (count == 0) {
+            return;
+        }
+        lateRecords.add(count);
+        LateRecordHandler handler = lateRecordHandler;
+        if (handler != null) {
+            for (int i = 0; i < count; i++) {
+                int index = batch.indexAt(batch.latePositionAt(i));
+                handler.onLateRecord(batch.patientIdAt(index), batch.recordTypeCodeAt(index),
+                        batch.timestampAt(index), batch.valueAt(index));
+            }
+        }
+        batch.clearLate();
+    }
+
     /**
      * Retrieves a list of PatientRecord objects for a specific patient, filtered by
      * a time range.
@@ -86,30 +278,633 @@ public class DataStorage {
      *         range
      */
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
-        lock.lock(); // acquire the lock before accessing patient records
-        try {
-            Patient patient = patientMap.get(patientId);
-            if (patient != null) {
-                return patient.getRecords(startTime, endTime);
+        Patient patient = shardFor(patientId).get(patientId);
+        if (patient != null) {
+            return patient.getRecords(startTime, endTime);
+        }
+        return new ArrayList<>(); // return an empty list if no patient is found
+    }
+
+    /**
+     * Streams the records of a patient within a time range to a visitor,
+     * oldest first, without creating a list or record objects. Does nothing if
+     * the patient is unknown. See {@link Patient#forEachRecord}.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param visitor   receives the records until it returns {@code false}
+     */
+    public void forEachRecord(int patientId, long startTime, long endTime, RecordVisitor visitor) {
+        Patient patient = shardFor(patientId).get(patientId);
+        if (patient != null) {
+            patient.forEachRecord(startTime, endTime, visitor);
+        }
+    }
+
+    /**
+     * Returns the most recent record of one record type of a patient, from a
+     * table maintained on ingest rather than from the history.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g., "Saturation"
+     * @return the latest record, or {@code null} if the patient or the record
+     *         type is unknown
+     */
+    public PatientRecord getLatestRecord(int patientId, String recordType) {
+        int recordTypeCode = RecordTypeRegistry.lookup(recordType); // a query never registers a label
+        Patient patient = shardFor(patientId).get(patientId);
+        if (patient != null && recordTypeCode != RecordTypeRegistry.UNKNOWN) {
+            return patient.getLatestRecord(recordTypeCode);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the most recent record of every record type of every patient,
+     * e.g. for a dashboard of current vitals. No history is read.
+     *
+     * @return one record per patient and record type
+     */
+    public List<PatientRecord> getLatestRecords() {
+        List<PatientRecord> latest = new ArrayList<>();
+        for (StorageShard shard : shards) {
+            for (Patient patient : shard.patients()) {
+                latest.addAll(patient.getLatestRecords());
             }
-            return new ArrayList<>(); // return an empty list if no patient is found
-        } finally {
-            lock.unlock(); // release the lock after accessing patient records
         }
+        return latest;
+    }
+
+    /**
+     * Returns the minimum, maximum, average and count of one record type of a
+     * patient within a time range. The answer comes from rollup buckets that
+     * are maintained as data is added, so no raw records are copied; the
+     * range is widened to whole minutes, see
+     * {@link Patient#aggregate(String, long, long)}.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @return the aggregate, empty if the patient has no such records in the
+     *         range
+     */
+    public Aggregate aggregate(int patientId, String recordType, long startTime, long endTime) {
+        Patient patient = shardFor(patientId).get(patientId);
+        if (patient != null) {
+            return patient.aggregate(recordType, startTime, endTime);
+        }
+        return Aggregate.EMPTY;
+    }
+
+    /**
+     * Returns the IDs of the patients with at least one record of a type within
+     * a time range that satisfies a condition, e.g. the patients whose
+     * saturation was below 92 in the last hour. The patients are scanned in
+     * parallel on the common fork/join pool; per patient only the series of
+     * the record type is decoded, and the scan of a patient stops at its first
+     * match. The condition may be called from several threads at once.
+     * Only raw records are tested: history already rolled up by retention
+     * holds bucket averages, which no single measurement had, so it is not
+     * searched.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param condition  the condition on the measurement value
+     * @return the IDs of the matching patients, in ascending order
+     */
+    public List<Integer> findPatients(String recordType, long startTime, long endTime, DoublePredicate condition) {
+        int recordTypeCode = RecordTypeRegistry.lookup(recordType);
+        if (recordTypeCode == RecordTypeRegistry.UNKNOWN) {
+            return new ArrayList<>();
+        }
+        return getAllPatients().parallelStream()
+                .filter(patient -> anyMatch(patient, recordTypeCode, startTime, endTime, condition))
+                .map(Patient::getPatientId)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static boolean anyMatch(Patient patient, int recordTypeCode, long startTime, long endTime,
+                                    DoublePredicate condition) {
+        boolean[] found = new boolean[1];
+        patient.forEachRecordBetween(recordTypeCode, startTime, endTime, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, (timestamp, code, measurementValue) -> {
+                    found[0] = condition.test(measurementValue);
+                    return !found[0];
+                });
+        return found[0];
+    }
+
+    /**
+     * Aggregates one record type within a time range for every patient in
+     * parallel and returns the aggregates that pass a filter, e.g. the
+     * patients whose average heart rate exceeded 100 today. The aggregates
+     * come from the rollup buckets, see {@link #aggregate}, so no raw records
+     * are decoded. Patients without records of the type in the range are left
+     * out.
+     *
+     * @param recordType the type of record, e.g., "HeartRate"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param filter     selects the aggregates to return
+     * @return the selected aggregates by patient ID, in ascending ID order
+     */
+    public Map<Integer, Aggregate> aggregatePatients(String recordType, long startTime, long endTime,
+                                                     Predicate<Aggregate> filter) {
+        int recordTypeCode = RecordTypeRegistry.lookup(recordType);
+        if (recordTypeCode == RecordTypeRegistry.UNKNOWN) {
+            return new TreeMap<>();
+        }
+        return getAllPatients().parallelStream()
+                .map(patient -> Map.entry(patient.getPatientId(),
+                        patient.aggregate(recordTypeCode, startTime, endTime)))
+                .filter(entry -> !entry.getValue().isEmpty() && filter.test(entry.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
     }
 
     /**
-     * Retrieves a collection of all patients stored in the data storage.
+     * Ranks the patients by the aggregate of one record type within a time
+     * range and returns the first ones, e.g. the 20 patients with the widest
+     * systolic range today:
+     * {@code topPatients("SystolicPressure", start, end,
+     * Comparator.comparingDouble((Aggregate a) -> a.getMax() - a.getMin()).reversed(), 20)}.
+     * Like {@link #aggregatePatients}, this is answered from the rollup
+     * buckets in parallel.
+     *
+     * @param recordType the type of record, e.g., "SystolicPressure"
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param order      the order of the ranking, first is best
+     * @param limit      the maximum number of patients to return
+     * @return the IDs of the best ranked patients, best first
+     */
+    public List<Integer> topPatients(String recordType, long startTime, long endTime, Comparator<Aggregate> order,
+                                     int limit) {
+        int recordTypeCode = RecordTypeRegistry.lookup(recordType);
+        if (recordTypeCode == RecordTypeRegistry.UNKNOWN) {
+            return new ArrayList<>();
+        }
+        Comparator<Map.Entry<Integer, Aggregate>> byAggregate = Map.Entry.comparingByValue(order);
+        return getAllPatients().parallelStream()
+                .map(patient -> Map.entry(patient.getPatientId(),
+                        patient.aggregate(recordTypeCode, startTime, endTime)))
+                .filter(entry -> !entry.getValue().isEmpty())
+                .sorted(byAggregate.thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Retrieves a collection of all patients stored in the data storage,
+     * merged across all shards.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
-        lock.lock(); // Acquire the lock before accessing patientMap
+        List<Patient> patients = new ArrayList<>();
+        for (StorageShard shard : shards) {
+            patients.addAll(shard.patients());
+        }
+        return patients;
+    }
+
+    /**
+     * Removes all patients and their records from the storage.
+     */
+    public void clear() {
+        for (StorageShard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Sets the retention policy applied to all patient histories. Aged data is
+     * rolled up and evicted incrementally by a background thread, a few
+     * patients at a time, so ingest is never paused for a full pass.
+     *
+     * @param policy the retention policy, or {@code null} to keep all history
+     */
+    public synchronized void setRetentionPolicy(RetentionPolicy policy) {
+        this.retentionPolicy = policy;
+        updateMaintenance();
+    }
+
+    /**
+     * Starts the background maintenance thread while a retention policy or a
+     * memory budget is set, and stops it otherwise.
+     */
+    private synchronized void updateMaintenance() {
+        boolean needed = retentionPolicy != null || memoryBudget != Long.MAX_VALUE;
+        if (needed && maintenanceExecutor == null) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "data-storage-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceExecutor.scheduleWithFixedDelay(this::runMaintenanceStep,
+                    RETENTION_STEP_MILLIS, RETENTION_STEP_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (!needed && maintenanceExecutor != null) {
+            maintenanceExecutor.shutdown();
+            maintenanceExecutor = null;
+        }
+    }
+
+    private void runMaintenanceStep() {
+        runRetentionStep();
+        long now = System.currentTimeMillis();
+        if (memoryBudget != Long.MAX_VALUE && now - lastMemoryCheck >= MEMORY_CHECK_MILLIS) {
+            lastMemoryCheck = now;
+            try {
+                enforceMemoryBudget();
+            } catch (RuntimeException e) {
+                // keep the background task scheduled
+                maintenanceFailed("Enforcing the memory budget", e);
+            }
+        }
+    }
+
+    /**
+     * Counts a failed maintenance step. Only the first failure is logged, a
+     * step failing on every run would otherwise flood the log once a second.
+     */
+    private void maintenanceFailed(String step, RuntimeException e) {
+        maintenanceFailures.increment();
+        if (lastMaintenanceFailure == null) {
+            System.err.println(step + " failed, further maintenance failures are only counted: " + e);
+        }
+        lastMaintenanceFailure = e;
+    }
+
+    /**
+     * Returns the number of background maintenance steps, applying the
+     * retention policy or the memory budget, that failed with an exception.
+     * The maintenance keeps running after a failure.
+     *
+     * @return the number of failed steps
+     */
+    public long getMaintenanceFailureCount() {
+        return maintenanceFailures.sum();
+    }
+
+    /**
+     * Returns the exception of the most recent failed maintenance step.
+     *
+     * @return the exception, or {@code null} if no step has failed
+     */
+    public RuntimeException getLastMaintenanceFailure() {
+        return lastMaintenanceFailure;
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Applies the retention policy to all patients right away, as if the
+     * current time were {@code now}. Does nothing if no policy is set.
+     *
+     * @param now the current time, in milliseconds since the Unix epoch
+     */
+    public void enforceRetention(long now) {
+        RetentionPolicy policy = retentionPolicy;
+        if (policy == null) {
+            return;
+        }
+        for (Patient patient : getAllPatients()) {
+            while (patient.applyRetention(policy, now, RETENTION_ENTRIES_PER_LOCK)) {
+                // the patient lock is released between two slices
+            }
+        }
+    }
+
+    private void runRetentionStep() {
+        RetentionPolicy policy = retentionPolicy;
+        if (policy == null) {
+            return;
+        }
         try {
-            return new ArrayList<>(patientMap.values());
-        } finally {
-            lock.unlock(); // Release the lock after accessing patientMap
+            long now = System.currentTimeMillis();
+            int budget = RETENTION_PATIENTS_PER_STEP;
+            while (budget-- > 0) {
+                // walk the shards one after the other, at most one round per step
+                int emptyShards = 0;
+                while (retentionCursor == null || !retentionCursor.hasNext()) {
+                    if (emptyShards++ == shards.length) {
+                        return;
+                    }
+                    retentionShard = (retentionShard + 1) % shards.length;
+                    retentionCursor = shards[retentionShard].patients().iterator();
+                }
+                Patient patient = retentionCursor.next();
+                // a patient with a large backlog uses up more of this step's budget
+                while (patient.applyRetention(policy, now, RETENTION_ENTRIES_PER_LOCK) && budget-- > 0) {
+                    Thread.yield();
+                }
+            }
+        } catch (RuntimeException e) {
+            // keep the background task scheduled
+            maintenanceFailed("Applying the retention policy", e);
+        }
+    }
+
+    /**
+     * Limits the memory held by all patient histories. Once a second the
+     * background thread measures the held memory, see {@link #getHeldBytes()},
+     * and if it exceeds the budget degrades the histories, oldest data first:
+     * <ol>
+     * <li>raw measurements are rolled up into per-minute buckets,</li>
+     * <li>then buckets and aggregates are evicted.</li>
+     * </ol>
+     * The newest ten minutes of every patient, which the alert checks
+     * evaluate, are never degraded. If the budget is still exceeded, records of
+     * patients not seen before are rejected, see {@link #getRejectedRecordCount()},
+     * until enough memory is free again; known patients are always admitted.
+     *
+     * @param maxBytes the budget, in bytes, or {@link Long#MAX_VALUE} for no
+     *                 limit
+     */
+    public synchronized void setMemoryBudget(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        memoryBudget = maxBytes;
+        if (maxBytes == Long.MAX_VALUE) {
+            overBudget = false;
         }
+        updateMaintenance();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Brings the held memory within the budget right away, as described for
+     * {@link #setMemoryBudget}. Does nothing if no budget is set.
+     */
+    public void enforceMemoryBudget() {
+        long budget = memoryBudget;
+        if (budget == Long.MAX_VALUE) {
+            return;
+        }
+        List<Patient> patients = getAllPatients();
+        long held = heldBytes(patients);
+        // first downsample the oldest raw measurements, then evict the oldest buckets
+        for (int stage = 0; stage < 2 && held > budget; stage++) {
+            boolean rawOnly = stage == 0;
+            long oldest = Long.MAX_VALUE;
+            long newest = Long.MIN_VALUE;
+            for (Patient patient : patients) {
+                oldest = Math.min(oldest, rawOnly ? patient.getOldestRawTimestamp() : patient.getOldestTimestamp());
+                newest = Math.max(newest, patient.getNewestTimestamp());
+            }
+            long limit = minus(newest, PROTECTED_MILLIS);
+            long cutoff = oldest;
+            while (held > budget && cutoff < limit) {
+                // advance by a quarter of what is left, so few passes reach far
+                cutoff += Math.max(RollupTier.MINUTE_MILLIS, (limit >> 2) - (cutoff >> 2));
+                for (Patient patient : patients) {
+                    long patientCutoff = Math.min(cutoff, minus(patient.getNewestTimestamp(), PROTECTED_MILLIS));
+                    while (rawOnly ? patient.rollUpRawBefore(patientCutoff, RETENTION_ENTRIES_PER_LOCK)
+                            : patient.evictBefore(patientCutoff, RETENTION_ENTRIES_PER_LOCK)) {
+                        // the patient lock is released between two slices
+                    }
+                }
+                held = heldBytes(patients);
+            }
+        }
+        overBudget = held > budget;
+    }
+
+    private static long heldBytes(List<Patient> patients) {
+        long held = 0;
+        for (Patient patient : patients) {
+            held += patient.getHeldBytes();
+        }
+        return held;
+    }
+
+    private static long minus(long time, long millis) {
+        return time < Long.MIN_VALUE + millis ? Long.MIN_VALUE : time - millis;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by all patient histories:
+     * raw measurements, rolled up tiers and aggregate buckets.
+     *
+     * @return the held memory, in bytes
+     */
+    public long getHeldBytes() {
+        return heldBytes(getAllPatients());
+    }
+
+    /**
+     * Returns the approximate number of bytes held per patient, see
+     * {@link Patient#getHeldBytes()}.
+     *
+     * @return the held memory by patient ID, in ascending ID order
+     */
+    public Map<Integer, Long> getHeldBytesByPatient() {
+        Map<Integer, Long> bytes = new TreeMap<>();
+        for (Patient patient : getAllPatients()) {
+            bytes.put(patient.getPatientId(), patient.getHeldBytes());
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the approximate number of bytes held per record type, summed
+     * over all patients.
+     *
+     * @return the held memory by record type label
+     */
+    public Map<String, Long> getHeldBytesByType() {
+        Map<String, Long> bytes = new TreeMap<>();
+        for (Patient patient : getAllPatients()) {
+            patient.getHeldBytesByType().forEach((type, held) -> bytes.merge(type, held, Long::sum));
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of records rejected because they belonged to a new
+     * patient while the memory budget was exceeded.
+     *
+     * @return the number of rejected records
+     */
+    public long getRejectedRecordCount() {
+        return rejectedRecords.sum();
+    }
+
+    /**
+     * Commits records to the storage in timestamp order per patient, whatever
+     * order they arrive in from files, the WebSocket client or direct calls.
+     * Every patient holds its newest records in a reorder buffer until its
+     * watermark, the highest timestamp seen for the patient minus the allowed
+     * lateness, has passed them. A record arriving behind the watermark is
+     * not stored; it is counted, see {@link #getLateRecordCount()}, and passed
+     * to the handler.
+     * Buffered records are neither visible to queries nor written to the
+     * write-ahead log until they are released; {@link #flushReorderBuffers()}
+     * releases them all, e.g. before shutting down.
+     *
+     * @param allowedLatenessMillis how far behind the newest record of its
+     *                              patient a record may arrive, at least 0
+     * @param handler               receives the late records, or {@code null}
+     *                              to only count them
+     */
+    public synchronized void enableReordering(long allowedLatenessMillis, LateRecordHandler handler) {
+        if (allowedLatenessMillis < 0) {
+            throw new IllegalArgumentException("Allowed lateness must be non-negative");
+        }
+        this.lateRecordHandler = handler;
+        this.allowedLatenessMillis = allowedLatenessMillis;
+    }
+
+    /**
+     * Stores the records still held in the reorder buffers and stores
+     * further records as they arrive. This is the default.
+     */
+    public synchronized void disableReordering() {
+        allowedLatenessMillis = -1;
+        flushReorderBuffers();
+        lateRecordHandler = null;
+    }
+
+    /**
+     * Stores all records held in the reorder buffers, in timestamp order per
+     * patient. The watermarks start over with the next record.
+     */
+    public void flushReorderBuffers() {
+        StoragePersistence durable = persistence;
+        WriteAheadLog log = durable == null ? null : durable.getLog();
+        for (Patient patient : getAllPatients()) {
+            patient.flushReorderBuffer(log);
+        }
+    }
+
+    /**
+     * Returns the number of records that arrived behind the watermark of their
+     * patient since this storage was created.
+     *
+     * @return the number of late records
+     */
+    public long getLateRecordCount() {
+        return lateRecords.sum();
+    }
+
+    /**
+     * Returns the number of records that were ignored because their patient
+     * already held a record of the same type and timestamp, e.g. when a file
+     * was read twice or the WebSocket client resent data after a reconnect.
+     * Records within the part of the history already rolled up by retention
+     * are counted here too.
+     *
+     * @return the number of duplicate records, summed over all patients
+     */
+    public long getDuplicateRecordCount() {
+        long duplicates = 0;
+        for (Patient patient : getAllPatients()) {
+            duplicates += patient.getDuplicateCount();
+        }
+        return duplicates;
+    }
+
+    /**
+     * Makes the storage durable. The newest snapshot in the directory is
+     * loaded and the write-ahead log written after it is replayed, then every
+     * new record is appended to the log. The log is fsynced in groups every few
+     * milliseconds, and a snapshot is taken every
+     * {@code snapshotIntervalMillis}, after which older log files are deleted.
+     *
+     * @param directory              the directory holding snapshots and log files
+     * @param snapshotIntervalMillis the time between two snapshots, in milliseconds
+     * @throws IOException if the directory cannot be read or the log cannot be
+     *                     created
+     * @throws IllegalStateException if durability is already enabled
+     */
+    public synchronized void enableDurability(Path directory, long snapshotIntervalMillis) throws IOException {
+        if (persistence != null) {
+            throw new IllegalStateException("Durability is already enabled");
+        }
+        persistence = StoragePersistence.open(directory, snapshotIntervalMillis, this);
+    }
+
+    /**
+     * Writes all logged records to disk and stops logging. Records added
+     * afterwards are kept in memory only.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public synchronized void disableDurability() throws IOException {
+        if (persistence != null) {
+            StoragePersistence closing = persistence;
+            persistence = null;
+            closing.close();
+        }
+    }
+
+    /**
+     * Takes a snapshot right away instead of waiting for the next scheduled
+     * one. Does nothing if durability is not enabled.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        StoragePersistence durable = persistence;
+        if (durable != null) {
+            durable.snapshot();
+        }
+    }
+
+    /**
+     * Waits until every record added so far is fsynced to the write-ahead log.
+     * Does nothing if durability is not enabled.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void syncLog() throws IOException {
+        StoragePersistence durable = persistence;
+        if (durable != null) {
+            durable.getLog().sync();
+        }
+    }
+
+    /**
+     * Returns the number of background group commits of the write-ahead log
+     * and scheduled snapshots that failed since durability was enabled. Both
+     * keep running after a failure; only the first of each is logged.
+     *
+     * @return the number of failures, or 0 if durability is not enabled
+     */
+    public long getPersistenceFailureCount() {
+        StoragePersistence durable = persistence;
+        return durable == null ? 0 : durable.getFailureCount();
+    }
+
+    /**
+     * Returns the exception of a recent failed group commit or snapshot.
+     *
+     * @return the exception, or {@code null} if nothing has failed or
+     *         durability is not enabled
+     */
+    public Exception getLastPersistenceFailure() {
+        StoragePersistence durable = persistence;
+        return durable == null ? null : durable.getLastFailure();
     }
 
     /**
@@ -126,9 +921,6 @@ public class DataStorage {
 
         // Continuously monitor and evaluate patient data
         while (true) {
-            // Process incoming real-time data
-            storage.processData();
-
             // Evaluate all patients' data to check for conditions that may trigger alerts
             for (Patient patient : storage.getAllPatients()) {
                 alertGenerator.evaluateData(patient);
@@ -143,57 +935,89 @@ public class DataStorage {
         }
     }
 
-    public void storeData(String line) {
-        lock.lock(); // Acquire the lock before updating dataToProcess
+    /**
+     * Stores the records of a message of CSV lines in the format
+     * {@code patientId,measurementValue,recordType,timestamp}, see
+     * {@link #storeData(String, RecordFormat)}.
+     *
+     * @param message one or more lines separated by line feeds
+     */
+    public void storeData(String message) {
+        storeData(message, RecordFormat.CSV);
+    }
+
+    /**
+     * Stores the records of a message of lines in the given format. The lines
+     * are framed in place by a {@link LineFramer} of the calling thread, the
+     * end of the message ends its last line, and the records are added as one
+     * {@link RecordBatch}. Malformed lines are reported and skipped.
+     *
+     * @param message one or more lines separated by line feeds
+     * @param format  the format of the lines
+     */
+    public void storeData(String message, RecordFormat format) {
+        MessageBuffer buffer = messageBuffers.get();
+        buffer.format = format;
         try {
-            dataToProcess += line;
-            processData(); // Process the newly added data
+            buffer.framer.append(message);
+            buffer.framer.finish();
+            addPatientData(buffer.batch);
         } finally {
-            lock.unlock(); // Release the lock after updating dataToProcess
+            // the batch is reused by the thread's next message, which must not store these records again
+            buffer.batch.clear();
         }
     }
 
+    /**
+     * Returns the unterminated line the calling thread has passed to
+     * {@link #storeData} and that has not been stored yet. As every message
+     * ends its last line this is empty between two calls.
+     *
+     * @return the pending characters
+     */
     public String getDataToProcess() {
-        lock.lock(); // Acquire the lock before accessing dataToProcess
-        try {
-            return dataToProcess;
-        } finally {
-            lock.unlock(); // Release the lock after accessing dataToProcess
-        }
-    }
-
-    private void processData() {
-        // Split the dataToProcess string into individual data lines
-        String[] dataLines = dataToProcess.split("\\n");
-
-        // Process each data line
-        for (String line : dataLines) {
-            // Split the line into fields (assuming comma-separated values)
-            String[] fields = line.split(",");
-
-            // Check if the line has the expected number of fields
-            if (fields.length == 4) {
-                try {
-                    // Extract patient information from the fields
-                    int patientId = Integer.parseInt(fields[0]);
-                    String data = fields[1];
-                    String label = fields[2];
-                    long timestamp = Long.parseLong(fields[3]);
-
-                    // Update patient records
-                    addPatientData(patientId, Double.parseDouble(data), label, timestamp);
-                } catch (NumberFormatException e) {
-                    // Handle parsing errors if necessary
-                    System.err.println("Error parsing data: " + line);
-                    e.printStackTrace();
-                }
-            } else {
-                // Handle invalid data format if necessary
+        return messageBuffers.get().framer.pending();
+    }
+
+    /**
+     * Stores the record of one CSV line in the format
+     * {@code patientId,measurementValue,recordType,timestamp}, as handed over
+     * by a {@link LineFramer}. Malformed lines are reported and skipped.
+     *
+     * @param line the line, without its line terminator
+     */
+    public void storeLine(CharSequence line) {
+        storeLine(line, RecordFormat.CSV);
+    }
+
+    /**
+     * Stores the record of one line in the given format. The line is decoded
+     * in place, so storing it does not allocate beyond the storage itself.
+     * Malformed lines are reported and skipped.
+     *
+     * @param line   the line, without its line terminator
+     * @param format the format of the line
+     */
+    public void storeLine(CharSequence line, RecordFormat format) {
+        if (!format.parse(line, ingest)) {
+            // Handle invalid data format if necessary
+            System.err.println("Invalid data format: " + line);
+        }
+    }
+
+    /**
+     * The framer and batch {@link #storeData} reuses on one thread.
+     */
+    private static final class MessageBuffer implements LineHandler {
+        final LineFramer framer = new LineFramer(this);
+        final RecordBatch batch = new RecordBatch();
+        RecordFormat format;
+
+        @Override
+        public void onLine(CharSequence line) {
+            if (!format.parse(line, batch)) {
                 System.err.println("Invalid data format: " + line);
             }
         }
-
-        // Clear the dataToProcess string after processing
-        dataToProcess = "";
     }
 }
@@ -0,0 +1,409 @@
+package com.data_management;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands records from one receiving thread, such as a WebSocket's read loop,
+ * to a dedicated thread storing them, so the receiver never waits for the
+ * storage's locks. The receiver parses every message straight into a
+ * preallocated ring of record slots; the consumer drains the ring in
+ * batches through {@link DataStorage#addPatientData(RecordBatch)}.
+ * Neither side allocates per record. A record that finds the ring full is
+ * handled by the ring's {@link OverflowPolicy}: dropped and counted, or
+ * held until the consumer makes room. Only one thread may {@link #publish}
+ * at a time.
+ */
+public final class IngestRingBuffer implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_DRAIN = 8192; // records stored per batch
+    private static final int SPIN_ROUNDS = 100;
+    private static final int YIELD_ROUNDS = 100;
+    private static final long SLEEP_NANOS = 100_000;
+
+    /**
+     * How the consumer waits for records while the ring is empty, trading
+     * latency for the processor time spent waiting.
+     */
+    public enum WaitStrategy {
+        /** Spins on the ring, the lowest latency but a processor kept busy. */
+        BUSY_SPIN,
+        /** Spins briefly, then yields the processor between checks. */
+        YIELDING,
+        /** Spins and yields briefly, then sleeps a tenth of a millisecond between checks. */
+        SLEEPING,
+        /**
+         * Spins and yields briefly, then parks until the receiver publishes;
+         * waking the consumer costs the receiver an unpark.
+         */
+        BLOCKING
+    }
+
+    /**
+     * What the receiver does with a record that finds the ring full.
+     */
+    public enum OverflowPolicy {
+        /** Drops the record and counts it, the receiver never waits. */
+        DROP_NEWEST,
+        /**
+         * Waits until the consumer has made room. A WebSocket receiver then
+         * stops reading, which pushes back on the sender through TCP flow
+         * control. Records published after {@link #close()} are still dropped.
+         */
+        BLOCK
+    }
+
+    private final DataStorage storage;
+    private final RecordFormat format;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final int mask;
+    // the slots, record i is at i & mask
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final int[] recordTypeCodes;
+    private final double[] values;
+
+    private volatile long head; // the next record to drain, only written by the consumer
+    private volatile long tail; // the end of the published records, only written by the receiver
+    private long claimed; // the end of the records written by the receiver, published per message
+    private long cachedHead; // the receiver's last look at head, saves reading it per record
+    private final LineFramer framer;
+
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder malformedLines = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder failedRecords = new LongAdder();
+    private volatile RuntimeException lastStoreFailure; // null until storing a batch failed
+    private volatile long newestStoredTimestamp = Long.MIN_VALUE; // only written by the consumer
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+    private final Thread consumer;
+
+    /**
+     * Constructs a ring of {@value #DEFAULT_CAPACITY} records whose consumer
+     * blocks while the ring is empty and which drops records while it is full.
+     *
+     * @param storage the storage the records are added to
+     * @param format  the format of the messages' lines
+     */
+    public IngestRingBuffer(DataStorage storage, RecordFormat format) {
+        this(storage, format, DEFAULT_CAPACITY, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * Constructs a ring which drops records while it is full. Its consumer
+     * runs once {@link #start()} is called.
+     *
+     * @param storage      the storage the records are added to
+     * @param format       the format of the messages' lines
+     * @param capacity     the number of records the ring holds, rounded up to
+     *                     a power of two
+     * @param waitStrategy how the consumer waits while the ring is empty
+     * @throws IllegalArgumentException if {@code capacity} is not positive or
+     *                                  above 2^30
+     */
+    public IngestRingBuffer(DataStorage storage, RecordFormat format, int capacity, WaitStrategy waitStrategy) {
+        this(storage, format, capacity, waitStrategy, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Constructs a ring. Its consumer runs once {@link #start()} is called.
+     *
+     * @param storage      the storage the records are added to
+     * @param format       the format of the messages' lines
+     * @param capacity     the number of records the ring holds, rounded up to
+     *                     a power of two
+     * @param waitStrategy   how the consumer waits while the ring is empty
+     * @param overflowPolicy what the receiver does while the ring is full
+     * @throws IllegalArgumentException if {@code capacity} is not positive or
+     *                                  above 2^30
+     */
+    public IngestRingBuffer(DataStorage storage, RecordFormat format, int capacity, WaitStrategy waitStrategy,
+                            OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity * 2 - 1);
+        this.storage = storage;
+        this.format = format;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+        this.mask = size - 1;
+        this.patientIds = new int[size];
+        this.timestamps = new long[size];
+        this.recordTypeCodes = new int[size];
+        this.values = new double[size];
+        RecordConsumer slots = this::claim;
+        this.framer = new LineFramer(line -> {
+            if (!format.parse(line, slots)) {
+                malformedLines.increment();
+            }
+        });
+        this.consumer = new Thread(this::consume, "ingest-consumer");
+        consumer.setDaemon(true);
+    }
+
+    /**
+     * Starts the consumer.
+     *
+     * @throws IllegalThreadStateException if it has already been started
+     */
+    public void start() {
+        consumer.start();
+    }
+
+    /**
+     * Parses a message into the ring. Every line of the message is a record;
+     * malformed lines are counted and dropped, records that find the ring
+     * full are handled by the overflow policy. Called by the receiving thread
+     * only.
+     *
+     * @param message the message
+     */
+    public void publish(String message) {
+        if (closed) {
+            framer.append(message);
+            framer.finish();
+            droppedRecords.add(claimed - tail); // parsed for the count only
+            claimed = tail;
+            return;
+        }
+        framer.append(message);
+        framer.finish();
+        tail = claimed; // one release per message rather than per record
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void claim(int patientId, long timestamp, int recordTypeCode, double measurementValue) {
+        if (claimed - cachedHead > mask) {
+            cachedHead = head;
+            for (int rounds = 0; claimed - cachedHead > mask; rounds++) {
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST || closed) {
+                    droppedRecords.increment();
+                    return;
+                }
+                awaitRoom(rounds);
+                cachedHead = head;
+            }
+        }
+        int slot = (int) claimed & mask;
+        patientIds[slot] = patientId;
+        timestamps[slot] = timestamp;
+        recordTypeCodes[slot] = recordTypeCode;
+        values[slot] = measurementValue;
+        claimed++;
+    }
+
+    /**
+     * Publishes the records claimed so far, the ring may be full of them, and
+     * waits a little for the consumer to drain them.
+     */
+    private void awaitRoom(int rounds) {
+        tail = claimed;
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        if (rounds < YIELD_ROUNDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(this, SLEEP_NANOS);
+        }
+    }
+
+    /**
+     * Stops the consumer once it has stored the records published so far,
+     * and waits for it. Records published afterwards are dropped. Called by
+     * the receiving thread, or once it has stopped publishing.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (consumer.getState() == Thread.State.NEW) {
+            return;
+        }
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true; // the records still have to be stored
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of records published but not yet drained by the
+     * consumer.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        long drained = head; // read first, so the depth is never negative
+        return (int) (tail - drained);
+    }
+
+    /**
+     * Returns the number of records published into the ring so far.
+     *
+     * @return the number of published records
+     */
+    public long getPublishedRecordCount() {
+        return tail;
+    }
+
+    /**
+     * Returns the newest timestamp among the records the consumer has stored,
+     * the difference to the current time is the lag of the storage behind
+     * the sender's clock.
+     *
+     * @return the timestamp, or {@link Long#MIN_VALUE} if nothing has been
+     *         stored
+     */
+    public long getNewestStoredTimestamp() {
+        return newestStoredTimestamp;
+    }
+
+    /**
+     * Returns the number of records the ring holds.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full or
+     * closed.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Returns the number of lines skipped because they were not records of
+     * the ring's format.
+     *
+     * @return the number of malformed lines
+     */
+    public long getMalformedLineCount() {
+        return malformedLines.sum();
+    }
+
+    /**
+     * Returns the number of drained batches the storage failed to store. The
+     * consumer keeps draining after a failure; only the first is logged.
+     *
+     * @return the number of failed batches
+     */
+    public long getFailedBatchCount() {
+        return failedBatches.sum();
+    }
+
+    /**
+     * Returns the number of records in the batches the storage failed to
+     * store.
+     *
+     * @return the number of records of failed batches
+     */
+    public long getFailedRecordCount() {
+        return failedRecords.sum();
+    }
+
+    /**
+     * Returns the exception of the most recent batch the storage failed to
+     * store.
+     *
+     * @return the exception, or {@code null} if no batch has failed
+     */
+    public RuntimeException getLastStoreFailure() {
+        return lastStoreFailure;
+    }
+
+    private void consume() {
+        RecordBatch batch = new RecordBatch(Math.min(MAX_DRAIN, mask + 1));
+        int idleRounds = 0;
+        while (true) {
+            long from = head;
+            long to = Math.min(tail, from + MAX_DRAIN);
+            if (from == to) {
+                if (closed && tail == from) {
+                    return;
+                }
+                idle(idleRounds++);
+                continue;
+            }
+            idleRounds = 0;
+            long newest = newestStoredTimestamp;
+            for (long i = from; i < to; i++) {
+                int slot = (int) i & mask;
+                batch.add(patientIds[slot], values[slot], recordTypeCodes[slot], timestamps[slot]);
+                newest = Math.max(newest, timestamps[slot]);
+            }
+            head = to; // the slots are copied, the receiver may reuse them
+            try {
+                storage.addPatientData(batch);
+                newestStoredTimestamp = newest;
+            } catch (RuntimeException e) {
+                // keep draining, a stopped consumer would drop everything that follows
+                failedBatches.increment();
+                failedRecords.add(batch.size());
+                if (lastStoreFailure == null) {
+                    System.err.println("Storing " + batch.size() + " records failed, further failures are only counted: "
+                            + e);
+                }
+                lastStoreFailure = e;
+            }
+            batch.clear();
+        }
+    }
+
+    private void idle(int rounds) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELDING:
+                if (rounds < SPIN_ROUNDS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            case SLEEPING:
+                if (rounds < SPIN_ROUNDS) {
+                    Thread.onSpinWait();
+                } else if (rounds < SPIN_ROUNDS + YIELD_ROUNDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, SLEEP_NANOS);
+                }
+                break;
+            default:
+                if (rounds < SPIN_ROUNDS) {
+                    Thread.onSpinWait();
+                    break;
+                }
+                if (rounds < SPIN_ROUNDS + YIELD_ROUNDS) {
+                    Thread.yield();
+                    break;
+                }
+                consumerParked = true;
+                // checked again after announcing the park, so a publish in between is not missed
+                if (head == tail && !closed) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+                break;
+        }
+    }
+}
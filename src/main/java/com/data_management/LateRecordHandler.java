@@ -0,0 +1,23 @@
+package com.data_management;
+
+/**
+ * Receives the records that arrive after the lateness watermark of their
+ * patient has passed them, see {@link DataStorage#enableReordering}. Such
+ * records are not added to the storage; the handler may log, count or keep
+ * them elsewhere.
+ */
+@FunctionalInterface
+public interface LateRecordHandler {
+
+    /**
+     * Handles one late record. Called on the ingesting thread, after the
+     * patient has been unlocked.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param recordTypeCode   the {@link RecordTypeRegistry} code of the record type
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         UNIX epoch
+     * @param measurementValue the measured value
+     */
+    void onLateRecord(int patientId, int recordTypeCode, long timestamp, double measurementValue);
+}
@@ -0,0 +1,133 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Cuts a stream of characters that arrives in arbitrary pieces into lines and
+ * hands each complete line to a {@link LineHandler}. A line that is not yet
+ * terminated at the end of a piece is carried over to the next one. Lines are
+ * terminated by {@code '\n'}, an optional {@code '\r'} before it is dropped,
+ * and empty lines are skipped.
+ * Lines lying entirely within a piece given as a {@code char[]} are handed
+ * over in place, everything else is copied once into a buffer that is reused
+ * for the lifetime of the framer, so framing does not allocate once the
+ * buffer has grown to the longest line. Not thread-safe, every producer
+ * needs its own framer.
+ */
+public final class LineFramer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final LineHandler handler;
+    private final CharSlice line = new CharSlice(); // the view of the line being handed over
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    private int length; // the characters of the unterminated line at the start of buffer
+
+    /**
+     * Constructs a framer passing the lines to the given handler.
+     *
+     * @param handler receives the complete lines
+     */
+    public LineFramer(LineHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Frames the next piece of the stream.
+     *
+     * @param chars  the characters
+     * @param offset the index of the first character of the piece
+     * @param count  the number of characters in the piece
+     */
+    public void append(char[] chars, int offset, int count) {
+        int end = offset + count;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (chars[i] != '\n') {
+                continue;
+            }
+            if (length > 0) {
+                // complete the line carried over from the previous piece
+                carry(chars, start, i - start);
+                emit(buffer, 0, length);
+                length = 0;
+            } else {
+                emit(chars, start, i);
+            }
+            start = i + 1;
+        }
+        carry(chars, start, end - start);
+    }
+
+    /**
+     * Frames the next piece of the stream.
+     *
+     * @param chars the characters of the piece
+     */
+    public void append(CharSequence chars) {
+        int count = chars.length();
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            if (chars.charAt(i) == '\n') {
+                carry(chars, start, i);
+                emit(buffer, 0, length);
+                length = 0;
+                start = i + 1;
+            }
+        }
+        carry(chars, start, count);
+    }
+
+    /**
+     * Ends the stream: the line that is still unterminated is handed over as
+     * if it had been terminated.
+     */
+    public void finish() {
+        if (length > 0) {
+            int count = length;
+            length = 0; // the handler may already append the next stream
+            emit(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Returns the unterminated line carried over to the next piece.
+     *
+     * @return the characters received since the last line terminator
+     */
+    public String pending() {
+        return new String(buffer, 0, length);
+    }
+
+    private void carry(char[] chars, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(chars, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void carry(CharSequence chars, int start, int end) {
+        ensureCapacity(length + end - start);
+        if (chars instanceof String) {
+            ((String) chars).getChars(start, end, buffer, length);
+            length += end - start;
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            buffer[length++] = chars.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    private void emit(char[] chars, int start, int end) {
+        if (end > start && chars[end - 1] == '\r') {
+            end--;
+        }
+        if (end > start) {
+            handler.onLine(line.wrap(chars, start, end));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.data_management;
+
+/**
+ * Receives the complete lines cut out of a character stream by a
+ * {@link LineFramer}.
+ */
+@FunctionalInterface
+public interface LineHandler {
+
+    /**
+     * Handles one line. The line is a view of the framer's buffers and only
+     * valid during the call; a handler that keeps it must copy it, for example
+     * with {@code toString()}.
+     *
+     * @param line the line, without its line terminator
+     */
+    void onLine(CharSequence line);
+}
@@ -0,0 +1,360 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Stores all measurements of a single record type for one patient outside the
+ * heap, in fixed-size segment files mapped into memory with
+ * {@link FileChannel#map}. Every segment holds a timestamp column followed by
+ * a value column, and range queries read directly from the mapped buffers, so
+ * the heap only holds one buffer object per segment however long the history
+ * grows.
+ * Segments fill up in order. A late measurement is inserted into the segment
+ * it belongs to, which is split in two if it is full, so it only shifts the
+ * entries of that segment, like the chunks of the heap backend.
+ * The mapped backend keeps raw samples only: applying a
+ * {@link RetentionPolicy} evicts whole segments past the final horizon but
+ * does not roll data up into tiers.
+ */
+final class MappedRecordSeries implements TimeSeries, TimeColumns {
+    private final int recordTypeCode;
+    private final Path directory;
+    private final String filePrefix;
+    private final int entriesPerSegment;
+    private MappedByteBuffer[] segments;
+    private Path[] segmentFiles;
+    private int[] segmentSizes; // the entries held by each segment, less than entriesPerSegment once split
+    private int[] segmentStarts; // the index of the first entry of each segment
+    private int segmentCount;
+    private int size;
+    private long evictedThrough = Long.MIN_VALUE; // the newest timestamp of the evicted segments
+    private int nextSegmentNumber;
+
+    /**
+     * Constructs an empty series. Segment files are created on demand.
+     *
+     * @param directory         the directory the segment files are created in
+     * @param patientId         the patient the series belongs to
+     * @param recordTypeCode    the {@link RecordTypeRegistry} code of the records
+     * @param entriesPerSegment the number of measurements per segment file
+     */
+    MappedRecordSeries(Path directory, int patientId, int recordTypeCode, int entriesPerSegment) {
+        this.recordTypeCode = recordTypeCode;
+        this.directory = directory;
+        this.filePrefix = "patient-" + patientId + "-type-" + recordTypeCode + "-";
+        this.entriesPerSegment = entriesPerSegment;
+        this.segments = new MappedByteBuffer[4];
+        this.segmentFiles = new Path[4];
+        this.segmentSizes = new int[4];
+        this.segmentStarts = new int[4];
+    }
+
+    @Override
+    public int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        int segment = segmentOf(index);
+        return timestampAt(segment, index - segmentStarts[segment]);
+    }
+
+    @Override
+    public double valueAt(int index) {
+        int segment = segmentOf(index);
+        return valueAt(segment, index - segmentStarts[segment]);
+    }
+
+    private long timestampAt(int segment, int slot) {
+        return segments[segment].getLong(slot * Long.BYTES);
+    }
+
+    private double valueAt(int segment, int slot) {
+        return segments[segment].getDouble((entriesPerSegment + slot) * Long.BYTES);
+    }
+
+    private void put(int segment, int slot, long timestamp, double value) {
+        segments[segment].putLong(slot * Long.BYTES, timestamp);
+        segments[segment].putDouble((entriesPerSegment + slot) * Long.BYTES, value);
+    }
+
+    /**
+     * Returns the segment holding the entry at an index.
+     */
+    private int segmentOf(int index) {
+        int low = 0;
+        int high = segmentCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segmentStarts[mid] <= index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Adds a measurement. In-order arrivals are written to the end of the last
+     * segment, mapping a new segment file when it is full. An out-of-order
+     * arrival shifts the newer measurements of its own segment one slot to
+     * the right; a full segment is split in two first.
+     */
+    @Override
+    public void append(long timestamp, double value) {
+        if (size == 0 || timestampAt(segmentCount - 1, segmentSizes[segmentCount - 1] - 1) <= timestamp) {
+            if (segmentCount == 0 || segmentSizes[segmentCount - 1] == entriesPerSegment) {
+                addSegment(segmentCount);
+            }
+            put(segmentCount - 1, segmentSizes[segmentCount - 1]++, timestamp, value);
+            size++;
+            return;
+        }
+
+        int index = upperBound(timestamp);
+        int segment = segmentOf(index);
+        int slot = index - segmentStarts[segment];
+        if (segmentSizes[segment] == entriesPerSegment) {
+            splitSegment(segment);
+            if (slot > segmentSizes[segment]) {
+                slot -= segmentSizes[segment];
+                segment++;
+            }
+        }
+        for (int i = segmentSizes[segment]; i > slot; i--) {
+            put(segment, i, timestampAt(segment, i - 1), valueAt(segment, i - 1));
+        }
+        put(segment, slot, timestamp, value);
+        segmentSizes[segment]++;
+        for (int i = segment + 1; i < segmentCount; i++) {
+            segmentStarts[i]++;
+        }
+        size++;
+    }
+
+    /**
+     * Moves the newer half of a full segment into a new segment after it.
+     */
+    private void splitSegment(int segment) {
+        addSegment(segment + 1);
+        int half = segmentSizes[segment] / 2;
+        int moved = segmentSizes[segment] - half;
+        for (int i = 0; i < moved; i++) {
+            put(segment + 1, i, timestampAt(segment, half + i), valueAt(segment, half + i));
+        }
+        segmentSizes[segment] = half;
+        segmentSizes[segment + 1] = moved;
+        segmentStarts[segment + 1] = segmentStarts[segment] + half;
+    }
+
+    @Override
+    public int lowerBound(long timestamp) {
+        // the last segment starting before the timestamp holds the first entry at or after it, or ends before it
+        int segment = firstSegmentStartingAfter(timestamp, true) - 1;
+        if (segment < 0) {
+            return 0;
+        }
+        int low = 0;
+        int high = segmentSizes[segment];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(segment, mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return segmentStarts[segment] + low;
+    }
+
+    @Override
+    public int upperBound(long timestamp) {
+        int segment = firstSegmentStartingAfter(timestamp, false) - 1;
+        if (segment < 0) {
+            return 0;
+        }
+        int low = 0;
+        int high = segmentSizes[segment];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestampAt(segment, mid) <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return segmentStarts[segment] + low;
+    }
+
+    /**
+     * Returns the first segment whose first entry is after the timestamp, or
+     * also at it if {@code orAt} is set.
+     */
+    private int firstSegmentStartingAfter(long timestamp, boolean orAt) {
+        int low = 0;
+        int high = segmentCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long first = timestampAt(mid, 0);
+            if (first < timestamp || (!orAt && first == timestamp)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void readRange(long startTime, long endTime, SampleBuffer out) {
+        int end = upperBound(endTime);
+        int index = lowerBound(startTime);
+        if (index >= end) {
+            return;
+        }
+        int segment = segmentOf(index);
+        int slot = index - segmentStarts[segment];
+        for (; index < end; index++, slot++) {
+            if (slot == segmentSizes[segment]) {
+                segment++;
+                slot = 0;
+            }
+            out.add(timestampAt(segment, slot), valueAt(segment, slot));
+        }
+    }
+
+    /**
+     * Returns the size of the mapped segment files, which live outside the
+     * heap.
+     */
+    @Override
+    public long sizeInBytes() {
+        return 2L * segmentCount * entriesPerSegment * Long.BYTES;
+    }
+
+    @Override
+    public RollupTier getMinuteTier() {
+        return null;
+    }
+
+    @Override
+    public RollupTier getHourTier() {
+        return null;
+    }
+
+    @Override
+    public void restoreRollup(long bucketMillis, long bucketStart, double min, double max, double sum, long count) {
+        // the mapped backend keeps raw samples only
+    }
+
+    @Override
+    public long firstTimestamp() {
+        return size > 0 ? timestampAt(0, 0) : Long.MAX_VALUE;
+    }
+
+    @Override
+    public long rolledUpThrough() {
+        return evictedThrough;
+    }
+
+    /**
+     * Evicts leading segments whose newest measurement is before the cutoff.
+     * Nothing is rolled up.
+     */
+    @Override
+    public boolean rollUpBefore(long cutoff, int maxEntries) {
+        evictSegmentsBefore(cutoff);
+        return false;
+    }
+
+    /**
+     * Evicts leading segments whose newest measurement is past the final
+     * horizon of the policy. Nothing is rolled up.
+     */
+    @Override
+    public boolean applyRetention(RetentionPolicy policy, long now, int maxEntries) {
+        evictSegmentsBefore(now - policy.getHourRetentionMillis());
+        return false;
+    }
+
+    private void evictSegmentsBefore(long horizon) {
+        int expired = 0;
+        while (expired < segmentCount - 1
+                && timestampAt(expired, segmentSizes[expired] - 1) < horizon) {
+            expired++;
+        }
+        if (expired == 0) {
+            return;
+        }
+        evictedThrough = Math.max(evictedThrough, timestampAt(expired - 1, segmentSizes[expired - 1] - 1));
+        for (int i = 0; i < expired; i++) {
+            deleteQuietly(segmentFiles[i]);
+        }
+        int evicted = segmentStarts[expired];
+        segmentCount -= expired;
+        System.arraycopy(segments, expired, segments, 0, segmentCount);
+        System.arraycopy(segmentFiles, expired, segmentFiles, 0, segmentCount);
+        System.arraycopy(segmentSizes, expired, segmentSizes, 0, segmentCount);
+        System.arraycopy(segmentStarts, expired, segmentStarts, 0, segmentCount);
+        Arrays.fill(segments, segmentCount, segmentCount + expired, null);
+        Arrays.fill(segmentFiles, segmentCount, segmentCount + expired, null);
+        for (int i = 0; i < segmentCount; i++) {
+            segmentStarts[i] -= evicted;
+        }
+        size -= evicted;
+    }
+
+    /**
+     * Maps a new, empty segment file and inserts it at the given position.
+     */
+    private void addSegment(int position) {
+        Path file = directory.resolve(filePrefix + nextSegmentNumber++ + ".seg");
+        long bytes = 2L * entriesPerSegment * Long.BYTES;
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map segment file " + file, e);
+        }
+        if (segmentCount == segments.length) {
+            segments = Arrays.copyOf(segments, segmentCount * 2);
+            segmentFiles = Arrays.copyOf(segmentFiles, segmentCount * 2);
+            segmentSizes = Arrays.copyOf(segmentSizes, segmentCount * 2);
+            segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+        }
+        int following = segmentCount - position;
+        System.arraycopy(segments, position, segments, position + 1, following);
+        System.arraycopy(segmentFiles, position, segmentFiles, position + 1, following);
+        System.arraycopy(segmentSizes, position, segmentSizes, position + 1, following);
+        System.arraycopy(segmentStarts, position, segmentStarts, position + 1, following);
+        segments[position] = segment;
+        segmentFiles[position] = file;
+        segmentSizes[position] = 0;
+        segmentStarts[position] = position == 0 ? 0 : segmentStarts[position - 1] + segmentSizes[position - 1];
+        segmentCount++;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Could not delete segment file " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,57 +1,194 @@
 package com.data_management;
 
 import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
+/**
+ * Receives the simulator's real-time records over a WebSocket and stores
+ * them. The read loop only parses each message into an
+ * {@link IngestRingBuffer}, whose own thread stores the records, so the
+ * socket keeps being read while the storage is busy; how a full buffer is
+ * handled is the ring's {@link IngestRingBuffer.OverflowPolicy}.
+ * A lost or refused connection is retried with exponential backoff until
+ * {@link #shutdown()}. The backoff only starts over after a connection
+ * delivered a message or stayed open for a while, so a server accepting
+ * connections and dropping them at once is not retried at full rate. Every connection keeps its own
+ * {@link ConnectionMetrics}. Messages are not logged, connection events are.
+ */
 public class MyWebSocketClient extends WebSocketClient{
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30_000;
+    // a connection lasting this long, or delivering a message, resets the backoff
+    static final long STABLE_CONNECTION_MILLIS = 10_000;
 
-    private DataStorage dataStorage;
+    private final IngestRingBuffer ingest;
+    private final ScheduledExecutorService reconnector;
+    private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private int failedAttempts; // since the last stable connection, only used by the WebSocket threads
+    private int connections; // only used by the WebSocket threads
+    private volatile ConnectionMetrics metrics; // null before the first connection
+    private volatile boolean stopped;
 
-    public MyWebSocketClient(URI serverURI){
+    /**
+     * Constructs a client storing the simulator's records through an ingest
+     * buffer of {@value IngestRingBuffer#DEFAULT_CAPACITY} records, which
+     * drops records while it is full.
+     *
+     * @param serverURI   the address of the simulator's WebSocket server
+     * @param dataStorage the storage the records are added to
+     */
+    public MyWebSocketClient(URI serverURI, DataStorage dataStorage){
+        this(serverURI, new IngestRingBuffer(dataStorage, RecordFormat.SIMULATOR));
+    }
+
+    /**
+     * Constructs a client handing the received messages to the given ingest
+     * buffer, which it starts and closes.
+     *
+     * @param serverURI the address of the WebSocket server
+     * @param ingest    the buffer the messages are parsed into, not yet started
+     */
+    public MyWebSocketClient(URI serverURI, IngestRingBuffer ingest){
         super(serverURI);
-        this.dataStorage = dataStorage;
+        this.ingest = ingest;
+        this.reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the delays between reconnection attempts: the first attempt waits
+     * about {@code initialMillis}, each failed attempt doubles the delay up to
+     * {@code maxMillis}. The delays are jittered, so clients that lost the
+     * same server do not return at once.
+     *
+     * @param initialMillis the delay before the first attempt
+     * @param maxMillis     the longest delay
+     * @throws IllegalArgumentException if {@code initialMillis} is not
+     *                                  positive or above {@code maxMillis}
+     */
+    public void setReconnectBackoff(long initialMillis, long maxMillis) {
+        if (initialMillis <= 0 || initialMillis > maxMillis) {
+            throw new IllegalArgumentException("Backoff must be positive and not above its maximum");
+        }
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = maxMillis;
+    }
+
+    /**
+     * Starts storing and connects; the connection is retried until
+     * {@link #shutdown()} if it cannot be opened.
+     */
+    public void start() {
+        ingest.start();
+        connect();
+    }
+
+    /**
+     * Stops reconnecting, closes the connection and waits until the records
+     * received so far are stored.
+     *
+     * @throws InterruptedException if interrupted while the connection closes
+     */
+    public void shutdown() throws InterruptedException {
+        stopped = true;
+        reconnector.shutdownNow();
+        try {
+            closeBlocking();
+        } finally {
+            ingest.close();
+        }
+    }
+
+    /**
+     * Returns the metrics of the current connection, or of the last one while
+     * the client is reconnecting.
+     *
+     * @return the metrics, or {@code null} before the first connection opened
+     */
+    public ConnectionMetrics getConnectionMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the buffer the received records are stored through, whose queue
+     * depth shows how far the storage is behind the socket.
+     *
+     * @return the ingest buffer
+     */
+    public IngestRingBuffer getIngest() {
+        return ingest;
     }
 
     @Override
     public void onOpen(ServerHandshake handshakedata) {
-        System.out.println("Client connected to server.");
+        metrics = new ConnectionMetrics(++connections, ingest);
+        System.out.println("Client connected to server " + getURI());
     }
 
     @Override
     public void onMessage(String message) {
-        System.out.println("Message received: " + message);
-        // Parse the message and store data
-        parseAndStoreMessage(message);
+        ConnectionMetrics current = metrics;
+        current.onMessage(message);
+        ingest.publish(message);
     }
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
-        System.out.println("Connection closed with code: " + code + "; reason: " + reason);
+        ConnectionMetrics current = metrics;
+        if (current != null && current.isOpen()) {
+            current.close();
+            if (current.getMessageCount() > 0 || current.getDurationMillis() >= STABLE_CONNECTION_MILLIS) {
+                failedAttempts = 0;
+            }
+            System.out.println("Connection closed with code: " + code + "; reason: " + reason + "; " + current);
+        }
+        if (stopped) {
+            return;
+        }
+        // reconnect() joins the WebSocket threads, so it cannot run on one of them
+        long delay = backoffMillis(failedAttempts++);
+        try {
+            reconnector.schedule(this::reconnectUnlessStopped, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down in the meantime
+        }
     }
 
     @Override
     public void onError(Exception e) {
-        System.err.println("An error occurred:" + e);
-    }
-
-    private void parseAndStoreMessage(String message) {
-    
-        String[] parts = message.split(",");
-        if (parts.length == 4) {
-            try {
-                int patientId = Integer.parseInt(parts[0]);
-                long timestamp = Long.parseLong(parts[1]);
-                String recordType = parts[2];
-                double measurementValue = Double.parseDouble(parts[3]);
-
-                dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
-            } catch (NumberFormatException e) {
-                System.err.println("Failed to parse message: " + message);
-            }
-        } else {
-            System.err.println("Invalid message format: " + message);
+        if (failedAttempts == 0) {
+            // refused reconnection attempts would repeat the same error
+            System.err.println("An error occurred:" + e);
+        }
+    }
+
+    private void reconnectUnlessStopped() {
+        if (!stopped) {
+            reconnect();
+        }
+    }
+
+    /**
+     * Returns the delay before the next attempt: doubled for each failed
+     * attempt up to the maximum, and a random amount of up to a half shorter.
+     */
+    private long backoffMillis(int failedAttempts) {
+        long max = maxBackoffMillis;
+        long delay = initialBackoffMillis << Math.min(failedAttempts, 30);
+        if (delay <= 0 || delay > max) {
+            delay = max;
         }
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 }
@@ -1,27 +1,72 @@
 package com.data_management;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents a patient and manages their medical records.
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ * Every patient guards its records with its own read-write lock, so writers
+ * of different patients never contend and concurrent readers share access.
  */
 public class Patient {
+    private static final int RECENT_KEY_BITS = 6; // remembers up to 64 recently stored keys
+    private static final RetentionPolicy KEEP_NOTHING = new RetentionPolicy(0, 0, 0);
+
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    private TimeSeries[] seriesByCode; // indexed by record type code, null for types not seen yet
+    private TimeSeries[] seriesInOrder; // the series in the order their types were first seen
+    private int seriesCount;
+    private SeriesAggregates[] aggregatesByCode; // indexed like seriesByCode
+    private long[] latestTimestamps; // indexed like seriesByCode, valid where a series exists
+    private double[] latestValues; // indexed like seriesByCode, valid where a series exists
+    private ReadWriteLock lock;
+    private StorageBackend backend;
+    private long lastSequence = -1; // write-ahead log sequence number of the last logged record
+    private ReorderBuffer reorderBuffer; // null unless records are reordered before they are stored
+    private long[] recentTimestamps; // direct-mapped cache of recently stored (type, timestamp) keys
+    private int[] recentCodes; // -1 marks an empty slot
+    private long duplicateCount;
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series kept on the heap.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, StorageBackend.heap());
+    }
+
+    /**
+     * Constructs a new Patient whose record series are created by the given
+     * storage backend.
+     *
+     * @param patientId the unique identifier for the patient
+     * @param backend   the backend holding the patient's history
+     */
+    public Patient(int patientId, StorageBackend backend) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.backend = backend;
+        this.seriesByCode = new TimeSeries[RecordTypeRegistry.size()];
+        this.aggregatesByCode = new SeriesAggregates[seriesByCode.length];
+        this.latestTimestamps = new long[seriesByCode.length];
+        this.latestValues = new double[seriesByCode.length];
+        this.recentTimestamps = new long[1 << RECENT_KEY_BITS];
+        this.recentCodes = new int[1 << RECENT_KEY_BITS];
+        Arrays.fill(recentCodes, -1);
+        this.seriesInOrder = new TimeSeries[4];
+        this.lock = new ReentrantReadWriteLock();
     }
 
     public int getPatientId() {
@@ -29,9 +74,12 @@ public class Patient {
     }
 
     /**
-     * Adds a new record to this patient's list of medical records.
-     * The record is created with the specified measurement value, record type, and
-     * timestamp.
+     * Adds a new record to this patient's medical records.
+     * The measurement is appended to the columnar series of its record type, so
+     * no record object is allocated per sample.
+     * Every record is stored, even one with the same type and timestamp as a
+     * stored record; {@link DataStorage#addPatientData} suppresses such
+     * duplicates.
      *
      * @param measurementValue the measurement value to store in the record
      * @param recordType       the type of record, e.g., "HeartRate",
@@ -40,14 +88,313 @@ public class Patient {
      *                         milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        addRecord(measurementValue, RecordTypeRegistry.codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record whose type has already been translated to its
+     * {@link RecordTypeRegistry} code.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordTypeCode   the code of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     */
+    public void addRecord(double measurementValue, int recordTypeCode, long timestamp) {
+        lock.writeLock().lock();
+        try {
+            store(recordTypeCode, timestamp, measurementValue);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a new record and, if a log is given, appends it to the write-ahead
+     * log in the same critical section. Sequence numbers of one patient are
+     * therefore applied in log order, and {@link #getLastSequence()} tells a
+     * snapshot exactly which logged records it contains.
+     * A record with the same type and timestamp as a stored record is
+     * neither logged nor stored, so ingesting the same data twice has no
+     * effect.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordTypeCode   the code of the record type
+     * @param timestamp        the time at which the measurement was taken
+     * @param log              the write-ahead log, or {@code null}
+     */
+    void addRecord(double measurementValue, int recordTypeCode, long timestamp, WriteAheadLog log) {
+        lock.writeLock().lock();
+        try {
+            commit(recordTypeCode, timestamp, measurementValue, log);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Passes a record through the reorder buffer of this patient. The record
+     * is held back until the watermark, the highest timestamp seen minus the
+     * allowed lateness, has passed it; then it is logged and stored together
+     * with the other released records, in timestamp order. Buffered records
+     * are not visible to queries yet.
+     *
+     * @param measurementValue      the measurement value
+     * @param recordTypeCode        the code of the record type
+     * @param timestamp             the time at which the measurement was taken
+     * @param log                   the write-ahead log, or {@code null}
+     * @param allowedLatenessMillis how far behind the newest record a record may
+     *                              arrive
+     * @return {@code false} if the record arrived behind the watermark and was
+     *         neither buffered nor stored
+     */
+    boolean offerRecord(double measurementValue, int recordTypeCode, long timestamp, WriteAheadLog log,
+                        long allowedLatenessMillis) {
+        lock.writeLock().lock();
+        try {
+            if (!offer(measurementValue, recordTypeCode, timestamp, log, allowedLatenessMillis)) {
+                return false;
+            }
+            releaseBuffered(log, true);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a run of records of this patient from a batch in one critical
+     * section, as {@link #addRecord(double, int, long, WriteAheadLog)} or, if
+     * the allowed lateness is not negative, as {@link #offerRecord} would add
+     * them one at a time. Records that arrive behind the watermark are marked
+     * late in the batch.
+     *
+     * @param batch                 the batch, grouped by patient
+     * @param from                  the first position of the run
+     * @param to                    the position after the run
+     * @param log                   the write-ahead log, or {@code null}
+     * @param allowedLatenessMillis how far behind the newest record a record may
+     *                              arrive, or a negative value to store the
+     *                              records as they arrive
+     */
+    void addRecords(RecordBatch batch, int from, int to, WriteAheadLog log, long allowedLatenessMillis) {
+        lock.writeLock().lock();
+        try {
+            for (int position = from; position < to; position++) {
+                int index = batch.indexAt(position);
+                int recordTypeCode = batch.recordTypeCodeAt(index);
+                long timestamp = batch.timestampAt(index);
+                double measurementValue = batch.valueAt(index);
+                if (allowedLatenessMillis < 0) {
+                    commit(recordTypeCode, timestamp, measurementValue, log);
+                } else if (!offer(measurementValue, recordTypeCode, timestamp, log, allowedLatenessMillis)) {
+                    batch.markLate(position);
+                }
+            }
+            if (allowedLatenessMillis >= 0) {
+                // the watermark only advances, so releasing once yields the same order as after every offer
+                releaseBuffered(log, true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a record to the reorder buffer without releasing any. Must be
+     * called with the write lock held.
+     */
+    private boolean offer(double measurementValue, int recordTypeCode, long timestamp, WriteAheadLog log,
+                          long allowedLatenessMillis) {
+        if (reorderBuffer != null && reorderBuffer.getAllowedLatenessMillis() != allowedLatenessMillis) {
+            releaseBuffered(log, false);
+            reorderBuffer = null;
+        }
+        if (reorderBuffer == null) {
+            reorderBuffer = new ReorderBuffer(allowedLatenessMillis);
+        }
+        return reorderBuffer.offer(timestamp, recordTypeCode, measurementValue);
+    }
+
+    /**
+     * Stores all records still held in the reorder buffer, in timestamp order,
+     * and drops the buffer.
+     *
+     * @param log the write-ahead log, or {@code null}
+     */
+    void flushReorderBuffer(WriteAheadLog log) {
+        lock.writeLock().lock();
+        try {
+            if (reorderBuffer != null) {
+                releaseBuffered(log, false);
+                reorderBuffer = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void releaseBuffered(WriteAheadLog log, boolean onlyReady) {
+        while (onlyReady ? reorderBuffer.hasReady() : !reorderBuffer.isEmpty()) {
+            commit(reorderBuffer.oldestRecordTypeCode(), reorderBuffer.oldestTimestamp(),
+                    reorderBuffer.oldestValue(), log);
+            reorderBuffer.removeOldest();
+        }
+    }
+
+    /**
+     * Appends a record to the write-ahead log, if any, and stores it, unless
+     * the patient already holds a record of the same type and timestamp. Must
+     * be called with the write lock held.
+     */
+    private void commit(int recordTypeCode, long timestamp, double measurementValue, WriteAheadLog log) {
+        if (isDuplicate(recordTypeCode, timestamp)) {
+            duplicateCount++;
+            return;
+        }
+        int slot = recentSlot(recordTypeCode, timestamp);
+        recentCodes[slot] = recordTypeCode;
+        recentTimestamps[slot] = timestamp;
+        if (log != null) {
+            long sequence = log.append(patientId, recordTypeCode, timestamp, measurementValue);
+            if (sequence >= 0) {
+                lastSequence = sequence;
+            }
+        }
+        store(recordTypeCode, timestamp, measurementValue);
+    }
+
+    /**
+     * Applies a record read back from the write-ahead log, unless the patient
+     * already contains it because it was restored from a newer snapshot.
+     *
+     * @param sequence         the sequence number of the logged record
+     * @param measurementValue the measurement value
+     * @param recordTypeCode   the code of the record type
+     * @param timestamp        the time at which the measurement was taken
+     */
+    void replay(long sequence, double measurementValue, int recordTypeCode, long timestamp) {
+        lock.writeLock().lock();
+        try {
+            if (sequence > lastSequence) {
+                store(recordTypeCode, timestamp, measurementValue);
+                lastSequence = sequence;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether a record of the type with the timestamp is already
+     * stored. Records newer than the latest of their type, the common case,
+     * are decided without a lookup; older ones are first looked up among the
+     * recently stored keys, then in the raw history, which costs decoding one
+     * chunk. Records at or before the part of the history rolled up by
+     * retention count as stored: they can no longer be looked up one by one,
+     * and storing them again as raw would count them twice once rolled up.
+     */
+    private boolean isDuplicate(int recordTypeCode, long timestamp) {
+        if (recordTypeCode >= seriesByCode.length || seriesByCode[recordTypeCode] == null
+                || timestamp > latestTimestamps[recordTypeCode]) {
+            return false;
+        }
+        int slot = recentSlot(recordTypeCode, timestamp);
+        if (recentCodes[slot] == recordTypeCode && recentTimestamps[slot] == timestamp) {
+            return true;
+        }
+        // e.g. a file read a second time
+        if (timestamp <= seriesByCode[recordTypeCode].rolledUpThrough()) {
+            return true;
+        }
+        QueryScratch scratch = QueryScratch.acquire();
+        try {
+            SampleBuffer found = scratch.buffer(0, recordTypeCode);
+            seriesByCode[recordTypeCode].readRange(timestamp, timestamp, found);
+            return found.size() > 0;
+        } finally {
+            scratch.release();
+        }
+    }
+
+    private static int recentSlot(int recordTypeCode, long timestamp) {
+        long hash = (timestamp ^ ((long) recordTypeCode << 48)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> (64 - RECENT_KEY_BITS));
+    }
+
+    /**
+     * Returns the number of records that were not stored because a record of
+     * the same type and timestamp was already stored.
+     */
+    long getDuplicateCount() {
+        lock.readLock().lock();
+        try {
+            return duplicateCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getLastSequence() {
+        lock.readLock().lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a measurement to its series, its aggregate buckets and the latest
+     * value table. Must be called with the write lock held.
+     */
+    private void store(int recordTypeCode, long timestamp, double measurementValue) {
+        seriesFor(recordTypeCode).append(timestamp, measurementValue);
+        aggregatesByCode[recordTypeCode].add(timestamp, measurementValue);
+        updateLatest(recordTypeCode, timestamp, measurementValue);
+    }
+
+    private void updateLatest(int recordTypeCode, long timestamp, double measurementValue) {
+        // a late arrival does not replace a newer measurement, an equal timestamp does
+        if (timestamp >= latestTimestamps[recordTypeCode]) {
+            latestTimestamps[recordTypeCode] = timestamp;
+            latestValues[recordTypeCode] = measurementValue;
+        }
+    }
+
+    private TimeSeries seriesFor(int recordTypeCode) {
+        if (recordTypeCode >= seriesByCode.length) {
+            seriesByCode = Arrays.copyOf(seriesByCode, RecordTypeRegistry.size());
+            aggregatesByCode = Arrays.copyOf(aggregatesByCode, seriesByCode.length);
+            latestTimestamps = Arrays.copyOf(latestTimestamps, seriesByCode.length);
+            latestValues = Arrays.copyOf(latestValues, seriesByCode.length);
+        }
+        TimeSeries series = seriesByCode[recordTypeCode];
+        if (series == null) {
+            series = backend.createSeries(patientId, recordTypeCode);
+            seriesByCode[recordTypeCode] = series;
+            aggregatesByCode[recordTypeCode] = new SeriesAggregates(recordTypeCode);
+            latestTimestamps[recordTypeCode] = Long.MIN_VALUE;
+            if (seriesCount == seriesInOrder.length) {
+                seriesInOrder = Arrays.copyOf(seriesInOrder, seriesCount * 2);
+            }
+            seriesInOrder[seriesCount++] = series;
+        }
+        return series;
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
-     * The method filters records based on the start and end times provided.
+     * Each record type is kept sorted by timestamp, so the bounds of the range
+     * are located with a binary search per type and only the compressed chunks
+     * overlapping the range are decoded. The per-type ranges are then merged into a single list
+     * ordered by timestamp.
+     * Ranges reaching back past the raw retention window are served from the
+     * per-minute and per-hour tiers; every bucket is returned as one record at
+     * the bucket start holding the bucket average.
+     * Callers that only iterate the records once should prefer
+     * {@link #forEachRecord}, which does not allocate a record per sample.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -56,16 +403,700 @@ public class Patient {
      *         range
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
-        // TODO Implement and test this method
-
         List<PatientRecord> filteredRecords = new ArrayList<>();
+        forEachRecord(startTime, endTime, (timestamp, recordTypeCode, measurementValue) ->
+                filteredRecords.add(new PatientRecord(patientId, measurementValue, recordTypeCode, timestamp)));
+        return filteredRecords;
+    }
+
+    /**
+     * Streams the records within a time range to a visitor, oldest first, in
+     * the same order {@link #getRecords} returns them. No record objects are
+     * created and the merge state is reused between calls of the same thread,
+     * so a steady stream of queries does not allocate.
+     * The records come from a point-in-time view captured when the call
+     * starts, see {@link #snapshot(long, long)}; the patient is not locked
+     * while the visitor runs, so records added meanwhile are not seen and the
+     * writers adding them are not held up.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param visitor   receives the records until it returns {@code false}
+     */
+    public void forEachRecord(long startTime, long endTime, RecordVisitor visitor) {
+        visitRecords(-1, startTime, endTime, false, visitor);
+    }
+
+    /**
+     * Streams the records of one record type within a time range to a visitor,
+     * oldest first. Only the series of that type is decoded, so scans looking
+     * at a single vital sign do not pay for the others.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param visitor    receives the records until it returns {@code false}
+     */
+    public void forEachRecord(String recordType, long startTime, long endTime, RecordVisitor visitor) {
+        visitRecords(RecordTypeRegistry.lookup(recordType), startTime, endTime, false, visitor);
+    }
+
+    /**
+     * Streams the raw records of one record type within a time range whose
+     * value lies within {@code [minValue, maxValue]} to a visitor, oldest
+     * first. Every chunk of the history keeps the minimum and maximum of its
+     * values, so chunks without a possible match are skipped undecoded; a
+     * query for rare values, e.g. all saturations below 92 with
+     * {@code maxValue} {@code Math.nextDown(92.0)}, only decodes the chunks
+     * holding them. History already rolled up by retention is not searched.
+     *
+     * @param recordTypeCode the code of the record type
+     * @param startTime      the start of the time range, in milliseconds since
+     *                       UNIX epoch
+     * @param endTime        the end of the time range, in milliseconds since
+     *                       UNIX epoch
+     * @param minValue       the lowest matching value, inclusive
+     * @param maxValue       the highest matching value, inclusive
+     * @param visitor        receives the matching records until it returns
+     *                       {@code false}
+     */
+    public void forEachRecordBetween(int recordTypeCode, long startTime, long endTime, double minValue,
+                                     double maxValue, RecordVisitor visitor) {
+        visitBetween(recordTypeCode, startTime, endTime, minValue, maxValue, false, visitor);
+    }
+
+    /**
+     * Streams the matching raw records of one record type, see
+     * {@link #forEachRecordBetween(int, long, long, double, double, RecordVisitor)}.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param minValue   the lowest matching value, inclusive
+     * @param maxValue   the highest matching value, inclusive
+     * @param visitor    receives the matching records until it returns
+     *                   {@code false}
+     */
+    public void forEachRecordBetween(String recordType, long startTime, long endTime, double minValue,
+                                     double maxValue, RecordVisitor visitor) {
+        forEachRecordBetween(RecordTypeRegistry.lookup(recordType), startTime, endTime, minValue, maxValue, visitor);
+    }
 
-        for (PatientRecord record : patientRecords) {
-            if (record.getTimestamp() >= startTime && record.getTimestamp() <= endTime) {
-                filteredRecords.add(record);
+    /**
+     * Finds the intervals in which the raw measurements of one record type
+     * stayed within {@code [minValue, maxValue]}, e.g. all intervals in which
+     * the saturation was below 92. Every interval is a maximal run of
+     * consecutive matching measurements. Like
+     * {@link #forEachRecordBetween(int, long, long, double, double, RecordVisitor)},
+     * chunks without a possible match are skipped undecoded.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param minValue   the lowest matching value, inclusive
+     * @param maxValue   the highest matching value, inclusive
+     * @return the intervals, oldest first
+     */
+    public List<TimeInterval> findIntervals(String recordType, long startTime, long endTime, double minValue,
+                                            double maxValue) {
+        List<TimeInterval> intervals = new ArrayList<>();
+        long[] run = new long[3]; // start, end and count of the current run
+        visitBetween(RecordTypeRegistry.lookup(recordType), startTime, endTime, minValue, maxValue, true,
+                (timestamp, recordTypeCode, measurementValue) -> {
+                    if (Double.isNaN(measurementValue)) {
+                        // a gap ends the run
+                        if (run[2] > 0) {
+                            intervals.add(new TimeInterval(run[0], run[1], (int) run[2]));
+                            run[2] = 0;
+                        }
+                    } else {
+                        if (run[2] == 0) {
+                            run[0] = timestamp;
+                        }
+                        run[1] = timestamp;
+                        run[2]++;
+                    }
+                    return true;
+                });
+        if (run[2] > 0) {
+            intervals.add(new TimeInterval(run[0], run[1], (int) run[2]));
+        }
+        return intervals;
+    }
+
+    /**
+     * Streams the raw records of one type within value bounds, and the gap
+     * markers between runs of them if {@code withGaps} is set.
+     */
+    private void visitBetween(int recordTypeCode, long startTime, long endTime, double minValue, double maxValue,
+                              boolean withGaps, RecordVisitor visitor) {
+        if (startTime > endTime) {
+            return;
+        }
+        QueryScratch scratch = QueryScratch.acquire();
+        try {
+            SampleBuffer matches = scratch.buffer(0, recordTypeCode);
+            lock.readLock().lock();
+            try {
+                if (recordTypeCode >= seriesByCode.length || seriesByCode[recordTypeCode] == null) {
+                    return;
+                }
+                seriesByCode[recordTypeCode].readBetween(startTime, endTime, minValue, maxValue, matches);
+            } finally {
+                lock.readLock().unlock();
+            }
+            // the matches are a copy, visit them unlocked
+            for (int i = 0; i < matches.size(); i++) {
+                double value = matches.valueAt(i);
+                if ((withGaps || !Double.isNaN(value))
+                        && !visitor.visit(matches.timestampAt(i), recordTypeCode, value)) {
+                    return;
+                }
             }
+        } finally {
+            scratch.release();
         }
+    }
 
-        return filteredRecords;
+    /**
+     * Streams the records within a time range to a visitor, newest first, in
+     * the reverse order of {@link #forEachRecord}. Checks looking for the
+     * latest records can stop as soon as they found them.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param visitor   receives the records until it returns {@code false}
+     */
+    public void forEachRecordDescending(long startTime, long endTime, RecordVisitor visitor) {
+        visitRecords(-1, startTime, endTime, true, visitor);
+    }
+
+    /**
+     * Streams the records of one record type, or of all types if the code is
+     * negative, from a snapshot captured by this thread, so the visitor runs
+     * without holding the lock.
+     */
+    private void visitRecords(int onlyCode, long startTime, long endTime, boolean descending,
+                              RecordVisitor visitor) {
+        if (startTime > endTime) {
+            return;
+        }
+        QueryScratch scratch = QueryScratch.acquire();
+        try {
+            capture(onlyCode, startTime, endTime, scratch.snapshot, true);
+            scratch.snapshot.visit(scratch, startTime, endTime, descending, visitor);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Takes a consistent, point-in-time view of the records within a time
+     * range. The patient is locked only while the view is captured; reading it
+     * takes no lock, so evaluators working on it never hold up ingest, and all
+     * passes over one view see the same records.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return the view of the range
+     */
+    public PatientSnapshot snapshot(long startTime, long endTime) {
+        return snapshot(startTime, endTime, new PatientSnapshot());
+    }
+
+    /**
+     * Takes a point-in-time view of the records within a time range like
+     * {@link #snapshot(long, long)}, reusing a snapshot that is no longer
+     * read, so repeated evaluations do not allocate.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param reuse     the snapshot to fill; its previous content is discarded
+     * @return {@code reuse}, holding the view of the range
+     */
+    public PatientSnapshot snapshot(long startTime, long endTime, PatientSnapshot reuse) {
+        capture(-1, startTime, endTime, reuse, true);
+        return reuse;
+    }
+
+    /**
+     * Takes a point-in-time view of the raw records within a time range,
+     * without the buckets of history already rolled up by retention. The view
+     * holds the same records as
+     * {@link #forEachRecordBetween(int, long, long, double, double, RecordVisitor)}
+     * searches, so checks on individual measurements see no bucket averages.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param reuse     the snapshot to fill; its previous content is discarded
+     * @return {@code reuse}, holding the raw records of the range
+     */
+    public PatientSnapshot rawSnapshot(long startTime, long endTime, PatientSnapshot reuse) {
+        capture(-1, startTime, endTime, reuse, false);
+        return reuse;
+    }
+
+    private void capture(int onlyCode, long startTime, long endTime, PatientSnapshot into, boolean withTiers) {
+        lock.readLock().lock();
+        try {
+            into.reset(patientId, startTime, endTime);
+            for (int i = 0; i < seriesCount; i++) {
+                TimeSeries series = seriesInOrder[i];
+                if (onlyCode >= 0 && series.getRecordTypeCode() != onlyCode) {
+                    continue;
+                }
+                SeriesSnapshot captured = into.nextSeries(series.getRecordTypeCode());
+                series.capture(startTime, endTime, captured);
+                if (withTiers) {
+                    SeriesSnapshot.copyBuckets(series.getMinuteTier(), startTime, endTime, captured.minuteBuckets());
+                    SeriesSnapshot.copyBuckets(series.getHourTier(), startTime, endTime, captured.hourBuckets());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most recent record of one record type, the one with the
+     * highest timestamp. The answer comes from a table updated as records are
+     * added, so it takes constant time however long the history is.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @return the latest record of that type, or {@code null} if there is none
+     */
+    public PatientRecord getLatestRecord(String recordType) {
+        return getLatestRecord(RecordTypeRegistry.lookup(recordType));
+    }
+
+    /**
+     * Returns the most recent record of one record type, see
+     * {@link #getLatestRecord(String)}.
+     *
+     * @param recordTypeCode the code of the record type
+     * @return the latest record of that type, or {@code null} if there is none
+     */
+    public PatientRecord getLatestRecord(int recordTypeCode) {
+        lock.readLock().lock();
+        try {
+            if (recordTypeCode >= seriesByCode.length || seriesByCode[recordTypeCode] == null) {
+                return null;
+            }
+            return new PatientRecord(patientId, latestValues[recordTypeCode], recordTypeCode,
+                    latestTimestamps[recordTypeCode]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes the most recent record of one record type to a visitor, from the
+     * same table as {@link #getLatestRecord(int)} but without creating a
+     * record. The visitor runs after the patient is unlocked.
+     *
+     * @param recordTypeCode the code of the record type
+     * @param visitor        receives the latest record
+     * @return {@code false} if there is no record of that type
+     */
+    public boolean visitLatestRecord(int recordTypeCode, RecordVisitor visitor) {
+        long timestamp;
+        double value;
+        lock.readLock().lock();
+        try {
+            if (recordTypeCode >= seriesByCode.length || seriesByCode[recordTypeCode] == null) {
+                return false;
+            }
+            timestamp = latestTimestamps[recordTypeCode];
+            value = latestValues[recordTypeCode];
+        } finally {
+            lock.readLock().unlock();
+        }
+        visitor.visit(timestamp, recordTypeCode, value);
+        return true;
+    }
+
+    /**
+     * Passes the most recent record of any record type to a visitor, from the
+     * latest-value table and without creating a record. If several types
+     * share the newest timestamp, the type seen first wins. The visitor runs
+     * after the patient is unlocked.
+     *
+     * @param visitor receives the newest record
+     * @return {@code false} if the patient has no records
+     */
+    public boolean visitNewestRecord(RecordVisitor visitor) {
+        int newestCode = -1;
+        long timestamp = Long.MIN_VALUE;
+        double value = 0;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < seriesCount; i++) {
+                int code = seriesInOrder[i].getRecordTypeCode();
+                if (newestCode < 0 || latestTimestamps[code] > timestamp) {
+                    newestCode = code;
+                    timestamp = latestTimestamps[code];
+                    value = latestValues[code];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (newestCode < 0) {
+            return false;
+        }
+        visitor.visit(timestamp, newestCode, value);
+        return true;
+    }
+
+    /**
+     * Returns the most recent record of every record type of this patient, in
+     * the order the types were first seen.
+     *
+     * @return one record per record type
+     */
+    public List<PatientRecord> getLatestRecords() {
+        lock.readLock().lock();
+        try {
+            List<PatientRecord> latest = new ArrayList<>(seriesCount);
+            for (int i = 0; i < seriesCount; i++) {
+                int code = seriesInOrder[i].getRecordTypeCode();
+                latest.add(new PatientRecord(patientId, latestValues[code], code, latestTimestamps[code]));
+            }
+            return latest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the minimum, maximum, sum and count of one record type within a
+     * time range, answered from buckets that are updated as records are added
+     * instead of from the raw records.
+     * The range is widened to whole minutes; where it reaches back past the
+     * minute window of the retention policy, to whole hours.
+     *
+     * @param recordType the type of record, e.g., "Saturation"
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @return the aggregate, empty if there are no records in the range
+     */
+    public Aggregate aggregate(String recordType, long startTime, long endTime) {
+        return aggregate(RecordTypeRegistry.lookup(recordType), startTime, endTime);
+    }
+
+    /**
+     * Returns the aggregate of one record type within a time range, see
+     * {@link #aggregate(String, long, long)}.
+     *
+     * @param recordTypeCode the code of the record type
+     * @param startTime      the start of the time range, in milliseconds since
+     *                       UNIX epoch
+     * @param endTime        the end of the time range, in milliseconds since
+     *                       UNIX epoch
+     * @return the aggregate, empty if there are no records in the range
+     */
+    public Aggregate aggregate(int recordTypeCode, long startTime, long endTime) {
+        lock.readLock().lock();
+        try {
+            if (recordTypeCode >= aggregatesByCode.length || aggregatesByCode[recordTypeCode] == null) {
+                return Aggregate.EMPTY;
+            }
+            return aggregatesByCode[recordTypeCode].aggregate(startTime, endTime);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the raw measurements of
+     * this patient, summed over all record types. For the memory-mapped backend
+     * this is the size of the mapped segment files.
+     *
+     * @return the size of the stored history, in bytes
+     */
+    public long getStoredBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (int i = 0; i < seriesCount; i++) {
+                bytes += seriesInOrder[i].sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes held by this patient: the raw
+     * measurements, the rolled up tiers and the aggregate buckets of all
+     * record types.
+     *
+     * @return the size of everything held for this patient, in bytes
+     */
+    public long getHeldBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (int i = 0; i < seriesCount; i++) {
+                bytes += heldBytes(seriesInOrder[i]);
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes held per record type, see
+     * {@link #getHeldBytes()}.
+     *
+     * @return the bytes held by record type label, in the order the types were
+     *         first seen
+     */
+    public Map<String, Long> getHeldBytesByType() {
+        lock.readLock().lock();
+        try {
+            Map<String, Long> bytes = new LinkedHashMap<>();
+            for (int i = 0; i < seriesCount; i++) {
+                TimeSeries series = seriesInOrder[i];
+                bytes.put(RecordTypeRegistry.labelOf(series.getRecordTypeCode()), heldBytes(series));
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long heldBytes(TimeSeries series) {
+        long bytes = series.sizeInBytes() + aggregatesByCode[series.getRecordTypeCode()].sizeInBytes();
+        if (series.getMinuteTier() != null) {
+            bytes += series.getMinuteTier().sizeInBytes();
+        }
+        if (series.getHourTier() != null) {
+            bytes += series.getHourTier().sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the timestamp of the oldest raw measurement of any type, or
+     * {@link Long#MAX_VALUE} if none is held.
+     */
+    long getOldestRawTimestamp() {
+        lock.readLock().lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < seriesCount; i++) {
+                oldest = Math.min(oldest, seriesInOrder[i].firstTimestamp());
+            }
+            return oldest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the oldest time still covered by raw measurements or buckets of
+     * any type, or {@link Long#MAX_VALUE} if nothing is held.
+     */
+    long getOldestTimestamp() {
+        lock.readLock().lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < seriesCount; i++) {
+                TimeSeries series = seriesInOrder[i];
+                oldest = Math.min(oldest, series.firstTimestamp());
+                oldest = Math.min(oldest, aggregatesByCode[series.getRecordTypeCode()].firstTimestamp());
+                if (series.getHourTier() != null && series.getHourTier().size() > 0) {
+                    oldest = Math.min(oldest, series.getHourTier().timestampAt(0));
+                }
+            }
+            return oldest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the timestamp of the newest measurement of any type, or
+     * {@link Long#MIN_VALUE} if there are none.
+     */
+    long getNewestTimestamp() {
+        lock.readLock().lock();
+        try {
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < seriesCount; i++) {
+                newest = Math.max(newest, latestTimestamps[seriesInOrder[i].getRecordTypeCode()]);
+            }
+            return newest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rolls the raw measurements before a cutoff into per-minute buckets,
+     * whatever the retention policy; see {@link TimeSeries#rollUpBefore}.
+     *
+     * @param cutoff     the time before which raw measurements are rolled up
+     * @param maxEntries the maximum number of entries to move per record type
+     * @return {@code true} if measurements before the cutoff are left over for
+     *         another call
+     */
+    boolean rollUpRawBefore(long cutoff, int maxEntries) {
+        boolean remaining = false;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < seriesCount; i++) {
+                remaining |= seriesInOrder[i].rollUpBefore(cutoff, maxEntries);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return remaining;
+    }
+
+    /**
+     * Evicts everything before a cutoff: raw measurements, rolled up tiers and
+     * aggregate buckets.
+     *
+     * @param cutoff     the time before which data is evicted
+     * @param maxEntries the maximum number of entries to move per tier
+     * @return {@code true} if data before the cutoff is left over for another
+     *         call
+     */
+    boolean evictBefore(long cutoff, int maxEntries) {
+        return applyRetention(KEEP_NOTHING, cutoff, maxEntries);
+    }
+
+    /**
+     * Ages this patient's history according to a retention policy: raw samples
+     * past the raw window are rolled into per-minute buckets, minute buckets
+     * into per-hour buckets, and hour buckets past the final horizon are
+     * dropped. The patient is locked for at most {@code maxEntries} entries per
+     * record type and tier, so ingest is never paused for long.
+     *
+     * @param policy     the retention windows to apply
+     * @param now        the current time, in milliseconds since UNIX epoch
+     * @param maxEntries the maximum number of entries moved per record type and
+     *                   tier in this call
+     * @return {@code true} if aged data is left over for another call
+     */
+    boolean applyRetention(RetentionPolicy policy, long now, int maxEntries) {
+        boolean remaining = false;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < seriesCount; i++) {
+                remaining |= seriesInOrder[i].applyRetention(policy, now, maxEntries);
+                aggregatesByCode[seriesInOrder[i].getRecordTypeCode()].applyRetention(policy, now);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return remaining;
+    }
+
+    /**
+     * Writes the complete history of this patient, including the rolled up
+     * tiers, in the snapshot format read by {@link #readFrom}. Record types are
+     * written as labels since codes are only valid within one process.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(patientId);
+            out.writeLong(lastSequence);
+            out.writeInt(seriesCount);
+            for (int i = 0; i < seriesCount; i++) {
+                TimeSeries series = seriesInOrder[i];
+                out.writeUTF(RecordTypeRegistry.labelOf(series.getRecordTypeCode()));
+                SampleBuffer raw = new SampleBuffer(series.getRecordTypeCode());
+                series.readRange(Long.MIN_VALUE, Long.MAX_VALUE, raw);
+                out.writeInt(raw.size());
+                for (int j = 0; j < raw.size(); j++) {
+                    out.writeLong(raw.timestampAt(j));
+                    out.writeDouble(raw.valueAt(j));
+                }
+                writeTier(out, series.getMinuteTier());
+                writeTier(out, series.getHourTier());
+                aggregatesByCode[series.getRecordTypeCode()].writeTo(out);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void writeTier(DataOutputStream out, RollupTier tier) throws IOException {
+        int size = tier == null ? 0 : tier.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(tier.timestampAt(i));
+            out.writeDouble(tier.minAt(i));
+            out.writeDouble(tier.maxAt(i));
+            out.writeDouble(tier.sumAt(i));
+            out.writeLong(tier.countAt(i));
+        }
+    }
+
+    /**
+     * Reads a patient written by {@link #writeTo}. Snapshots of version 1 hold
+     * no aggregate buckets; they are rebuilt from the raw samples.
+     *
+     * @param in      the stream to read from
+     * @param backend the backend holding the restored history
+     * @param version the version of the snapshot format
+     * @return the restored patient
+     * @throws IOException if reading fails
+     */
+    static Patient readFrom(DataInputStream in, StorageBackend backend, int version) throws IOException {
+        Patient patient = new Patient(in.readInt(), backend);
+        patient.lastSequence = in.readLong();
+        int seriesCount = in.readInt();
+        for (int i = 0; i < seriesCount; i++) {
+            int recordTypeCode = RecordTypeRegistry.codeOf(in.readUTF());
+            TimeSeries series = patient.seriesFor(recordTypeCode);
+            SeriesAggregates aggregates = patient.aggregatesByCode[recordTypeCode];
+            int size = in.readInt();
+            for (int j = 0; j < size; j++) {
+                long timestamp = in.readLong();
+                double value = in.readDouble();
+                series.append(timestamp, value);
+                patient.updateLatest(recordTypeCode, timestamp, value);
+                if (version == 1) {
+                    aggregates.add(timestamp, value);
+                }
+            }
+            readTier(in, series, RollupTier.MINUTE_MILLIS);
+            readTier(in, series, RollupTier.HOUR_MILLIS);
+            if (version > 1) {
+                aggregates.readFrom(in);
+            }
+        }
+        return patient;
+    }
+
+    private static void readTier(DataInputStream in, TimeSeries series, long bucketMillis) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            series.restoreRollup(bucketMillis, in.readLong(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readLong());
+        }
     }
 }
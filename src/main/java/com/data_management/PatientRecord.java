@@ -8,10 +8,11 @@ package com.data_management;
  * pressure),
  * the measurement value, and the exact timestamp when the measurement was
  * taken.
+ * The record type is stored as its {@link RecordTypeRegistry} code.
  */
 public class PatientRecord {
     private int patientId;
-    private String recordType; // Example: ECG, blood pressure, etc.
+    private int recordTypeCode; // Example: ECG, blood pressure, etc., see RecordTypeRegistry
     private double measurementValue; // Example: heart rate
     private long timestamp;
 
@@ -26,9 +27,23 @@ public class PatientRecord {
      *                         milliseconds since epoch
      */
     public PatientRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        this(patientId, measurementValue, RecordTypeRegistry.codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Constructs a new patient record with an already registered record type.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param recordTypeCode   the {@link RecordTypeRegistry} code of the
+     *                         measurement type
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    public PatientRecord(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
         this.patientId = patientId;
         this.measurementValue = measurementValue;
-        this.recordType = recordType;
+        this.recordTypeCode = recordTypeCode;
         this.timestamp = timestamp;
     }
 
@@ -65,6 +80,15 @@ public class PatientRecord {
      * @return the record type
      */
     public String getRecordType() {
-        return recordType;
+        return RecordTypeRegistry.labelOf(recordTypeCode);
+    }
+
+    /**
+     * Returns the {@link RecordTypeRegistry} code of the record type.
+     * 
+     * @return the record type code
+     */
+    public int getRecordTypeCode() {
+        return recordTypeCode;
     }
 }
@@ -0,0 +1,260 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A consistent, point-in-time view of a patient's records within a time
+ * range, taken by {@link Patient#snapshot}. Capturing the view holds the
+ * patient's lock only briefly: sealed chunks of the history are immutable and
+ * merely referenced, the few records that are still changing are copied.
+ * Reading the view takes no lock at all, so writers keep appending while an
+ * evaluator works on it, and several passes over one view see exactly the
+ * same records.
+ * Once captured a snapshot can be read by several threads at once. It can be
+ * reused for another capture to avoid allocating a new one every time.
+ */
+public final class PatientSnapshot {
+    private static final long FIRST_DESCENDING_WINDOW_MILLIS = 60_000L;
+
+    private int patientId;
+    private long startTime;
+    private long endTime = -1; // an empty range until captured
+    private SeriesSnapshot[] series = new SeriesSnapshot[4];
+    private int seriesCount;
+
+    /**
+     * Constructs an empty snapshot to be filled by
+     * {@link Patient#snapshot(long, long, PatientSnapshot)}.
+     */
+    public PatientSnapshot() {
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    /**
+     * Returns the start of the captured time range.
+     *
+     * @return the start of the range, in milliseconds since UNIX epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the end of the captured time range.
+     *
+     * @return the end of the range, inclusive, in milliseconds since UNIX epoch
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Empties the snapshot for a capture of the given range. Called with the
+     * patient locked.
+     */
+    void reset(int patientId, long startTime, long endTime) {
+        for (int i = 0; i < seriesCount; i++) {
+            series[i].reset(series[i].getRecordTypeCode());
+        }
+        this.patientId = patientId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.seriesCount = 0;
+    }
+
+    /**
+     * Returns the emptied snapshot of the next series to capture.
+     */
+    SeriesSnapshot nextSeries(int recordTypeCode) {
+        if (seriesCount == series.length) {
+            series = Arrays.copyOf(series, seriesCount * 2);
+        }
+        SeriesSnapshot next = series[seriesCount];
+        if (next == null) {
+            next = new SeriesSnapshot(recordTypeCode);
+            series[seriesCount] = next;
+        }
+        next.reset(recordTypeCode);
+        seriesCount++;
+        return next;
+    }
+
+    /**
+     * Empties the snapshot and drops its references to chunks, so a snapshot
+     * kept for reuse does not keep evicted history alive. Its buffers are
+     * kept for the next capture.
+     */
+    public void clear() {
+        reset(patientId, 0, -1);
+    }
+
+    /**
+     * Returns the captured records within a time range, ordered by timestamp,
+     * as {@link Patient#getRecords} would have returned them at the time of
+     * the capture. The range is limited to the captured range.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return the records within the range
+     */
+    public List<PatientRecord> getRecords(long startTime, long endTime) {
+        List<PatientRecord> records = new ArrayList<>();
+        forEachRecord(startTime, endTime, (timestamp, recordTypeCode, measurementValue) ->
+                records.add(new PatientRecord(patientId, measurementValue, recordTypeCode, timestamp)));
+        return records;
+    }
+
+    /**
+     * Streams the captured records within a time range to a visitor, oldest
+     * first, like {@link Patient#forEachRecord(long, long, RecordVisitor)}.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param visitor   receives the records until it returns {@code false}
+     */
+    public void forEachRecord(long startTime, long endTime, RecordVisitor visitor) {
+        QueryScratch scratch = QueryScratch.acquire();
+        try {
+            visit(scratch, startTime, endTime, false, visitor);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Streams the captured records within a time range to a visitor, newest
+     * first, like {@link Patient#forEachRecordDescending}.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param visitor   receives the records until it returns {@code false}
+     */
+    public void forEachRecordDescending(long startTime, long endTime, RecordVisitor visitor) {
+        QueryScratch scratch = QueryScratch.acquire();
+        try {
+            visit(scratch, startTime, endTime, true, visitor);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Streams the records of the captured range, using the merge state and
+     * buffers of the given scratch.
+     */
+    void visit(QueryScratch scratch, long startTime, long endTime, boolean descending, RecordVisitor visitor) {
+        startTime = Math.max(startTime, this.startTime);
+        endTime = Math.min(endTime, this.endTime);
+        if (startTime > endTime) {
+            return;
+        }
+        if (!descending) {
+            visitWindow(scratch, startTime, endTime, false, visitor);
+            return;
+        }
+        // most visitors stop after the newest few records, so decode a growing window at a time
+        long width = FIRST_DESCENDING_WINDOW_MILLIS;
+        long high = endTime;
+        while (true) {
+            long low = high - width;
+            if (low < startTime || low > high) {
+                low = startTime;
+            }
+            if (!visitWindow(scratch, low, high, true, visitor) || low == startTime) {
+                return;
+            }
+            high = low - 1;
+            width = width > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : width * 2;
+        }
+    }
+
+    /**
+     * Merges the sources within one window and passes them to the visitor.
+     *
+     * @return {@code false} if the visitor stopped
+     */
+    private boolean visitWindow(QueryScratch scratch, long startTime, long endTime, boolean descending,
+                                RecordVisitor visitor) {
+        // per type the hour tier, the minute tier and the raw samples, oldest first
+        scratch.ensureCapacity(seriesCount * 3);
+        TimeColumns[] sources = scratch.sources;
+        int sourceCount = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            SeriesSnapshot captured = series[i];
+            if (captured.hourBuckets().size() > 0) {
+                sources[sourceCount++] = captured.hourBuckets();
+            }
+            if (captured.minuteBuckets().size() > 0) {
+                sources[sourceCount++] = captured.minuteBuckets();
+            }
+            SampleBuffer raw = scratch.buffer(i, captured.getRecordTypeCode());
+            captured.readRange(startTime, endTime, raw);
+            sources[sourceCount++] = raw;
+        }
+        int[] next = scratch.next;
+        int[] end = scratch.end;
+        long[] heads = scratch.heads; // the timestamp each source contributes next
+        for (int i = 0; i < sourceCount; i++) {
+            next[i] = sources[i].lowerBound(startTime);
+            end[i] = sources[i].upperBound(endTime);
+        }
+
+        if (descending) {
+            // walk the ranges backwards; on equal timestamps the source listed last wins
+            for (int i = 0; i < sourceCount; i++) {
+                heads[i] = next[i] < end[i] ? sources[i].timestampAt(end[i] - 1) : Long.MIN_VALUE;
+            }
+            while (true) {
+                int latest = -1;
+                for (int i = 0; i < sourceCount; i++) {
+                    if (next[i] < end[i] && (latest < 0 || heads[i] >= heads[latest])) {
+                        latest = i;
+                    }
+                }
+                if (latest < 0) {
+                    return true;
+                }
+                TimeColumns source = sources[latest];
+                int index = --end[latest];
+                if (index > next[latest]) {
+                    heads[latest] = source.timestampAt(index - 1);
+                }
+                if (!visitor.visit(source.timestampAt(index), source.getRecordTypeCode(), source.valueAt(index))) {
+                    return false;
+                }
+            }
+        }
+
+        // merge the ranges; on equal timestamps the source listed first wins
+        for (int i = 0; i < sourceCount; i++) {
+            heads[i] = next[i] < end[i] ? sources[i].timestampAt(next[i]) : Long.MAX_VALUE;
+        }
+        while (true) {
+            int earliest = -1;
+            for (int i = 0; i < sourceCount; i++) {
+                if (next[i] < end[i] && (earliest < 0 || heads[i] < heads[earliest])) {
+                    earliest = i;
+                }
+            }
+            if (earliest < 0) {
+                return true;
+            }
+            TimeColumns source = sources[earliest];
+            int index = next[earliest]++;
+            if (index + 1 < end[earliest]) {
+                heads[earliest] = source.timestampAt(index + 1);
+            }
+            if (!visitor.visit(source.timestampAt(index), source.getRecordTypeCode(), source.valueAt(index))) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * The state of one range merge in {@link Patient}: the snapshot it reads, the
+ * sources, their cursors and the buffers the raw samples are decoded into. Every thread reuses its
+ * own instance, so streaming queries do not allocate once the buffers have
+ * grown to the typical range size. A visitor starting another query from
+ * within a query gets a fresh instance.
+ */
+final class QueryScratch {
+    private static final ThreadLocal<QueryScratch> CURRENT = ThreadLocal.withInitial(QueryScratch::new);
+    private static final int MAX_RETAINED_SAMPLES = 1 << 16; // larger buffers are dropped after the query
+
+    TimeColumns[] sources = new TimeColumns[12];
+    int[] next = new int[12];
+    int[] end = new int[12];
+    long[] heads = new long[12];
+    final PatientSnapshot snapshot = new PatientSnapshot(); // the view a query of this thread is served from
+    private SampleBuffer[] buffers = new SampleBuffer[4];
+    private boolean inUse;
+
+    static QueryScratch acquire() {
+        QueryScratch scratch = CURRENT.get();
+        if (scratch.inUse) {
+            return new QueryScratch();
+        }
+        scratch.inUse = true;
+        return scratch;
+    }
+
+    void ensureCapacity(int sourceCount) {
+        if (sources.length < sourceCount) {
+            sources = new TimeColumns[sourceCount];
+            next = new int[sourceCount];
+            end = new int[sourceCount];
+            heads = new long[sourceCount];
+        }
+    }
+
+    /**
+     * Returns the empty buffer for the series at the given position.
+     */
+    SampleBuffer buffer(int index, int recordTypeCode) {
+        if (index >= buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.max(index + 1, buffers.length * 2));
+        }
+        SampleBuffer buffer = buffers[index];
+        if (buffer == null) {
+            buffer = new SampleBuffer(recordTypeCode);
+            buffers[index] = buffer;
+        }
+        buffer.reset(recordTypeCode);
+        return buffer;
+    }
+
+    void release() {
+        // do not keep tiers of other patients or exceptionally large ranges alive
+        Arrays.fill(sources, null);
+        snapshot.clear();
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] != null && buffers[i].capacity() > MAX_RETAINED_SAMPLES) {
+                buffers[i] = null;
+            }
+        }
+        inUse = false;
+    }
+}
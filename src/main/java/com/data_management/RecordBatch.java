@@ -0,0 +1,248 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of records for {@link DataStorage#addPatientData(RecordBatch)}.
+ * The records are kept in parallel primitive arrays, so filling a batch does
+ * not allocate once the arrays have grown to the batch size, and a batch can
+ * be handed to a {@link RecordFormat} as its {@link RecordConsumer} to collect
+ * parsed records directly. Records of one patient are applied in the order
+ * they were added. Not thread-safe.
+ */
+public final class RecordBatch implements RecordConsumer {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] patientIds;
+    private long[] timestamps;
+    private int[] recordTypeCodes;
+    private double[] values;
+    // grouping by patient: the records' indexes ordered by group, and per group its patient and first position
+    private int[] order = new int[0];
+    private int[] groupOfRecord = new int[0];
+    private int[] groupPatientIds = new int[16];
+    private int[] groupStarts = new int[17];
+    private int groupCount;
+    private int[] table = new int[0]; // open addressing from patient ID to group + 1, 0 is a free slot
+    private int[] latePositions = new int[0]; // records of the current group that arrived too late
+    private int lateCount;
+    private int size;
+
+    /**
+     * Constructs an empty batch.
+     */
+    public RecordBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty batch with room for the given number of records.
+     *
+     * @param initialCapacity the number of records the batch holds before it grows
+     * @throws IllegalArgumentException if {@code initialCapacity} is negative
+     */
+    public RecordBatch(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        this.patientIds = new int[initialCapacity];
+        this.timestamps = new long[initialCapacity];
+        this.recordTypeCodes = new int[initialCapacity];
+        this.values = new double[initialCapacity];
+    }
+
+    /**
+     * Adds a record to the batch.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, e.g. "HeartRate"
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public void add(int patientId, double measurementValue, String recordType, long timestamp) {
+        add(patientId, measurementValue, RecordTypeRegistry.codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds a record whose type has already been translated to its
+     * {@link RecordTypeRegistry} code.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordTypeCode   the code of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     */
+    public void add(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        if (size == patientIds.length) {
+            int capacity = Math.max(16, size * 2);
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            recordTypeCodes = Arrays.copyOf(recordTypeCodes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        patientIds[size] = patientId;
+        timestamps[size] = timestamp;
+        recordTypeCodes[size] = recordTypeCode;
+        values[size] = measurementValue;
+        size++;
+    }
+
+    /**
+     * Adds a parsed record, see {@link #add(int, double, int, long)}.
+     */
+    @Override
+    public void accept(int patientId, long timestamp, int recordTypeCode, double measurementValue) {
+        add(patientId, measurementValue, recordTypeCode, timestamp);
+    }
+
+    /**
+     * Returns the number of records in the batch.
+     *
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all records, keeping the arrays for the next batch.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Groups the records by patient, keeping the order of the records of each
+     * patient, so each patient's records form one run of positions. Runs in
+     * linear time: a hash table assigns the groups, a counting pass orders the
+     * records.
+     */
+    void groupByPatient() {
+        int tableSize = Integer.highestOneBit(Math.max(8, size) * 2 - 1) << 1; // at least twice the records
+        if (table.length < tableSize) {
+            table = new int[tableSize];
+        } else {
+            Arrays.fill(table, 0, tableSize, 0);
+        }
+        if (order.length < size) {
+            order = new int[patientIds.length];
+            groupOfRecord = new int[patientIds.length];
+        }
+        int mask = tableSize - 1;
+        int shift = Integer.numberOfLeadingZeros(mask); // keeps the well mixed upper bits of the hash
+        groupCount = 0;
+        groupStarts[0] = 0;
+        for (int i = 0; i < size; i++) {
+            int patientId = patientIds[i];
+            int slot = (patientId * 0x9E3779B9) >>> shift;
+            int group;
+            while (true) {
+                group = table[slot] - 1;
+                if (group < 0) {
+                    group = addGroup(patientId);
+                    table[slot] = group + 1;
+                    break;
+                }
+                if (groupPatientIds[group] == patientId) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            groupOfRecord[i] = group;
+            groupStarts[group + 1]++;
+        }
+        for (int group = 0; group < groupCount; group++) {
+            groupStarts[group + 1] += groupStarts[group];
+        }
+        // place the records, each group fills up from its start; undone below
+        for (int i = 0; i < size; i++) {
+            order[groupStarts[groupOfRecord[i]]++] = i;
+        }
+        for (int group = groupCount; group > 0; group--) {
+            groupStarts[group] = groupStarts[group - 1];
+        }
+        groupStarts[0] = 0;
+    }
+
+    private int addGroup(int patientId) {
+        if (groupCount == groupPatientIds.length) {
+            groupPatientIds = Arrays.copyOf(groupPatientIds, groupCount * 2);
+            groupStarts = Arrays.copyOf(groupStarts, groupCount * 2 + 1);
+        }
+        groupPatientIds[groupCount] = patientId;
+        groupStarts[groupCount + 1] = 0;
+        return groupCount++;
+    }
+
+    /**
+     * Returns the number of patients after {@link #groupByPatient()}.
+     */
+    int groupCount() {
+        return groupCount;
+    }
+
+    int groupPatientId(int group) {
+        return groupPatientIds[group];
+    }
+
+    /**
+     * Returns the first position of a group; the group ends at the start of
+     * the next one.
+     */
+    int groupStart(int group) {
+        return groupStarts[group];
+    }
+
+    /**
+     * Returns the index of the record at a position of the grouped order.
+     */
+    int indexAt(int position) {
+        return order[position];
+    }
+
+    int patientIdAt(int index) {
+        return patientIds[index];
+    }
+
+    long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    int recordTypeCodeAt(int index) {
+        return recordTypeCodes[index];
+    }
+
+    double valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Remembers that the record at a position arrived behind the lateness
+     * watermark, so its late record handler can be called after the patient
+     * has been unlocked.
+     */
+    void markLate(int position) {
+        if (lateCount == latePositions.length) {
+            latePositions = Arrays.copyOf(latePositions, Math.max(16, lateCount * 2));
+        }
+        latePositions[lateCount++] = position;
+    }
+
+    int lateCount() {
+        return lateCount;
+    }
+
+    int latePositionAt(int i) {
+        return latePositions[i];
+    }
+
+    void clearLate() {
+        lateCount = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.data_management;
+
+/**
+ * Receives the fields of a record decoded by a {@link RecordFormat}, as
+ * primitives so that parsing a record does not allocate.
+ */
+@FunctionalInterface
+public interface RecordConsumer {
+
+    /**
+     * Accepts one record.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         UNIX epoch
+     * @param recordTypeCode   the {@link RecordTypeRegistry} code of the record type
+     * @param measurementValue the measured value
+     */
+    void accept(int patientId, long timestamp, int recordTypeCode, double measurementValue);
+}
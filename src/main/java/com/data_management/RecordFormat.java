@@ -0,0 +1,117 @@
+package com.data_management;
+
+/**
+ * The line formats records arrive in. Every format decodes a line in place
+ * and hands the fields to a {@link RecordConsumer} as primitives, so a
+ * well-formed record is parsed without allocating.
+ * Measurement values may carry a trailing percent sign, as the saturation
+ * generator sends them, and the alert states {@code triggered} and
+ * {@code resolved} are read as 1 and 0.
+ */
+public enum RecordFormat {
+
+    /**
+     * {@code patientId,measurementValue,recordType,timestamp}, the format
+     * {@link DataStorage#storeData} and the data files are written in.
+     */
+    CSV {
+        @Override
+        void parseFields(CharSequence line, int first, int second, int third, RecordConsumer consumer) {
+            int patientId = Integer.parseInt(line, 0, first, 10);
+            double measurementValue = RecordParser.parseValue(line, first + 1, second);
+            long timestamp = Long.parseLong(line, third + 1, line.length(), 10);
+            // translated last, so malformed lines do not register labels
+            consumer.accept(patientId, timestamp, RecordTypeRegistry.codeOf(line, second + 1, third), measurementValue);
+        }
+    },
+
+    /**
+     * {@code patientId,timestamp,label,data}, the format the simulator's
+     * WebSocket and TCP outputs send.
+     */
+    SIMULATOR {
+        @Override
+        void parseFields(CharSequence line, int first, int second, int third, RecordConsumer consumer) {
+            int patientId = Integer.parseInt(line, 0, first, 10);
+            long timestamp = Long.parseLong(line, first + 1, second, 10);
+            double measurementValue = RecordParser.parseValue(line, third + 1, line.length());
+            consumer.accept(patientId, timestamp, RecordTypeRegistry.codeOf(line, second + 1, third), measurementValue);
+        }
+    },
+
+    /**
+     * {@code Patient ID: <id>, Timestamp: <timestamp>, Label: <label>, Data: <data>},
+     * the format the simulator's file and console outputs write.
+     */
+    FILE_OUTPUT {
+        @Override
+        void parseFields(CharSequence line, int first, int second, int third, RecordConsumer consumer) {
+            int patientId = Integer.parseInt(line, skip(line, 0, "Patient ID: "), first, 10);
+            long timestamp = Long.parseLong(line, skip(line, first + 1, " Timestamp: "), second, 10);
+            int label = skip(line, second + 1, " Label: ");
+            double measurementValue = RecordParser.parseValue(line, skip(line, third + 1, " Data: "),
+                    line.length());
+            consumer.accept(patientId, timestamp, RecordTypeRegistry.codeOf(line, label, third), measurementValue);
+        }
+    };
+
+    /**
+     * Decodes one line and passes its record to a consumer.
+     *
+     * @param line     the line, without its line terminator
+     * @param consumer receives the record if the line is well-formed
+     * @return {@code false} if the line is not a record of this format, in
+     *         which case the consumer is not called
+     */
+    public boolean parse(CharSequence line, RecordConsumer consumer) {
+        // Locate the separators of the four fields
+        int first = indexOf(line, ',', 0);
+        int second = first < 0 ? -1 : indexOf(line, ',', first + 1);
+        int third = second < 0 ? -1 : indexOf(line, ',', second + 1);
+        if (third < 0 || indexOf(line, ',', third + 1) >= 0) {
+            return false;
+        }
+        try {
+            parseFields(line, first, second, third, consumer);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // a malformed number, or a label the registry refuses
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the fields between the given separators.
+     *
+     * @throws IllegalArgumentException if a field is malformed
+     */
+    abstract void parseFields(CharSequence line, int first, int second, int third, RecordConsumer consumer);
+
+    /**
+     * Returns the index after the given field name, which the field must
+     * start with.
+     *
+     * @throws NumberFormatException if the field starts with something else
+     */
+    private static int skip(CharSequence line, int from, String name) {
+        int end = from + name.length();
+        if (end > line.length()) {
+            throw new NumberFormatException("Missing field " + name.trim());
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (line.charAt(from + i) != name.charAt(i)) {
+                throw new NumberFormatException("Missing field " + name.trim());
+            }
+        }
+        return end;
+    }
+
+    private static int indexOf(CharSequence chars, char c, int from) {
+        for (int i = from; i < chars.length(); i++) {
+            if (chars.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,226 @@
+package com.data_management;
+
+import java.math.BigInteger;
+
+/**
+ * Decodes the numeric fields of a record in place from a range of characters,
+ * without creating Strings. Integers are read by the range overloads of
+ * {@link Integer#parseInt} and {@link Long#parseLong}. Decimals are converted
+ * with the Eisel-Lemire algorithm, which yields the same correctly rounded
+ * double as {@link Double#parseDouble}; the rare inputs it cannot decide,
+ * subnormals, more than 18 significant digits and anything outside the plain
+ * decimal syntax are handed to {@link Double#parseDouble} instead.
+ */
+final class RecordParser {
+    private static final int SMALLEST_POWER_OF_TEN = -342; // smaller powers round every mantissa to zero
+    private static final int LARGEST_POWER_OF_TEN = 308; // larger powers overflow every mantissa
+    private static final int MAX_DIGITS = 18; // significant digits that always fit into a positive long
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // the 128 most significant bits of 5^q for every q, high word first
+    private static final long[] POWERS_OF_FIVE = powersOfFive();
+
+    private RecordParser() {
+    }
+
+    /**
+     * Parses a measurement value as sent by the simulator: a decimal number,
+     * optionally followed by a percent sign, or the alert states
+     * {@code triggered} and {@code resolved}, which are stored as 1 and 0.
+     *
+     * @throws NumberFormatException if the range is not a valid value
+     */
+    static double parseValue(CharSequence chars, int start, int end) {
+        if (end > start && chars.charAt(end - 1) == '%') {
+            end--;
+        }
+        if (equals(chars, start, end, "triggered")) {
+            return 1;
+        }
+        if (equals(chars, start, end, "resolved")) {
+            return 0;
+        }
+        return parseDouble(chars, start, end);
+    }
+
+    /**
+     * Parses a decimal number like {@link Double#parseDouble}.
+     *
+     * @throws NumberFormatException if the range is not a valid number
+     */
+    static double parseDouble(CharSequence chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+            negative = chars.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0; // significant digits in mantissa
+        int exponent = 0; // the power of ten mantissa is scaled by
+        boolean anyDigit = false;
+        boolean exact = true;
+        for (; i < end && isDigit(chars.charAt(i)); i++) {
+            anyDigit = true;
+            int digit = chars.charAt(i) - '0';
+            if (digits < MAX_DIGITS) {
+                if (mantissa != 0 || digit != 0) {
+                    mantissa = mantissa * 10 + digit;
+                    digits++;
+                }
+            } else {
+                exact = false;
+            }
+        }
+        if (i < end && chars.charAt(i) == '.') {
+            for (i++; i < end && isDigit(chars.charAt(i)); i++) {
+                anyDigit = true;
+                int digit = chars.charAt(i) - '0';
+                if (digits < MAX_DIGITS) {
+                    if (mantissa != 0 || digit != 0) {
+                        mantissa = mantissa * 10 + digit;
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    exact = false;
+                }
+            }
+        }
+        if (anyDigit && i < end && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+                negativeExponent = chars.charAt(i) == '-';
+                i++;
+            }
+            int explicit = 0;
+            boolean anyExponentDigit = false;
+            for (; i < end && isDigit(chars.charAt(i)); i++) {
+                anyExponentDigit = true;
+                explicit = Math.min(explicit * 10 + chars.charAt(i) - '0', 100_000); // far beyond any double
+            }
+            if (!anyExponentDigit) {
+                anyDigit = false;
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (anyDigit && exact && i == end) {
+            double value = toDouble(mantissa, exponent);
+            if (!Double.isNaN(value)) {
+                return negative ? -value : value;
+            }
+        }
+        // not decidable here or not plain decimal syntax, e.g. "NaN" or surrounding whitespace
+        return Double.parseDouble(chars.subSequence(start, end).toString());
+    }
+
+    /**
+     * Returns mantissa * 10^exponent correctly rounded, or NaN if that cannot
+     * be decided without the full precision.
+     */
+    private static double toDouble(long mantissa, int exponent) {
+        if (mantissa == 0 || exponent < SMALLEST_POWER_OF_TEN) {
+            return 0;
+        }
+        if (exponent > LARGEST_POWER_OF_TEN) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            // both operands are exact, so the single rounding of the operation is the correct one
+            return exponent >= 0
+                    ? mantissa * EXACT_POWERS_OF_TEN[exponent]
+                    : mantissa / EXACT_POWERS_OF_TEN[-exponent];
+        }
+
+        // Eisel-Lemire: multiply the normalized mantissa by the truncated 128 bit power of five
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        long w = mantissa << leadingZeros;
+        int index = 2 * (exponent - SMALLEST_POWER_OF_TEN);
+        long high = multiplyHigh(w, POWERS_OF_FIVE[index]);
+        long low = w * POWERS_OF_FIVE[index];
+        if ((high & 0x1FF) == 0x1FF) {
+            // the truncated bits may carry into the 55 bits we need, take the next 64 bits into account
+            long secondHigh = multiplyHigh(w, POWERS_OF_FIVE[index + 1]);
+            low += secondHigh;
+            if (Long.compareUnsigned(secondHigh, low) > 0) {
+                high++;
+            }
+        }
+        if (low == -1L && (exponent < -27 || exponent > 55)) {
+            return Double.NaN; // the product might be off by one, too close to call
+        }
+        int upperBit = (int) (high >>> 63);
+        int shift = upperBit + 64 - 52 - 3;
+        long bits = high >>> shift;
+        int power2 = (((152_170 + 65_536) * exponent) >> 16) + 63 + upperBit - leadingZeros + 1023;
+        if (power2 <= 0) {
+            return Double.NaN; // subnormal
+        }
+        if (Long.compareUnsigned(low, 1) <= 0 && exponent >= -4 && exponent <= 23 && (bits & 3) == 1
+                && (bits << shift) == high) {
+            bits &= ~1L; // exactly halfway, round to even
+        }
+        bits += bits & 1;
+        bits >>>= 1;
+        if (bits >= (2L << 52)) {
+            bits = 1L << 52;
+            power2++;
+        }
+        bits &= ~(1L << 52);
+        if (power2 >= 0x7FF) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Double.longBitsToDouble(bits | (long) power2 << 52);
+    }
+
+    private static long multiplyHigh(long a, long b) {
+        // the unsigned high word from the signed one
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean equals(CharSequence chars, int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (chars.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] powersOfFive() {
+        long[] table = new long[2 * (LARGEST_POWER_OF_TEN - SMALLEST_POWER_OF_TEN + 1)];
+        BigInteger limit = BigInteger.ONE.shiftLeft(128);
+        for (int q = SMALLEST_POWER_OF_TEN; q <= LARGEST_POWER_OF_TEN; q++) {
+            BigInteger power;
+            if (q < 0) {
+                // the reciprocal, rounded up
+                BigInteger divisor = BigInteger.valueOf(5).pow(-q);
+                int bits = divisor.bitLength();
+                int scale = q >= -27 ? bits + 127 : 2 * bits + 128;
+                power = BigInteger.ONE.shiftLeft(scale).divide(divisor).add(BigInteger.ONE);
+                while (power.compareTo(limit) >= 0) {
+                    power = power.shiftRight(1);
+                }
+            } else {
+                power = BigInteger.valueOf(5).pow(q);
+                int bits = power.bitLength();
+                power = bits < 128 ? power.shiftLeft(128 - bits) : power.shiftRight(bits - 128);
+            }
+            int index = 2 * (q - SMALLEST_POWER_OF_TEN);
+            table[index] = power.shiftRight(64).longValue();
+            table[index + 1] = power.longValue();
+        }
+        return table;
+    }
+}
@@ -0,0 +1,363 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Stores all measurements of a single record type for one patient on the heap.
+ * Older measurements are kept in sealed {@link CompressedChunk}s, which take
+ * one to two bytes per sample for regular vitals instead of sixteen. The
+ * newest measurements are kept in an uncompressed open chunk of one
+ * {@code long[]} timestamp column and one {@code double[]} value column, so
+ * appending stays cheap and creates no garbage; once the open chunk holds
+ * {@value #CHUNK_SIZE} measurements it is sealed.
+ * All measurements are ordered by timestamp across chunks, so range queries
+ * only decode the chunks overlapping the range.
+ * When a {@link RetentionPolicy} is applied, raw samples past the raw window
+ * are rolled into a per-minute tier and later into a per-hour tier.
+ */
+final class RecordSeries implements TimeSeries {
+    static final int CHUNK_SIZE = 256;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_CHUNKS = 4;
+
+    private final int recordTypeCode;
+    private CompressedChunk[] chunks;
+    private int chunkCount;
+    private long[] openTimestamps;
+    private double[] openValues;
+    private int openSize;
+    private int size;
+    private final SampleBuffer scratch; // decodes chunks while rewriting them
+    private RollupTier minuteTier; // created on the first roll up
+    private RollupTier hourTier; // created on the first roll up
+    private long rolledUpThrough = Long.MIN_VALUE; // the newest timestamp moved out of the raw history
+
+    /**
+     * Constructs an empty series for the given record type.
+     *
+     * @param recordTypeCode the {@link RecordTypeRegistry} code of the records
+     *                       stored in this series
+     */
+    RecordSeries(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        this.chunks = new CompressedChunk[INITIAL_CHUNKS];
+        this.openTimestamps = new long[INITIAL_CAPACITY];
+        this.openValues = new double[INITIAL_CAPACITY];
+        this.scratch = new SampleBuffer(recordTypeCode);
+    }
+
+    @Override
+    public int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a measurement to the series, keeping it ordered by timestamp.
+     * In-order arrivals are appended to the open chunk in amortized constant
+     * time. An out-of-order arrival is inserted after all measurements with
+     * the same or an earlier timestamp; if it belongs to a sealed chunk, that
+     * chunk is decoded and sealed again.
+     *
+     * @param timestamp the time of the measurement, in milliseconds since epoch
+     * @param value     the measured value
+     */
+    @Override
+    public void append(long timestamp, double value) {
+        size++;
+        boolean belongsToOpenChunk = chunkCount == 0
+                || (openSize > 0 ? timestamp >= openTimestamps[0]
+                        : timestamp >= chunks[chunkCount - 1].getLastTimestamp());
+        if (!belongsToOpenChunk) {
+            insertIntoChunk(timestamp, value);
+            return;
+        }
+
+        if (openSize == openTimestamps.length) {
+            int newCapacity = Math.min(openSize * 2, CHUNK_SIZE);
+            openTimestamps = Arrays.copyOf(openTimestamps, newCapacity);
+            openValues = Arrays.copyOf(openValues, newCapacity);
+        }
+        int index = openSize;
+        if (openSize > 0 && openTimestamps[openSize - 1] > timestamp) {
+            index = TimeColumns.upperBound(openTimestamps, openSize, timestamp);
+            System.arraycopy(openTimestamps, index, openTimestamps, index + 1, openSize - index);
+            System.arraycopy(openValues, index, openValues, index + 1, openSize - index);
+        }
+        openTimestamps[index] = timestamp;
+        openValues[index] = value;
+        openSize++;
+
+        if (openSize == CHUNK_SIZE) {
+            addChunk(CompressedChunk.seal(openTimestamps, openValues, 0, openSize));
+            openSize = 0;
+        }
+    }
+
+    private void insertIntoChunk(long timestamp, double value) {
+        // the last chunk starting at or before the timestamp, or the first chunk
+        int low = 0;
+        int high = chunkCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].getFirstTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int target = Math.max(low - 1, 0);
+
+        scratch.reset(recordTypeCode);
+        chunks[target].decodeAll(scratch);
+        scratch.insert(timestamp, value);
+        if (scratch.size() <= 2 * CHUNK_SIZE) {
+            chunks[target] = CompressedChunk.seal(scratch.timestamps(), scratch.values(), 0, scratch.size());
+        } else {
+            // split an overgrown chunk so rewriting a chunk stays cheap
+            int half = scratch.size() / 2;
+            addChunk(null);
+            System.arraycopy(chunks, target + 1, chunks, target + 2, chunkCount - target - 2);
+            chunks[target] = CompressedChunk.seal(scratch.timestamps(), scratch.values(), 0, half);
+            chunks[target + 1] = CompressedChunk.seal(scratch.timestamps(), scratch.values(), half,
+                    scratch.size() - half);
+        }
+    }
+
+    private void addChunk(CompressedChunk chunk) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        chunks[chunkCount++] = chunk;
+    }
+
+    /**
+     * Adds the measurements within {@code [startTime, endTime]} to a buffer.
+     * Sealed chunks ending before the range or starting after it are skipped
+     * by their header and never decoded.
+     */
+    @Override
+    public void readRange(long startTime, long endTime, SampleBuffer out) {
+        int first = firstChunkEndingFrom(startTime);
+        for (int i = first; i < chunkCount && chunks[i].getFirstTimestamp() <= endTime; i++) {
+            chunks[i].decode(startTime, endTime, out);
+        }
+        readOpen(startTime, endTime, out);
+    }
+
+    /**
+     * Captures the sealed chunks overlapping the range by reference, they are
+     * never modified, and copies the samples of the open chunk.
+     */
+    @Override
+    public void capture(long startTime, long endTime, SeriesSnapshot into) {
+        int first = firstChunkEndingFrom(startTime);
+        for (int i = first; i < chunkCount && chunks[i].getFirstTimestamp() <= endTime; i++) {
+            into.addChunk(chunks[i]);
+        }
+        readOpen(startTime, endTime, into.samples());
+    }
+
+    /**
+     * Adds the matching measurements of a range like the default method, but
+     * consults the value summary of every sealed chunk first and skips the
+     * chunks without a possible match undecoded.
+     */
+    @Override
+    public void readBetween(long startTime, long endTime, double minValue, double maxValue, SampleBuffer out) {
+        int first = firstChunkEndingFrom(startTime);
+        for (int i = first; i < chunkCount && chunks[i].getFirstTimestamp() <= endTime; i++) {
+            if (chunks[i].mayContain(minValue, maxValue)) {
+                int from = out.size();
+                chunks[i].decode(startTime, endTime, out);
+                out.keepBetween(from, minValue, maxValue);
+            } else {
+                out.addGap(Math.max(startTime, chunks[i].getFirstTimestamp()));
+            }
+        }
+        int from = out.size();
+        readOpen(startTime, endTime, out);
+        out.keepBetween(from, minValue, maxValue);
+    }
+
+    /**
+     * Returns the index of the first chunk ending at or after the given time.
+     */
+    private int firstChunkEndingFrom(long startTime) {
+        int low = 0;
+        int high = chunkCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].getLastTimestamp() < startTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void readOpen(long startTime, long endTime, SampleBuffer out) {
+        int end = TimeColumns.upperBound(openTimestamps, openSize, endTime);
+        for (int i = TimeColumns.lowerBound(openTimestamps, openSize, startTime); i < end; i++) {
+            out.add(openTimestamps[i], openValues[i]);
+        }
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long bytes = (long) chunks.length * 4 + (long) openTimestamps.length * (Long.BYTES + Double.BYTES);
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long firstTimestamp() {
+        long first = openSize > 0 ? openTimestamps[0] : Long.MAX_VALUE;
+        return chunkCount > 0 ? Math.min(chunks[0].getFirstTimestamp(), first) : first;
+    }
+
+    /**
+     * Returns the newest rolled up timestamp. Buckets restored from a
+     * snapshot count as rolled up up to their end, but never up to the raw
+     * measurements they share a bucket with.
+     */
+    @Override
+    public long rolledUpThrough() {
+        long first = firstTimestamp();
+        return first == Long.MAX_VALUE ? rolledUpThrough : Math.min(rolledUpThrough, first - 1);
+    }
+
+    @Override
+    public boolean rollUpBefore(long cutoff, int maxEntries) {
+        return rollUpRaw(cutoff, maxEntries);
+    }
+
+    @Override
+    public RollupTier getMinuteTier() {
+        return minuteTier;
+    }
+
+    @Override
+    public RollupTier getHourTier() {
+        return hourTier;
+    }
+
+    @Override
+    public void restoreRollup(long bucketMillis, long bucketStart, double min, double max, double sum, long count) {
+        rolledUpThrough = Math.max(rolledUpThrough, bucketStart + bucketMillis - 1);
+        if (bucketMillis == RollupTier.MINUTE_MILLIS) {
+            if (minuteTier == null) {
+                minuteTier = new RollupTier(recordTypeCode, RollupTier.MINUTE_MILLIS);
+            }
+            minuteTier.merge(bucketStart, min, max, sum, count);
+        } else {
+            if (hourTier == null) {
+                hourTier = new RollupTier(recordTypeCode, RollupTier.HOUR_MILLIS);
+            }
+            hourTier.merge(bucketStart, min, max, sum, count);
+        }
+    }
+
+    /**
+     * Moves data that has aged out of its window one tier down: raw samples
+     * into the minute tier, minute buckets into the hour tier, and drops hour
+     * buckets past the final horizon. At most {@code maxEntries} entries are
+     * moved per tier, rounded up to a whole chunk of raw samples, so a caller
+     * holding a lock can bound the time it is held.
+     *
+     * @param policy     the retention windows to apply
+     * @param now        the current time, in milliseconds since epoch
+     * @param maxEntries the maximum number of entries to move per tier
+     * @return {@code true} if aged data is left over for another call
+     */
+    @Override
+    public boolean applyRetention(RetentionPolicy policy, long now, int maxEntries) {
+        boolean remaining = rollUpRaw(now - policy.getRawRetentionMillis(), maxEntries);
+
+        if (minuteTier != null) {
+            int agedBuckets = minuteTier.countEndedBefore(now - policy.getMinuteRetentionMillis());
+            if (agedBuckets > 0) {
+                if (hourTier == null) {
+                    hourTier = new RollupTier(recordTypeCode, RollupTier.HOUR_MILLIS);
+                }
+                int count = Math.min(agedBuckets, maxEntries);
+                minuteTier.rollInto(hourTier, count);
+                minuteTier.removeFirst(count);
+                remaining |= agedBuckets > count;
+            }
+        }
+
+        if (hourTier != null) {
+            int expiredBuckets = hourTier.countEndedBefore(now - policy.getHourRetentionMillis());
+            if (expiredBuckets > 0) {
+                hourTier.removeFirst(expiredBuckets);
+            }
+        }
+        return remaining;
+    }
+
+    private boolean rollUpRaw(long cutoff, int maxEntries) {
+        int moved = 0;
+        while (chunkCount > 0 && chunks[0].getFirstTimestamp() < cutoff) {
+            if (moved >= maxEntries) {
+                return true;
+            }
+            scratch.reset(recordTypeCode);
+            chunks[0].decodeAll(scratch);
+            int aged = scratch.lowerBound(cutoff);
+            rollUp(scratch.timestamps(), scratch.values(), aged);
+            moved += aged;
+            if (aged < scratch.size()) {
+                chunks[0] = CompressedChunk.seal(scratch.timestamps(), scratch.values(), aged,
+                        scratch.size() - aged);
+                return false;
+            }
+            removeFirstChunk();
+        }
+        if (chunkCount > 0) {
+            return false;
+        }
+
+        int aged = TimeColumns.lowerBound(openTimestamps, openSize, cutoff);
+        int count = Math.min(aged, Math.max(maxEntries - moved, 0));
+        if (count > 0) {
+            rollUp(openTimestamps, openValues, count);
+            openSize -= count;
+            System.arraycopy(openTimestamps, count, openTimestamps, 0, openSize);
+            System.arraycopy(openValues, count, openValues, 0, openSize);
+        }
+        return aged > count;
+    }
+
+    private void rollUp(long[] timestamps, double[] values, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (minuteTier == null) {
+            minuteTier = new RollupTier(recordTypeCode, RollupTier.MINUTE_MILLIS);
+        }
+        for (int i = 0; i < count; i++) {
+            minuteTier.add(timestamps[i], values[i]);
+        }
+        rolledUpThrough = Math.max(rolledUpThrough, timestamps[count - 1]);
+        size -= count;
+    }
+
+    private void removeFirstChunk() {
+        chunkCount--;
+        System.arraycopy(chunks, 1, chunks, 0, chunkCount);
+        chunks[chunkCount] = null;
+        // give back the memory of a history that has mostly been rolled up
+        if (chunks.length > INITIAL_CHUNKS && chunkCount < chunks.length / 4) {
+            chunks = Arrays.copyOf(chunks, Math.max(INITIAL_CHUNKS, chunks.length / 2));
+        }
+    }
+}
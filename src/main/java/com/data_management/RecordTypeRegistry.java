@@ -0,0 +1,162 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps record type labels (e.g. "ECG", "Saturation") to small integer codes.
+ * Labels are translated once at ingest time, so stored records carry an int
+ * instead of a String and alert checks can compare codes instead of calling
+ * {@link String#equals} on every record.
+ * The record types produced by the simulator have fixed codes, any other
+ * label is registered dynamically the first time it is seen. Labels must not
+ * be blank, and at most {@value #MAX_TYPES} types are registered, so
+ * malformed input cannot grow the registry without bound. Queries use
+ * {@link #lookup}, which never registers.
+ */
+public final class RecordTypeRegistry {
+
+    public static final int ECG = 0;
+    public static final int SATURATION = 1;
+    public static final int SYSTOLIC_PRESSURE = 2;
+    public static final int DIASTOLIC_PRESSURE = 3;
+    public static final int BLOOD_SATURATION = 4;
+    public static final int CHOLESTEROL = 5;
+    public static final int WHITE_BLOOD_CELLS = 6;
+    public static final int RED_BLOOD_CELLS = 7;
+    public static final int ALERT = 8;
+    /**
+     * Returned by {@link #lookup} for a label that is not registered. It is
+     * above every registered code, so no series or table entry exists for it.
+     */
+    public static final int UNKNOWN = Integer.MAX_VALUE;
+    public static final int MAX_TYPES = 1024;
+
+    private static final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private static volatile String[] labels = new String[0]; // indexed by code, replaced on registration
+
+    static {
+        register("ECG");
+        register("Saturation");
+        register("SystolicPressure");
+        register("DiastolicPressure");
+        register("BloodSaturation");
+        register("Cholesterol");
+        register("WhiteBloodCells");
+        register("RedBloodCells");
+        register("Alert");
+    }
+
+    private RecordTypeRegistry() {
+    }
+
+    /**
+     * Returns the code of a record type label, registering the label if it has
+     * not been seen before.
+     *
+     * @param label the record type label, e.g. "ECG"
+     * @return the code of the label
+     * @throws IllegalArgumentException if the label is null or blank, or if it
+     *                                  is new and {@value #MAX_TYPES} types are
+     *                                  registered already
+     */
+    public static int codeOf(String label) {
+        if (label == null || label.isBlank()) {
+            throw new IllegalArgumentException("Record type label must not be blank");
+        }
+        Integer code = codes.get(label);
+        return code != null ? code : register(label);
+    }
+
+    /**
+     * Returns the code of a record type label without registering it, for
+     * queries: a label nobody has stored records under has no records.
+     *
+     * @param label the record type label, e.g. "ECG"
+     * @return the code of the label, or {@link #UNKNOWN} if it is not
+     *         registered or null
+     */
+    public static int lookup(String label) {
+        if (label == null) {
+            return UNKNOWN;
+        }
+        Integer code = codes.get(label);
+        return code != null ? code : UNKNOWN;
+    }
+
+    /**
+     * Returns the code of a record type label given as a range of characters,
+     * registering the label if it has not been seen before. Known labels are
+     * found without creating a String, so parsers can translate labels in
+     * place.
+     *
+     * @param chars the characters containing the label
+     * @param start the index of the first character of the label
+     * @param end   the index after the last character of the label
+     * @return the code of the label
+     * @throws IllegalArgumentException as {@link #codeOf(String)}
+     */
+    public static int codeOf(CharSequence chars, int start, int end) {
+        String[] current = labels;
+        int length = end - start;
+        for (int code = 0; code < current.length; code++) {
+            String label = current[code];
+            if (label.length() == length && matches(label, chars, start)) {
+                return code;
+            }
+        }
+        return codeOf(chars.subSequence(start, end).toString());
+    }
+
+    private static boolean matches(String label, CharSequence chars, int start) {
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the label registered for a record type code.
+     *
+     * @param code the record type code
+     * @return the label of the code
+     * @throws IllegalArgumentException if no label is registered for the code
+     */
+    public static String labelOf(int code) {
+        String[] current = labels;
+        if (code < 0 || code >= current.length) {
+            throw new IllegalArgumentException("Unknown record type code: " + code);
+        }
+        return current[code];
+    }
+
+    /**
+     * Returns the number of registered record types. Codes are assigned
+     * consecutively, so every code is smaller than this number.
+     *
+     * @return the number of registered record types
+     */
+    public static int size() {
+        return labels.length;
+    }
+
+    private static synchronized int register(String label) {
+        Integer existing = codes.get(label);
+        if (existing != null) {
+            return existing; // registered by another thread in the meantime
+        }
+        int code = labels.length;
+        if (code == MAX_TYPES) {
+            throw new IllegalArgumentException("Cannot register record type " + label + ", "
+                    + MAX_TYPES + " types are registered already");
+        }
+        String[] updated = Arrays.copyOf(labels, code + 1);
+        updated[code] = label;
+        labels = updated; // publish the label before the code can be looked up
+        codes.put(label, code);
+        return code;
+    }
+}
@@ -0,0 +1,54 @@
+package com.data_management;
+
+import java.util.List;
+
+/**
+ * Receives the records of a patient one at a time as primitives, so a range
+ * can be streamed without materializing a list of {@link PatientRecord}s.
+ * See {@link Patient#forEachRecord} and {@link Patient#forEachRecordDescending}.
+ */
+@FunctionalInterface
+public interface RecordVisitor {
+
+    /**
+     * Visits one record.
+     *
+     * @param timestamp        the time of the measurement, in milliseconds since
+     *                         UNIX epoch
+     * @param recordTypeCode   the {@link RecordTypeRegistry} code of the record type
+     * @param measurementValue the measured value
+     * @return {@code true} to continue with the next record, {@code false} to stop
+     */
+    boolean visit(long timestamp, int recordTypeCode, double measurementValue);
+
+    /**
+     * Feeds a list of records to a visitor in list order, so checks written as
+     * visitors can also be applied to a list.
+     *
+     * @param records the records to visit
+     * @param visitor the visitor
+     */
+    static void visitAll(List<PatientRecord> records, RecordVisitor visitor) {
+        for (int i = 0; i < records.size(); i++) {
+            PatientRecord record = records.get(i);
+            if (!visitor.visit(record.getTimestamp(), record.getRecordTypeCode(), record.getMeasurementValue())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Feeds a list of records to a visitor in reverse list order.
+     *
+     * @param records the records to visit
+     * @param visitor the visitor
+     */
+    static void visitAllDescending(List<PatientRecord> records, RecordVisitor visitor) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            PatientRecord record = records.get(i);
+            if (!visitor.visit(record.getTimestamp(), record.getRecordTypeCode(), record.getMeasurementValue())) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Holds back the newest records of one patient until they can be released in
+ * timestamp order. The watermark trails the highest timestamp seen by the
+ * allowed lateness; records at or below it are released, records arriving
+ * below it are late. The records are kept in a binary min-heap, so ordering
+ * one record costs O(log n) for the n records within the lateness window and
+ * never touches the stored history. Not thread-safe, guarded by the lock of
+ * the patient.
+ */
+final class ReorderBuffer {
+    private final long allowedLatenessMillis;
+    private long watermark = Long.MIN_VALUE;
+    private long arrivals; // breaks ties between equal timestamps in arrival order
+    private long[] timestamps = new long[16];
+    private long[] order = new long[16];
+    private int[] codes = new int[16];
+    private double[] values = new double[16];
+    private int size;
+
+    ReorderBuffer(long allowedLatenessMillis) {
+        this.allowedLatenessMillis = allowedLatenessMillis;
+    }
+
+    long getAllowedLatenessMillis() {
+        return allowedLatenessMillis;
+    }
+
+    /**
+     * Buffers a record and advances the watermark.
+     *
+     * @return {@code false} if the record is late and was not buffered
+     */
+    boolean offer(long timestamp, int recordTypeCode, double measurementValue) {
+        if (timestamp < watermark) {
+            return false;
+        }
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            order = Arrays.copyOf(order, size * 2);
+            codes = Arrays.copyOf(codes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int index = size++;
+        timestamps[index] = timestamp;
+        order[index] = arrivals++;
+        codes[index] = recordTypeCode;
+        values[index] = measurementValue;
+        siftUp(index);
+        // saturate instead of wrapping around for timestamps near Long.MIN_VALUE
+        long candidate = timestamp < Long.MIN_VALUE + allowedLatenessMillis
+                ? Long.MIN_VALUE : timestamp - allowedLatenessMillis;
+        watermark = Math.max(watermark, candidate);
+        return true;
+    }
+
+    /**
+     * Returns whether the oldest buffered record is at or below the watermark.
+     */
+    boolean hasReady() {
+        return size > 0 && timestamps[0] <= watermark;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long oldestTimestamp() {
+        return timestamps[0];
+    }
+
+    int oldestRecordTypeCode() {
+        return codes[0];
+    }
+
+    double oldestValue() {
+        return values[0];
+    }
+
+    /**
+     * Removes the oldest buffered record.
+     */
+    void removeOldest() {
+        size--;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(index, parent)) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && before(child + 1, child)) {
+                child++;
+            }
+            if (!before(child, index)) {
+                return;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        return timestamps[a] < timestamps[b] || (timestamps[a] == timestamps[b] && order[a] < order[b]);
+    }
+
+    private void move(int from, int to) {
+        timestamps[to] = timestamps[from];
+        order[to] = order[from];
+        codes[to] = codes[from];
+        values[to] = values[from];
+    }
+
+    private void swap(int a, int b) {
+        long timestamp = timestamps[a];
+        long arrival = order[a];
+        int code = codes[a];
+        double value = values[a];
+        move(b, a);
+        timestamps[b] = timestamp;
+        order[b] = arrival;
+        codes[b] = code;
+        values[b] = value;
+    }
+}
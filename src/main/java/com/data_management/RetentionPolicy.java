@@ -0,0 +1,58 @@
+package com.data_management;
+
+/**
+ * Describes how long patient histories are kept by {@link DataStorage}.
+ * Raw samples are kept for the raw window. Older data is rolled into
+ * per-minute min/max/avg buckets, which are kept for the minute window, and
+ * then into per-hour buckets, which are kept for the hour window. Data older
+ * than the hour window is evicted. All windows are measured back from the
+ * current time.
+ */
+public class RetentionPolicy {
+    private long rawRetentionMillis;
+    private long minuteRetentionMillis;
+    private long hourRetentionMillis;
+
+    /**
+     * Constructs a retention policy.
+     *
+     * @param rawRetentionMillis    how long raw samples are kept, in milliseconds
+     * @param minuteRetentionMillis how long per-minute buckets are kept, in
+     *                              milliseconds
+     * @param hourRetentionMillis   how long per-hour buckets are kept, in
+     *                              milliseconds
+     * @throws IllegalArgumentException if a window is negative or shorter than
+     *                                  the window before it
+     */
+    public RetentionPolicy(long rawRetentionMillis, long minuteRetentionMillis, long hourRetentionMillis) {
+        if (rawRetentionMillis < 0 || minuteRetentionMillis < rawRetentionMillis
+                || hourRetentionMillis < minuteRetentionMillis) {
+            throw new IllegalArgumentException("Retention windows must be non-negative and increasing");
+        }
+        this.rawRetentionMillis = rawRetentionMillis;
+        this.minuteRetentionMillis = minuteRetentionMillis;
+        this.hourRetentionMillis = hourRetentionMillis;
+    }
+
+    /**
+     * Returns a policy keeping raw samples for one hour, per-minute buckets for
+     * one day and per-hour buckets for 30 days.
+     *
+     * @return the default retention policy
+     */
+    public static RetentionPolicy defaultPolicy() {
+        return new RetentionPolicy(3_600_000L, 86_400_000L, 30 * 86_400_000L);
+    }
+
+    public long getRawRetentionMillis() {
+        return rawRetentionMillis;
+    }
+
+    public long getMinuteRetentionMillis() {
+        return minuteRetentionMillis;
+    }
+
+    public long getHourRetentionMillis() {
+        return hourRetentionMillis;
+    }
+}
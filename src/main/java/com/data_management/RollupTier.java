@@ -0,0 +1,220 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A downsampled view of one record type: the measurements are grouped into
+ * fixed-width time buckets, and only the minimum, maximum, sum and count of
+ * every bucket are kept. Like {@link RecordSeries} the buckets are stored in
+ * columns ordered by their start time. Read as {@link TimeColumns}, every
+ * bucket appears as one entry at its start time holding the bucket average.
+ */
+final class RollupTier implements TimeColumns {
+    static final long MINUTE_MILLIS = 60_000L;
+    static final long TEN_MINUTE_MILLIS = 600_000L;
+    static final long HOUR_MILLIS = 3_600_000L;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final int recordTypeCode;
+    private final long bucketMillis;
+    private long[] bucketStarts;
+    private double[] minimums;
+    private double[] maximums;
+    private double[] sums;
+    private long[] counts;
+    private int size;
+
+    /**
+     * Constructs an empty tier.
+     *
+     * @param recordTypeCode the {@link RecordTypeRegistry} code of the
+     *                       aggregated records
+     * @param bucketMillis   the width of a bucket, in milliseconds
+     */
+    RollupTier(int recordTypeCode, long bucketMillis) {
+        this.recordTypeCode = recordTypeCode;
+        this.bucketMillis = bucketMillis;
+        this.bucketStarts = new long[INITIAL_CAPACITY];
+        this.minimums = new double[INITIAL_CAPACITY];
+        this.maximums = new double[INITIAL_CAPACITY];
+        this.sums = new double[INITIAL_CAPACITY];
+        this.counts = new long[INITIAL_CAPACITY];
+    }
+
+    long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    @Override
+    public int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return bucketStarts[index];
+    }
+
+    /**
+     * Returns the average of the bucket at the given index.
+     */
+    @Override
+    public double valueAt(int index) {
+        return sums[index] / counts[index];
+    }
+
+    double minAt(int index) {
+        return minimums[index];
+    }
+
+    double maxAt(int index) {
+        return maximums[index];
+    }
+
+    double sumAt(int index) {
+        return sums[index];
+    }
+
+    long countAt(int index) {
+        return counts[index];
+    }
+
+    @Override
+    public int lowerBound(long timestamp) {
+        return TimeColumns.lowerBound(bucketStarts, size, timestamp);
+    }
+
+    @Override
+    public int upperBound(long timestamp) {
+        return TimeColumns.upperBound(bucketStarts, size, timestamp);
+    }
+
+    /**
+     * Returns the start of the bucket containing the given time.
+     *
+     * @param timestamp a time in milliseconds since epoch
+     * @return the start of its bucket
+     */
+    long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+    }
+
+    /**
+     * Adds a single measurement to the bucket containing its timestamp.
+     *
+     * @param timestamp the time of the measurement
+     * @param value     the measured value
+     */
+    void add(long timestamp, double value) {
+        merge(bucketStart(timestamp), value, value, value, 1);
+    }
+
+    /**
+     * Merges a partial aggregate into the bucket starting at
+     * {@code bucketStart}, creating the bucket if it does not exist yet.
+     *
+     * @param bucketStart the start of the bucket, aligned to this tier's width
+     * @param min         the minimum of the merged measurements
+     * @param max         the maximum of the merged measurements
+     * @param sum         the sum of the merged measurements
+     * @param count       the number of merged measurements
+     */
+    void merge(long bucketStart, double min, double max, double sum, long count) {
+        int index = size;
+        if (size > 0 && bucketStarts[size - 1] == bucketStart) {
+            index = size - 1; // the common case of adding to the newest bucket
+        } else if (size > 0 && bucketStarts[size - 1] > bucketStart) {
+            index = lowerBound(bucketStart);
+        }
+        if (index < size && bucketStarts[index] == bucketStart) {
+            minimums[index] = Math.min(minimums[index], min);
+            maximums[index] = Math.max(maximums[index], max);
+            sums[index] += sum;
+            counts[index] += count;
+            return;
+        }
+
+        if (size == bucketStarts.length) {
+            grow();
+        }
+        if (index < size) {
+            int moved = size - index;
+            System.arraycopy(bucketStarts, index, bucketStarts, index + 1, moved);
+            System.arraycopy(minimums, index, minimums, index + 1, moved);
+            System.arraycopy(maximums, index, maximums, index + 1, moved);
+            System.arraycopy(sums, index, sums, index + 1, moved);
+            System.arraycopy(counts, index, counts, index + 1, moved);
+        }
+        bucketStarts[index] = bucketStart;
+        minimums[index] = min;
+        maximums[index] = max;
+        sums[index] = sum;
+        counts[index] = count;
+        size++;
+    }
+
+    /**
+     * Returns how many buckets lie completely before the given time.
+     *
+     * @param cutoff the time the buckets must have ended by
+     * @return the number of leading buckets ending at or before {@code cutoff}
+     */
+    int countEndedBefore(long cutoff) {
+        return upperBound(cutoff - bucketMillis);
+    }
+
+    /**
+     * Merges the first {@code count} buckets into a coarser tier.
+     *
+     * @param coarser the tier to merge into
+     * @param count   the number of leading buckets to merge
+     */
+    void rollInto(RollupTier coarser, int count) {
+        for (int i = 0; i < count; i++) {
+            coarser.merge(coarser.bucketStart(bucketStarts[i]), minimums[i], maximums[i], sums[i], counts[i]);
+        }
+    }
+
+    /**
+     * Removes the first {@code count} buckets.
+     *
+     * @param count the number of leading buckets to remove
+     */
+    void removeFirst(int count) {
+        size -= count;
+        System.arraycopy(bucketStarts, count, bucketStarts, 0, size);
+        System.arraycopy(minimums, count, minimums, 0, size);
+        System.arraycopy(maximums, count, maximums, 0, size);
+        System.arraycopy(sums, count, sums, 0, size);
+        System.arraycopy(counts, count, counts, 0, size);
+        if (size < bucketStarts.length / 4 && bucketStarts.length > INITIAL_CAPACITY) {
+            // give the memory of evicted buckets back
+            resize(Math.max(INITIAL_CAPACITY, size * 2));
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the buckets.
+     */
+    long sizeInBytes() {
+        return (long) bucketStarts.length * (2 * Long.BYTES + 3 * Double.BYTES);
+    }
+
+    private void grow() {
+        resize(bucketStarts.length * 2);
+    }
+
+    private void resize(int newCapacity) {
+        bucketStarts = Arrays.copyOf(bucketStarts, newCapacity);
+        minimums = Arrays.copyOf(minimums, newCapacity);
+        maximums = Arrays.copyOf(maximums, newCapacity);
+        sums = Arrays.copyOf(sums, newCapacity);
+        counts = Arrays.copyOf(counts, newCapacity);
+    }
+}
@@ -0,0 +1,139 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A growable pair of timestamp and value columns that a {@link TimeSeries}
+ * decodes a range of measurements into. Read as {@link TimeColumns} it can
+ * be merged with the rollup tiers like any other source.
+ */
+final class SampleBuffer implements TimeColumns {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int recordTypeCode;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    SampleBuffer(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        this.timestamps = new long[INITIAL_CAPACITY];
+        this.values = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Empties the buffer so it can be reused for another series.
+     *
+     * @param recordTypeCode the record type of the measurements added next
+     */
+    void reset(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        this.size = 0;
+    }
+
+    void add(long timestamp, double value) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Inserts a measurement after all measurements with the same or an
+     * earlier timestamp.
+     */
+    void insert(long timestamp, double value) {
+        int index = upperBound(timestamp);
+        add(timestamp, value);
+        System.arraycopy(timestamps, index, timestamps, index + 1, size - 1 - index);
+        System.arraycopy(values, index, values, index + 1, size - 1 - index);
+        timestamps[index] = timestamp;
+        values[index] = value;
+    }
+
+    /**
+     * Keeps the entries from index {@code from} on whose value lies within
+     * {@code [low, high]} and replaces every run of dropped entries by a gap
+     * marker, see {@link #addGap}.
+     */
+    void keepBetween(int from, double low, double high) {
+        int kept = from;
+        for (int i = from; i < size; i++) {
+            if (values[i] >= low && values[i] <= high) {
+                timestamps[kept] = timestamps[i];
+                values[kept] = values[i];
+                kept++;
+            } else if (kept > 0 && !Double.isNaN(values[kept - 1])) {
+                timestamps[kept] = timestamps[i];
+                values[kept] = Double.NaN;
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Adds a gap marker, an entry with a {@code NaN} value standing for
+     * measurements left out by a value query, unless the buffer is empty or
+     * already ends with one. A {@code NaN} measurement never lies within value
+     * bounds, so markers cannot be mistaken for matches.
+     */
+    void addGap(long timestamp) {
+        if (size > 0 && !Double.isNaN(values[size - 1])) {
+            add(timestamp, Double.NaN);
+        }
+    }
+
+    int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Returns the backing timestamp column; entries up to {@link #size()} are
+     * valid.
+     */
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Returns the backing value column; entries up to {@link #size()} are
+     * valid.
+     */
+    double[] values() {
+        return values;
+    }
+
+    @Override
+    public int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    @Override
+    public double valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int lowerBound(long timestamp) {
+        return TimeColumns.lowerBound(timestamps, size, timestamp);
+    }
+
+    @Override
+    public int upperBound(long timestamp) {
+        return TimeColumns.upperBound(timestamps, size, timestamp);
+    }
+}
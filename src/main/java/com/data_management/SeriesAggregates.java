@@ -0,0 +1,197 @@
+package com.data_management;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Per-minute, per-ten-minute and per-hour {@link RollupTier}s of one record
+ * type for one patient, updated with every measurement as it is added. An
+ * aggregate over a range is answered by covering the range with as few
+ * buckets as possible: the coarsest buckets in the middle and finer buckets
+ * at the edges, so its cost depends on the number of buckets rather than on
+ * the number of raw samples.
+ * Unlike the tiers of {@link RecordSeries}, which only receive samples once
+ * they leave the raw window, these buckets also cover the newest data.
+ */
+final class SeriesAggregates {
+    private static final long[] WIDTHS = {
+            RollupTier.MINUTE_MILLIS, RollupTier.TEN_MINUTE_MILLIS, RollupTier.HOUR_MILLIS};
+    private static final long MAX_TIME = Long.MAX_VALUE / 2; // keeps bucket arithmetic from overflowing
+
+    private final RollupTier[] tiers;
+    private long fineHorizon = Long.MIN_VALUE; // minute and ten-minute buckets before it were evicted
+
+    SeriesAggregates(int recordTypeCode) {
+        this.tiers = new RollupTier[WIDTHS.length];
+        for (int i = 0; i < WIDTHS.length; i++) {
+            tiers[i] = new RollupTier(recordTypeCode, WIDTHS[i]);
+        }
+    }
+
+    /**
+     * Adds a measurement to the bucket containing it in every tier.
+     */
+    void add(long timestamp, double value) {
+        for (RollupTier tier : tiers) {
+            tier.add(timestamp, value);
+        }
+    }
+
+    /**
+     * Aggregates the buckets overlapping {@code [startTime, endTime]}, so the
+     * range is widened to whole minutes. If it reaches back past the minute
+     * and ten-minute buckets evicted by retention, it is widened to whole
+     * hours.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @return the aggregate of the covered buckets
+     */
+    Aggregate aggregate(long startTime, long endTime) {
+        if (startTime > endTime) {
+            return Aggregate.EMPTY;
+        }
+        long low = floor(Math.max(startTime, -MAX_TIME), RollupTier.MINUTE_MILLIS);
+        long high = floor(Math.min(endTime, MAX_TIME), RollupTier.MINUTE_MILLIS) + RollupTier.MINUTE_MILLIS;
+        if (low < fineHorizon) {
+            low = floor(low, RollupTier.HOUR_MILLIS);
+            if (high < ceil(fineHorizon, RollupTier.HOUR_MILLIS)) {
+                high = ceil(high, RollupTier.HOUR_MILLIS);
+            }
+        }
+
+        Fold fold = new Fold();
+        cover(fold, low, high, 0);
+        return fold.count == 0 ? Aggregate.EMPTY : new Aggregate(fold.min, fold.max, fold.sum, fold.count);
+    }
+
+    /**
+     * Folds the buckets of {@code [low, high)}, both aligned to the tier at
+     * {@code level}, into {@code fold}: the part aligned to the next coarser
+     * tier is delegated to it, the rest is read from this tier.
+     */
+    private void cover(Fold fold, long low, long high, int level) {
+        if (low >= high) {
+            return;
+        }
+        if (level + 1 < tiers.length) {
+            long from = ceil(low, WIDTHS[level + 1]);
+            long to = floor(high, WIDTHS[level + 1]);
+            if (from < to) {
+                fold.add(tiers[level], low, from);
+                cover(fold, from, to, level + 1);
+                fold.add(tiers[level], to, high);
+                return;
+            }
+        }
+        fold.add(tiers[level], low, high);
+    }
+
+    /**
+     * Drops minute and ten-minute buckets past the minute window of the
+     * policy and hour buckets past its final horizon.
+     *
+     * @param policy the retention windows to apply
+     * @param now    the current time, in milliseconds since epoch
+     */
+    void applyRetention(RetentionPolicy policy, long now) {
+        // a ten-minute bucket has ended before the cutoff iff it starts before this boundary
+        long horizon = floor(now - policy.getMinuteRetentionMillis(), RollupTier.TEN_MINUTE_MILLIS);
+        for (int i = 0; i < 2; i++) {
+            int expired = tiers[i].lowerBound(horizon);
+            if (expired > 0) {
+                tiers[i].removeFirst(expired);
+            }
+        }
+        fineHorizon = Math.max(fineHorizon, horizon);
+
+        RollupTier hours = tiers[2];
+        int expired = hours.countEndedBefore(now - policy.getHourRetentionMillis());
+        if (expired > 0) {
+            hours.removeFirst(expired);
+        }
+    }
+
+    /**
+     * Returns the start of the oldest hour bucket, which covers the oldest
+     * measurement still aggregated.
+     *
+     * @return the oldest bucket start, or {@link Long#MAX_VALUE} if there are
+     *         no buckets
+     */
+    long firstTimestamp() {
+        RollupTier hours = tiers[2];
+        return hours.size() > 0 ? hours.timestampAt(0) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the buckets of all
+     * tiers.
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (RollupTier tier : tiers) {
+            bytes += tier.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes all buckets in the snapshot format read by {@link #readFrom}.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(fineHorizon);
+        for (RollupTier tier : tiers) {
+            out.writeInt(tier.size());
+            for (int i = 0; i < tier.size(); i++) {
+                out.writeLong(tier.timestampAt(i));
+                out.writeDouble(tier.minAt(i));
+                out.writeDouble(tier.maxAt(i));
+                out.writeDouble(tier.sumAt(i));
+                out.writeLong(tier.countAt(i));
+            }
+        }
+    }
+
+    /**
+     * Restores the buckets written by {@link #writeTo}.
+     */
+    void readFrom(DataInputStream in) throws IOException {
+        fineHorizon = in.readLong();
+        for (RollupTier tier : tiers) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                tier.merge(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
+            }
+        }
+    }
+
+    private static long floor(long time, long width) {
+        return Math.floorDiv(time, width) * width;
+    }
+
+    private static long ceil(long time, long width) {
+        return -Math.floorDiv(-time, width) * width;
+    }
+
+    /**
+     * Accumulates the buckets of a query.
+     */
+    private static final class Fold {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum;
+        long count;
+
+        void add(RollupTier tier, long from, long to) {
+            int end = tier.lowerBound(to);
+            for (int i = tier.lowerBound(from); i < end; i++) {
+                min = Math.min(min, tier.minAt(i));
+                max = Math.max(max, tier.maxAt(i));
+                sum += tier.sumAt(i);
+                count += tier.countAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * The part of one {@link TimeSeries} within a time range, frozen at the time
+ * it was captured. Sealed {@link CompressedChunk}s are immutable, so only
+ * references to them are kept and they are decoded lazily; the samples of
+ * the open chunk and the rolled up buckets, which change as data is added,
+ * are copied. Writers therefore never wait for a reader of the snapshot, and
+ * once captured a snapshot can be read by several threads at once.
+ * Instances are reused: {@link #reset} empties one for the next capture.
+ */
+final class SeriesSnapshot {
+    private int recordTypeCode;
+    private CompressedChunk[] chunks = new CompressedChunk[4];
+    private int chunkCount;
+    private final SampleBuffer samples; // raw samples newer than the chunks, or all raw samples if there are none
+    private final SampleBuffer minuteBuckets;
+    private final SampleBuffer hourBuckets;
+
+    SeriesSnapshot(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        this.samples = new SampleBuffer(recordTypeCode);
+        this.minuteBuckets = new SampleBuffer(recordTypeCode);
+        this.hourBuckets = new SampleBuffer(recordTypeCode);
+    }
+
+    /**
+     * Empties the snapshot for the next capture and lets go of the chunks of
+     * the previous one.
+     */
+    void reset(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        Arrays.fill(chunks, 0, chunkCount, null);
+        chunkCount = 0;
+        samples.reset(recordTypeCode);
+        minuteBuckets.reset(recordTypeCode);
+        hourBuckets.reset(recordTypeCode);
+    }
+
+    int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    /**
+     * Adds a sealed chunk; chunks must be added oldest first and before any
+     * of the {@link #samples()}.
+     */
+    void addChunk(CompressedChunk chunk) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        chunks[chunkCount++] = chunk;
+    }
+
+    /**
+     * Returns the buffer receiving the copied raw samples.
+     */
+    SampleBuffer samples() {
+        return samples;
+    }
+
+    SampleBuffer minuteBuckets() {
+        return minuteBuckets;
+    }
+
+    SampleBuffer hourBuckets() {
+        return hourBuckets;
+    }
+
+    /**
+     * Copies the buckets of a tier starting within {@code [startTime, endTime]},
+     * each as its start time and average.
+     */
+    static void copyBuckets(RollupTier tier, long startTime, long endTime, SampleBuffer out) {
+        if (tier == null) {
+            return;
+        }
+        int end = tier.upperBound(endTime);
+        for (int i = tier.lowerBound(startTime); i < end; i++) {
+            out.add(tier.timestampAt(i), tier.valueAt(i));
+        }
+    }
+
+    /**
+     * Adds the captured raw measurements within {@code [startTime, endTime]}
+     * to a buffer, ordered by timestamp, like {@link TimeSeries#readRange}.
+     */
+    void readRange(long startTime, long endTime, SampleBuffer out) {
+        for (int i = 0; i < chunkCount; i++) {
+            CompressedChunk chunk = chunks[i];
+            if (chunk.getFirstTimestamp() > endTime) {
+                break;
+            }
+            if (chunk.getLastTimestamp() >= startTime) {
+                chunk.decode(startTime, endTime, out);
+            }
+        }
+        int end = samples.upperBound(endTime);
+        for (int i = samples.lowerBound(startTime); i < end; i++) {
+            out.add(samples.timestampAt(i), samples.valueAt(i));
+        }
+    }
+}
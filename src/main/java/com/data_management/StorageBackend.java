@@ -0,0 +1,101 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Selects where {@link DataStorage} keeps patient histories.
+ * The heap backend keeps every series in growable primitive arrays. The
+ * memory-mapped backend writes every series into fixed-size segment files
+ * mapped with {@link java.nio.channels.FileChannel#map}, so the history can
+ * grow far beyond the heap while heap usage stays roughly flat.
+ * Both backends serve the same {@code getRecords} contract.
+ */
+public final class StorageBackend {
+    public static final int DEFAULT_ENTRIES_PER_SEGMENT = 65_536; // 1 MiB per segment file
+
+    private static final StorageBackend HEAP = new StorageBackend(null, 0);
+
+    private final Path directory; // null for the heap backend
+    private final int entriesPerSegment;
+
+    private StorageBackend(Path directory, int entriesPerSegment) {
+        this.directory = directory;
+        this.entriesPerSegment = entriesPerSegment;
+    }
+
+    /**
+     * Returns the backend keeping all histories on the heap.
+     *
+     * @return the heap backend
+     */
+    public static StorageBackend heap() {
+        return HEAP;
+    }
+
+    /**
+     * Returns a backend keeping all histories in memory-mapped segment files
+     * of {@value #DEFAULT_ENTRIES_PER_SEGMENT} measurements each.
+     *
+     * @param directory the directory the segment files are created in
+     * @return the memory-mapped backend
+     */
+    public static StorageBackend memoryMapped(Path directory) {
+        return memoryMapped(directory, DEFAULT_ENTRIES_PER_SEGMENT);
+    }
+
+    /**
+     * Returns a backend keeping all histories in memory-mapped segment files.
+     *
+     * @param directory         the directory the segment files are created in
+     * @param entriesPerSegment the number of measurements per segment file
+     * @return the memory-mapped backend
+     * @throws IllegalArgumentException if {@code entriesPerSegment} is not positive
+     */
+    public static StorageBackend memoryMapped(Path directory, int entriesPerSegment) {
+        if (entriesPerSegment <= 0) {
+            throw new IllegalArgumentException("Segments must hold at least one entry");
+        }
+        return new StorageBackend(Objects.requireNonNull(directory), entriesPerSegment);
+    }
+
+    public boolean isMemoryMapped() {
+        return directory != null;
+    }
+
+    /**
+     * Creates an empty series for one record type of one patient.
+     *
+     * @param patientId      the patient the series belongs to
+     * @param recordTypeCode the {@link RecordTypeRegistry} code of the records
+     * @return the new series
+     */
+    TimeSeries createSeries(int patientId, int recordTypeCode) {
+        if (directory == null) {
+            return new RecordSeries(recordTypeCode);
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create segment directory " + directory, e);
+        }
+        return new MappedRecordSeries(directory, patientId, recordTypeCode, entriesPerSegment);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof StorageBackend)) {
+            return false;
+        }
+        StorageBackend backend = (StorageBackend) other;
+        return Objects.equals(directory, backend.directory) && entriesPerSegment == backend.entriesPerSegment;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(directory, entriesPerSegment);
+    }
+}
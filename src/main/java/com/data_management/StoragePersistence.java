@@ -0,0 +1,220 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Makes the contents of a {@link DataStorage} survive restarts with a
+ * {@link WriteAheadLog} and periodic compact snapshots kept in one directory.
+ * Opening restores the newest snapshot and replays only the log written
+ * after it, so restart time depends on the snapshot interval rather than on
+ * the total history size.
+ * A snapshot is named {@code snapshot-<sequence>.snap} and contains every
+ * logged record with a smaller sequence number; the log files before that
+ * sequence number are deleted once the snapshot is on disk.
+ */
+final class StoragePersistence {
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+    static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final int SNAPSHOT_MAGIC = 0x43445353; // "CDSS"
+    private static final int SNAPSHOT_VERSION = 2; // 2 added the aggregate buckets
+    private static final long FLUSH_INTERVAL_MILLIS = 5;
+
+    private final Path directory;
+    private final DataStorage storage;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService snapshotExecutor;
+    private final LongAdder snapshotFailures = new LongAdder();
+    private volatile Exception lastSnapshotFailure; // null until a scheduled snapshot failed
+
+    private StoragePersistence(Path directory, DataStorage storage, WriteAheadLog log,
+                               long snapshotIntervalMillis) {
+        this.directory = directory;
+        this.storage = storage;
+        this.log = log;
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "data-storage-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                // keep the last good snapshot and try again next time
+                snapshotFailures.increment();
+                if (lastSnapshotFailure == null) {
+                    System.err.println("Taking a snapshot failed, further failures are only counted: " + e);
+                }
+                lastSnapshotFailure = e;
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Restores the newest snapshot and the log written after it into the
+     * given storage, then starts logging new records.
+     *
+     * @param directory              the directory holding snapshots and log files
+     * @param snapshotIntervalMillis the time between two snapshots
+     * @param storage                the storage to restore into
+     * @return the opened persistence
+     * @throws IOException if the directory cannot be read or the log cannot be created
+     */
+    static StoragePersistence open(Path directory, long snapshotIntervalMillis, DataStorage storage)
+            throws IOException {
+        Files.createDirectories(directory);
+        long nextSequence = 0;
+
+        Path snapshot = newestSnapshot(directory);
+        if (snapshot != null) {
+            nextSequence = readSnapshot(snapshot, storage);
+        }
+        for (Path file : WriteAheadLog.listFiles(directory)) {
+            long last = WriteAheadLog.replay(file, (sequence, patientId, recordTypeCode, timestamp, value) ->
+                    storage.getOrCreatePatient(patientId).replay(sequence, value, recordTypeCode, timestamp));
+            nextSequence = Math.max(nextSequence, Math.max(last + 1, WriteAheadLog.firstSequenceOf(file)));
+        }
+
+        WriteAheadLog log = new WriteAheadLog(directory, nextSequence, FLUSH_INTERVAL_MILLIS);
+        return new StoragePersistence(directory, storage, log, snapshotIntervalMillis);
+    }
+
+    WriteAheadLog getLog() {
+        return log;
+    }
+
+    /**
+     * Returns the number of scheduled snapshots and group commits that
+     * failed in the background.
+     *
+     * @return the number of failures
+     */
+    long getFailureCount() {
+        return snapshotFailures.sum() + log.getCommitFailureCount();
+    }
+
+    /**
+     * Returns the exception of a recent background failure, preferring a
+     * failed snapshot over a failed group commit.
+     *
+     * @return the exception, or {@code null} if nothing has failed
+     */
+    Exception getLastFailure() {
+        Exception snapshotFailure = lastSnapshotFailure;
+        return snapshotFailure != null ? snapshotFailure : log.getLastCommitFailure();
+    }
+
+    /**
+     * Writes a snapshot of all patients and deletes the log files and
+     * snapshots it supersedes. Ingest continues while the snapshot is written;
+     * every patient is only locked while its history is copied.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    synchronized void snapshot() throws IOException {
+        long sequence = log.rotate();
+        Path target = directory.resolve(SNAPSHOT_PREFIX + sequence + SNAPSHOT_SUFFIX);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            ByteArrayOutputStream patientBytes = new ByteArrayOutputStream();
+            DataOutputStream patientOut = new DataOutputStream(patientBytes);
+            for (Patient patient : storage.getAllPatients()) {
+                patientBytes.reset();
+                patient.writeTo(patientOut);
+                out.writeBoolean(true);
+                patientBytes.writeTo(out);
+            }
+            out.writeBoolean(false);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path older : listSnapshots(directory)) {
+            if (!older.equals(target)) {
+                Files.deleteIfExists(older);
+            }
+        }
+        log.deleteFilesBefore(sequence);
+    }
+
+    /**
+     * Stops taking snapshots and makes all logged records durable.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    void close() throws IOException {
+        // let a running snapshot finish, interrupting it would close its file
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private static long readSnapshot(Path snapshot, DataStorage storage) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != SNAPSHOT_MAGIC || version < 1 || version > SNAPSHOT_VERSION) {
+                throw new IOException("Not a supported snapshot file: " + snapshot);
+            }
+            long sequence = in.readLong();
+            while (in.readBoolean()) {
+                storage.putPatient(Patient.readFrom(in, storage.getBackend(), version));
+            }
+            return sequence;
+        }
+    }
+
+    private static Path newestSnapshot(Path directory) throws IOException {
+        Path newest = null;
+        for (Path snapshot : listSnapshots(directory)) {
+            if (newest == null || sequenceOf(snapshot) > sequenceOf(newest)) {
+                newest = snapshot;
+            }
+        }
+        return newest;
+    }
+
+    private static List<Path> listSnapshots(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }).forEach(snapshots::add);
+        }
+        return snapshots;
+    }
+
+    private static long sequenceOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,54 @@
+package com.data_management;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One partition of a {@link DataStorage}: the patients whose IDs hash to it,
+ * in a map of its own. Shards share nothing, so ingest and lookups for
+ * patients of different shards never touch the same map.
+ */
+final class StorageShard {
+    private final ConcurrentMap<Integer, Patient> patients;
+    private final StorageBackend backend;
+
+    StorageShard(StorageBackend backend) {
+        this.patients = new ConcurrentHashMap<>();
+        this.backend = backend;
+    }
+
+    /**
+     * Returns the patient with the given ID, or {@code null} if it is unknown.
+     */
+    Patient get(int patientId) {
+        return patients.get(patientId);
+    }
+
+    /**
+     * Returns the patient with the given ID, creating it if it is unknown.
+     */
+    Patient getOrCreate(int patientId) {
+        Patient patient = patients.get(patientId);
+        if (patient == null) {
+            // only the first record of a patient pays for the atomic insert
+            patient = patients.computeIfAbsent(patientId, id -> new Patient(id, backend));
+        }
+        return patient;
+    }
+
+    /**
+     * Adds a patient, replacing a patient with the same ID.
+     */
+    void put(Patient patient) {
+        patients.put(patient.getPatientId(), patient);
+    }
+
+    Collection<Patient> patients() {
+        return patients.values();
+    }
+
+    void clear() {
+        patients.clear();
+    }
+}
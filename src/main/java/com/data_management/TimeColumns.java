@@ -0,0 +1,72 @@
+package com.data_management;
+
+/**
+ * A read view over timestamp-ordered measurements of one record type, as
+ * decoded from a {@link TimeSeries} into a {@link SampleBuffer} and as kept by
+ * its downsampled {@link RollupTier}s.
+ * Lets range queries treat raw samples and rolled up buckets alike.
+ */
+interface TimeColumns {
+
+    int getRecordTypeCode();
+
+    int size();
+
+    long timestampAt(int index);
+
+    double valueAt(int index);
+
+    /**
+     * Returns the index of the first entry at or after the given time, or
+     * {@link #size()} if there is none.
+     *
+     * @param timestamp the time to search for
+     * @return the index of the first entry with a timestamp {@code >= timestamp}
+     */
+    int lowerBound(long timestamp);
+
+    /**
+     * Returns the index of the first entry after the given time, or
+     * {@link #size()} if there is none.
+     *
+     * @param timestamp the time to search for
+     * @return the index of the first entry with a timestamp {@code > timestamp}
+     */
+    int upperBound(long timestamp);
+
+    /**
+     * Binary search for the first of {@code size} sorted timestamps that is
+     * {@code >= key}.
+     */
+    static int lowerBound(long[] timestamps, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary search for the first of {@code size} sorted timestamps that is
+     * {@code > key}.
+     */
+    static int upperBound(long[] timestamps, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
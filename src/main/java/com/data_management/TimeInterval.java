@@ -0,0 +1,46 @@
+package com.data_management;
+
+/**
+ * A run of consecutive measurements of one record type that all met a
+ * condition, as found by {@link Patient#findIntervals}: from the first to the
+ * last measurement of the run.
+ */
+public final class TimeInterval {
+    private final long start;
+    private final long end;
+    private final int count;
+
+    TimeInterval(long start, long end, int count) {
+        this.start = start;
+        this.end = end;
+        this.count = count;
+    }
+
+    /**
+     * Returns the timestamp of the first measurement of the run.
+     *
+     * @return the start of the interval, in milliseconds since UNIX epoch
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the timestamp of the last measurement of the run.
+     *
+     * @return the end of the interval, inclusive, in milliseconds since UNIX
+     *         epoch
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of measurements in the run.
+     *
+     * @return the number of measurements
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package com.data_management;
+
+/**
+ * The history of one record type for one patient, as created by a
+ * {@link StorageBackend}. Implementations keep their entries ordered by
+ * timestamp and are guarded by the owning {@link Patient}'s lock.
+ */
+interface TimeSeries {
+
+    int getRecordTypeCode();
+
+    /**
+     * Returns the number of raw measurements in the series.
+     */
+    int size();
+
+    /**
+     * Adds a measurement, keeping the series ordered by timestamp. Measurements
+     * with equal timestamps keep their arrival order.
+     *
+     * @param timestamp the time of the measurement, in milliseconds since epoch
+     * @param value     the measured value
+     */
+    void append(long timestamp, double value);
+
+    /**
+     * Adds the raw measurements within {@code [startTime, endTime]} to a
+     * buffer, ordered by timestamp.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param out       the buffer receiving the measurements
+     */
+    void readRange(long startTime, long endTime, SampleBuffer out);
+
+    /**
+     * Captures the raw measurements within {@code [startTime, endTime]} into a
+     * snapshot that stays valid while the series changes. By default they are
+     * copied; backends with immutable chunks only keep references to them.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param into      the emptied snapshot receiving the measurements
+     */
+    default void capture(long startTime, long endTime, SeriesSnapshot into) {
+        readRange(startTime, endTime, into.samples());
+    }
+
+    /**
+     * Adds the raw measurements within {@code [startTime, endTime]} whose value
+     * lies within {@code [minValue, maxValue]} to a buffer, ordered by
+     * timestamp. Wherever measurements outside the bounds separate two
+     * matching ones, the buffer receives a single gap marker instead, see
+     * {@link SampleBuffer#addGap}, so runs of matches can be told apart.
+     * Backends with per-chunk value summaries skip chunks that cannot match.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @param minValue  the lowest matching value, inclusive
+     * @param maxValue  the highest matching value, inclusive
+     * @param out       the buffer receiving the matches and gap markers
+     */
+    default void readBetween(long startTime, long endTime, double minValue, double maxValue, SampleBuffer out) {
+        int from = out.size();
+        readRange(startTime, endTime, out);
+        out.keepBetween(from, minValue, maxValue);
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the raw measurements.
+     */
+    long sizeInBytes();
+
+    /**
+     * Returns the timestamp of the oldest raw measurement.
+     *
+     * @return the oldest timestamp, or {@link Long#MAX_VALUE} if no raw
+     *         measurements are held
+     */
+    long firstTimestamp();
+
+    /**
+     * Returns the newest timestamp whose raw measurements have left the raw
+     * history, rolled up into the minute tier or evicted where the backend
+     * keeps no tiers. Measurements at or before it can no longer be looked up
+     * one by one.
+     *
+     * @return the newest rolled up timestamp, or {@link Long#MIN_VALUE} if
+     *         nothing was rolled up
+     */
+    long rolledUpThrough();
+
+    /**
+     * Moves the raw measurements before a cutoff into the per-minute tier, or
+     * evicts them where the backend keeps no tiers, regardless of any
+     * retention window. Used to shed memory under a memory budget.
+     *
+     * @param cutoff     the time before which raw measurements are rolled up
+     * @param maxEntries the maximum number of raw measurements to move
+     * @return {@code true} if measurements before the cutoff are left over for
+     *         another call
+     */
+    boolean rollUpBefore(long cutoff, int maxEntries);
+
+    /**
+     * Returns the per-minute tier, or {@code null} if nothing was rolled up.
+     */
+    RollupTier getMinuteTier();
+
+    /**
+     * Returns the per-hour tier, or {@code null} if nothing was rolled up.
+     */
+    RollupTier getHourTier();
+
+    /**
+     * Ages the series according to a retention policy, moving at most
+     * {@code maxEntries} entries per tier.
+     *
+     * @param policy     the retention windows to apply
+     * @param now        the current time, in milliseconds since epoch
+     * @param maxEntries the maximum number of entries to move per tier
+     * @return {@code true} if aged data is left over for another call
+     */
+    boolean applyRetention(RetentionPolicy policy, long now, int maxEntries);
+
+    /**
+     * Merges a bucket restored from a snapshot into the tier with the given
+     * bucket width. Backends without tiers ignore it.
+     *
+     * @param bucketMillis the bucket width of the tier, see {@link RollupTier}
+     * @param bucketStart  the start of the bucket
+     * @param min          the minimum of the bucket
+     * @param max          the maximum of the bucket
+     * @param sum          the sum of the bucket
+     * @param count        the number of measurements in the bucket
+     */
+    void restoreRollup(long bucketMillis, long bucketStart, double min, double max, double sum, long count);
+}
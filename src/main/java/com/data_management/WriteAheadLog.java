@@ -0,0 +1,338 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * A binary, append-only log of every record added to {@link DataStorage}.
+ * Every record gets an increasing sequence number. Records are collected in
+ * an in-memory buffer and a background thread writes and fsyncs the buffer
+ * every few milliseconds, so the cost of an fsync is shared by all records
+ * of that group commit. {@link #sync()} waits until everything appended so
+ * far is durable.
+ * The log is split into files named {@code wal-<first sequence>.log}; a new
+ * file is started by {@link #rotate()} whenever a snapshot is taken, so
+ * older files can be deleted once the snapshot is written.
+ * Record type codes are only valid within one process, so the first use of
+ * a code in a file is preceded by an entry holding its label.
+ */
+final class WriteAheadLog {
+    static final String FILE_PREFIX = "wal-";
+    static final String FILE_SUFFIX = ".log";
+
+    private static final byte RECORD_ENTRY = 1;
+    private static final byte TYPE_ENTRY = 2;
+    private static final int RECORD_BYTES = 1 + 8 + 4 + 4 + 8 + 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final long flushIntervalMillis;
+    private final Thread flusher;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long writtenBytes; // length of the current file up to the end of the last complete write
+    private boolean[] typeLogged; // per record type code, whether its label is in the current file
+    private long nextSequence;
+    private long durableSequence; // guarded by this, all records up to it are fsynced
+    private volatile boolean closed;
+    private final LongAdder commitFailures = new LongAdder();
+    private volatile Exception lastCommitFailure; // null until a group commit failed
+
+    /**
+     * Opens a new log file starting at the given sequence number and starts
+     * the group commit thread.
+     *
+     * @param directory           the directory holding the log files
+     * @param firstSequence       the sequence number of the next record
+     * @param flushIntervalMillis the time between two group commits
+     * @throws IOException if the log file cannot be created
+     */
+    WriteAheadLog(Path directory, long firstSequence, long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        this.nextSequence = firstSequence;
+        this.durableSequence = firstSequence - 1;
+        openFile();
+        this.flusher = new Thread(this::flushLoop, "wal-group-commit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Appends a record to the log. The record becomes durable with the next
+     * group commit.
+     *
+     * @return the sequence number assigned to the record, or -1 if the log was
+     *         closed and the record is not logged
+     */
+    synchronized long append(int patientId, int recordTypeCode, long timestamp, double value) {
+        if (closed) {
+            return -1;
+        }
+        if (recordTypeCode >= typeLogged.length) {
+            typeLogged = Arrays.copyOf(typeLogged, Math.max(recordTypeCode + 1, typeLogged.length * 2));
+        }
+        if (!typeLogged[recordTypeCode]) {
+            byte[] label = RecordTypeRegistry.labelOf(recordTypeCode).getBytes(StandardCharsets.UTF_8);
+            ensureRoom(1 + 4 + 4 + label.length);
+            buffer.put(TYPE_ENTRY).putInt(recordTypeCode).putInt(label.length).put(label);
+            typeLogged[recordTypeCode] = true;
+        }
+        ensureRoom(RECORD_BYTES);
+        long sequence = nextSequence++;
+        buffer.put(RECORD_ENTRY).putLong(sequence).putInt(patientId).putInt(recordTypeCode)
+                .putLong(timestamp).putDouble(value);
+        return sequence;
+    }
+
+    /**
+     * Writes and fsyncs everything appended so far.
+     *
+     * @throws IOException if writing the log fails
+     */
+    void sync() throws IOException {
+        FileChannel target;
+        long upTo;
+        synchronized (this) {
+            if (closed || durableSequence == nextSequence - 1) {
+                return;
+            }
+            // throws while the bytes of a failed write wait in the buffer, so
+            // no record after them is reported durable before they are written
+            writeBuffer();
+            target = channel;
+            upTo = nextSequence - 1;
+        }
+        // appenders keep filling the buffer while the fsync runs
+        try {
+            target.force(false);
+        } catch (ClosedChannelException e) {
+            synchronized (this) {
+                if (target != channel || closed) {
+                    return; // rotate() or close() forced the file before closing it
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (target == channel) {
+                durableSequence = Math.max(durableSequence, upTo);
+            }
+        }
+    }
+
+    /**
+     * Makes everything appended so far durable and starts a new log file.
+     *
+     * @return the sequence number of the first record in the new file; every
+     *         record with a smaller sequence number is in an older file
+     * @throws IOException if the old file cannot be written or the new one
+     *                     cannot be created
+     */
+    synchronized long rotate() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+        durableSequence = nextSequence - 1;
+        openFile();
+        return nextSequence;
+    }
+
+    /**
+     * Deletes all log files that only hold records before the given sequence
+     * number.
+     *
+     * @param sequence the first sequence number that must be kept
+     * @throws IOException if listing or deleting the files fails
+     */
+    synchronized void deleteFilesBefore(long sequence) throws IOException {
+        List<Path> files = listFiles(directory);
+        for (int i = 0; i + 1 < files.size(); i++) {
+            // a file ends where the next one starts
+            if (firstSequenceOf(files.get(i + 1)) <= sequence) {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+    }
+
+    /**
+     * Stops the group commit thread and makes all appended records durable.
+     *
+     * @throws IOException if writing the log fails
+     */
+    void close() throws IOException {
+        closed = true;
+        // no interrupt, it would close the channel of a running fsync
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                writeBuffer();
+                channel.force(false);
+                durableSequence = nextSequence - 1;
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+                sync();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // keep committing, the next group may succeed
+                commitFailures.increment();
+                if (lastCommitFailure == null) {
+                    System.err.println("Group commit of the write-ahead log failed, further failures are only counted: "
+                            + e);
+                }
+                lastCommitFailure = e;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of background group commits that failed. A failing
+     * disk fails one every few milliseconds, so only the first is logged.
+     *
+     * @return the number of failed group commits
+     */
+    long getCommitFailureCount() {
+        return commitFailures.sum();
+    }
+
+    Exception getLastCommitFailure() {
+        return lastCommitFailure;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                writeBuffer();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the write-ahead log", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer to the end of the current file. A failed write keeps
+     * the bytes it did not write in the buffer, and the next write starts
+     * again where the last complete one ended, overwriting whatever part of
+     * an entry the failed write left behind.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                writtenBytes += channel.write(buffer, writtenBytes);
+            }
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private void openFile() throws IOException {
+        Path file = directory.resolve(FILE_PREFIX + nextSequence + FILE_SUFFIX);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writtenBytes = 0;
+        typeLogged = new boolean[Math.max(RecordTypeRegistry.size(), 16)];
+    }
+
+    /**
+     * Receives the records read back from a log file.
+     */
+    interface Replayer {
+        void replay(long sequence, int patientId, int recordTypeCode, long timestamp, double value);
+    }
+
+    /**
+     * Returns the log files in a directory, ordered by their first sequence
+     * number.
+     */
+    static List<Path> listFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }).forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(firstSequenceOf(a), firstSequenceOf(b)));
+        return files;
+    }
+
+    static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    }
+
+    /**
+     * Reads all records of a log file. A record cut off by a crash ends the
+     * file.
+     *
+     * @param file     the log file to read
+     * @param replayer receives the records, with codes valid in this process
+     * @return the highest sequence number read, or -1 if the file is empty
+     * @throws IOException if the file cannot be read
+     */
+    static long replay(Path file, Replayer replayer) throws IOException {
+        long lastSequence = -1;
+        int[] codes = new int[16]; // code in the file -> code in this process
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int kind = in.read();
+                if (kind == -1) {
+                    break;
+                }
+                if (kind == TYPE_ENTRY) {
+                    int fileCode = in.readInt();
+                    byte[] label = new byte[in.readInt()];
+                    in.readFully(label);
+                    if (fileCode >= codes.length) {
+                        codes = Arrays.copyOf(codes, Math.max(fileCode + 1, codes.length * 2));
+                    }
+                    codes[fileCode] = RecordTypeRegistry.codeOf(new String(label, StandardCharsets.UTF_8));
+                } else if (kind == RECORD_ENTRY) {
+                    long sequence = in.readLong();
+                    int patientId = in.readInt();
+                    int fileCode = in.readInt();
+                    long timestamp = in.readLong();
+                    double value = in.readDouble();
+                    replayer.replay(sequence, patientId, codes[fileCode], timestamp, value);
+                    lastSequence = sequence;
+                } else {
+                    System.err.println("Corrupt write-ahead log entry in " + file + ", ignoring the rest");
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // the last entry was cut off by a crash, everything before it is intact
+        }
+        return lastSequence;
+    }
+}
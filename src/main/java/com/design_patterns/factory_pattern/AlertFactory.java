@@ -1,11 +1,24 @@
 package com.design_patterns.factory_pattern;
 
 import com.alerts.Alert;
+import com.alerts.checks.AlertCheck;
 
 public abstract class AlertFactory {
     
     public Alert createAlert(int patientId, String condition, long timestamp){
         return new Alert(patientId, condition, timestamp);
     }
+
+    /**
+     * Creates the alert of a check whose records have been visited.
+     *
+     * @param patientId the patient the records belong to
+     * @param check     the evaluated check
+     * @return the alert, or {@code null} if the check found no condition
+     */
+    public Alert createAlert(int patientId, AlertCheck check){
+        String condition = check.condition();
+        return condition == null ? null : createAlert(patientId, condition, check.alertTimestamp());
+    }
     
 }
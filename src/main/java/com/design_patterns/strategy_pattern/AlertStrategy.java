@@ -8,4 +8,10 @@ import java.util.List;
 public interface AlertStrategy {
 
     public boolean checkAlert(Patient patient, List<PatientRecord> records);
+
+    /**
+     * Checks the patient's records within a time range, streaming them instead
+     * of copying them into a list.
+     */
+    public boolean checkAlert(Patient patient, long startTime, long endTime);
 }
@@ -1,5 +1,6 @@
 package com.design_patterns.strategy_pattern;
 
+import com.alerts.checks.EcgCheck;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
 import com.design_patterns.factory_pattern.ECGAlertFactory;
@@ -7,6 +8,9 @@ import com.design_patterns.factory_pattern.ECGAlertFactory;
 import java.util.List;
 
 public class HeartRateStrategy implements AlertStrategy {
+    private final EcgCheck ecgCheck = new EcgCheck(); // reused, so a check allocates nothing
+    private final ECGAlertFactory alertFactory = new ECGAlertFactory();
+    private long checksWithoutEcg; // counted rather than reported, checks must not allocate
 
 
     // monitors for abnormal heart rates
@@ -17,53 +21,39 @@ public class HeartRateStrategy implements AlertStrategy {
 
     }
 
-    public boolean checkECG(Patient patient, List<PatientRecord> records) {
+    @Override
+    public boolean checkAlert(Patient patient, long startTime, long endTime) {
 
-        PatientRecord lastRecord = null;
+        return checkECG(patient, startTime, endTime);
 
-        // Find the most recent ECG record
-        for (int i = records.size() - 1; i >= 0; i--) {
-            if (records.get(i).getRecordType().equals("ECG")) {
-                lastRecord = records.get(i);
-                break;
-            }
-        }
+    }
 
-        if (lastRecord == null) {
-            System.err.println("No ECG record found for patient " + patient.getPatientId());
-            return false;
-        }
+    public boolean checkECG(Patient patient, List<PatientRecord> records) {
+        ecgCheck.visitAllDescending(records);
+        return finishECG(patient);
+    }
 
-        double sumOfMeasurements = 0;
-        double numOfMeasurements = 0;
+    public boolean checkECG(Patient patient, long startTime, long endTime) {
+        ecgCheck.reset();
+        patient.forEachRecordDescending(startTime, endTime, ecgCheck);
+        return finishECG(patient);
+    }
 
-        // Calculate the average ECG measurement within the last minute
-        for (int i = records.size() - 1; i >= 0; i--) {
-            PatientRecord currentRecord = records.get(i);
-            if (currentRecord.getTimestamp() < lastRecord.getTimestamp() && currentRecord.getTimestamp() >= lastRecord.getTimestamp() - 60000) {
-                if (currentRecord.getRecordType().equals("ECG")) {
-                    sumOfMeasurements += currentRecord.getMeasurementValue();
-                    numOfMeasurements++;
-                }
-            } else if (currentRecord.getTimestamp() < lastRecord.getTimestamp() - 60000) {
-                break;
-            }
-        }
+    /**
+     * Returns how many checks could not be evaluated because the patient had
+     * no ECG record, or none in the minute before the latest one.
+     *
+     * @return the number of checks without ECG data
+     */
+    public long getChecksWithoutEcgCount() {
+        return checksWithoutEcg;
+    }
 
-        if (numOfMeasurements == 0) {
-            System.err.println("No ECG records found within the last minute for patient " + patient.getPatientId());
+    private boolean finishECG(Patient patient) {
+        if (ecgCheck.isMissingData()) {
+            checksWithoutEcg++;
             return false;
         }
-
-        double average = sumOfMeasurements / numOfMeasurements;
-
-        if (Math.abs(lastRecord.getMeasurementValue()) > 1.2 * average || Math.abs(lastRecord.getMeasurementValue()) < 0.8 * average) {
-            // A deviation of more than 20% is considered significant.
-            ECGAlertFactory ecgAlert = new ECGAlertFactory();
-            ecgAlert.createAlert(patient.getPatientId(), "ECG Abnormal Data Alert", System.currentTimeMillis());
-            return true;
-        }
-
-        return false;
+        return alertFactory.createAlert(patient.getPatientId(), ecgCheck) != null;
     }
 }
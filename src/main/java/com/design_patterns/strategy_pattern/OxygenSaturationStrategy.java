@@ -1,12 +1,19 @@
 package com.design_patterns.strategy_pattern;
 
+import com.alerts.checks.LowSaturationCheck;
+import com.alerts.checks.RapidDropCheck;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordTypeRegistry;
 import com.design_patterns.factory_pattern.BloodOxygenAlertFactory;
 
 import java.util.List;
 
 public class OxygenSaturationStrategy implements AlertStrategy {
+    // reused, so a check allocates nothing
+    private final LowSaturationCheck lowSaturationCheck = new LowSaturationCheck();
+    private final RapidDropCheck rapidDropCheck = new RapidDropCheck();
+    private final BloodOxygenAlertFactory alertFactory = new BloodOxygenAlertFactory();
 
 
     // observes oxygen levels for critical drops
@@ -18,46 +25,35 @@ public class OxygenSaturationStrategy implements AlertStrategy {
 
     }
 
-    public boolean checkRapidDropAlert(Patient patient, List<PatientRecord> records) {
-        int lastIndex = records.size() - 1;
-        PatientRecord currentRecord = records.get(lastIndex);
-
-        // Start from the second-to-last record and iterate backwards
-        for (int i = lastIndex; i > 0; i--) {
-
-            PatientRecord previousRecord = records.get(i - 1);
+    @Override
+    public boolean checkAlert(Patient patient, long startTime, long endTime) {
 
-            if (previousRecord.getRecordType().equals("BloodSaturation")) {
-                // Found the previous saturation record
+        return (checkLowSaturationAlert(patient, startTime, endTime)
+                || checkRapidDropAlert(patient, startTime, endTime));
 
-                if ((currentRecord.getTimestamp() - previousRecord.getTimestamp()) <= 600000 &&
-                        ((currentRecord.getMeasurementValue() - previousRecord.getMeasurementValue()) / previousRecord.getMeasurementValue()) <= -0.05) {
+    }
 
-                    BloodOxygenAlertFactory bloodOxygenAlert = new BloodOxygenAlertFactory();
-                    bloodOxygenAlert.createAlert(patient.getPatientId(), "Blood oxygen saturation level dropped by 5% or more within 10 minutes.", currentRecord.getTimestamp());
-                    return true;
-                }
+    public boolean checkRapidDropAlert(Patient patient, List<PatientRecord> records) {
+        rapidDropCheck.visitAllDescending(records);
+        return alertFactory.createAlert(patient.getPatientId(), rapidDropCheck) != null;
+    }
 
-                // Exit the loop once we find the first previous saturation record
-                break;
-            }
-        }
-        return false;
+    public boolean checkRapidDropAlert(Patient patient, long startTime, long endTime) {
+        rapidDropCheck.reset();
+        patient.forEachRecordDescending(startTime, endTime, rapidDropCheck);
+        return alertFactory.createAlert(patient.getPatientId(), rapidDropCheck) != null;
     }
 
     public boolean checkLowSaturationAlert(Patient patient, List<PatientRecord> records) {
-        int patientId = patient.getPatientId();
-        for (PatientRecord record : records) {
-            if (record.getPatientId() == patientId && record.getRecordType().equals("Saturation") &&
-                    record.getMeasurementValue() < 92.0) {
-
-                BloodOxygenAlertFactory bloodOxygenAlert = new BloodOxygenAlertFactory();
-                bloodOxygenAlert.createAlert(patientId, "Blood oxygen saturation level fell below 92%.", record.getTimestamp());
-
-                return true;
-            }
-        }
-        return false;
+        lowSaturationCheck.visitAll(records, patient.getPatientId());
+        return alertFactory.createAlert(patient.getPatientId(), lowSaturationCheck) != null;
     }
 
+    public boolean checkLowSaturationAlert(Patient patient, long startTime, long endTime) {
+        lowSaturationCheck.reset();
+        // only the chunks of the saturation history holding a reading below the threshold are decoded
+        patient.forEachRecordBetween(RecordTypeRegistry.SATURATION, startTime, endTime,
+                Double.NEGATIVE_INFINITY, Math.nextDown(LowSaturationCheck.THRESHOLD), lowSaturationCheck);
+        return alertFactory.createAlert(patient.getPatientId(), lowSaturationCheck) != null;
+    }
 }
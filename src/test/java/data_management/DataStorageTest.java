@@ -3,16 +3,52 @@ package data_management;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.alerts.AlertGenerator;
+import com.cardio_generator.outputs.FileOutputStrategy;
 import com.data_management.DataReaderImplementation;
+import com.data_management.Aggregate;
+import com.data_management.BulkFileLoader;
 import com.data_management.DataStorage;
+import com.data_management.LineFramer;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.PatientSnapshot;
+import com.data_management.RecordBatch;
+import com.data_management.RecordFormat;
+import com.data_management.RecordTypeRegistry;
+import com.data_management.RetentionPolicy;
+import com.data_management.StorageBackend;
+import com.design_patterns.strategy_pattern.OxygenSaturationStrategy;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 class DataStorageTest {
 
+    // the storage is a singleton, so start every test from an empty one
+    @BeforeEach
+    void clearStorage() {
+        DataStorage.getInstance().clear();
+    }
+
     @Test
     void testAddAndGetRecords() {
         // TODO Perhaps you can implement a mock data reader to mock the test data?
@@ -266,4 +302,931 @@ class DataStorageTest {
 
     }
 
+    @Test
+    void testAlertChecksStreamPatientRecords() {
+        DataStorage storage = DataStorage.getInstance();
+        AlertGenerator alertGenerator = new AlertGenerator(storage);
+
+        storage.addPatientData(1, 120, "SystolicPressure", 1000L);
+        storage.addPatientData(1, 95, "Saturation", 1500L);
+        storage.addPatientData(1, 135, "SystolicPressure", 2000L);
+        storage.addPatientData(1, 150, "SystolicPressure", 3000L);
+        storage.addPatientData(1, 91, "Saturation", 3500L);
+        Patient patient = storage.getAllPatients().get(0);
+
+        assertTrue(alertGenerator.checkBloodPressureTrend(patient, 0L, Long.MAX_VALUE));
+        assertFalse(alertGenerator.checkBloodPressureTrend(patient, 1500L, Long.MAX_VALUE));
+        assertTrue(alertGenerator.checkLowSaturationAlert(patient, 0L, Long.MAX_VALUE));
+        assertFalse(alertGenerator.checkLowSaturationAlert(patient, 0L, 3000L));
+        assertFalse(alertGenerator.checkBloodPressureCriticalThreshold(patient, 0L, Long.MAX_VALUE));
+        alertGenerator.evaluateData(patient, 0L, Long.MAX_VALUE);
+    }
+
+    @Test
+    void testConcurrentIngest() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        Thread[] writers = new Thread[4];
+
+        // every writer adds 1000 records, half of them to a patient shared by all writers
+        for (int t = 0; t < writers.length; t++) {
+            int ownPatient = 100 + t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    // distinct timestamps per writer, equal ones would be suppressed as duplicates
+                    storage.addPatientData(i % 2 == 0 ? ownPatient : 99, i, "ECG", i * writers.length + ownPatient);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(2000, storage.getRecords(99, 0L, 5000L).size());
+        for (int t = 0; t < writers.length; t++) {
+            assertEquals(500, storage.getRecords(100 + t, 0L, 5000L).size());
+        }
+    }
+
+    @Test
+    void testSnapshotsStayConsistentUnderConcurrentIngest() throws InterruptedException {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 4);
+        int patients = 4;
+        int samples = 20_000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger evaluations = new AtomicInteger();
+        List<String> failures = new CopyOnWriteArrayList<>();
+
+        // one writer per patient adds a heart rate, then a saturation, for every timestamp in order
+        Thread[] writers = new Thread[patients];
+        for (int t = 0; t < patients; t++) {
+            int patientId = t + 1;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < samples; i++) {
+                    storage.addPatientData(patientId, 60 + i % 5, "HeartRate", i);
+                    storage.addPatientData(patientId, 95 + i % 3, "Saturation", i);
+                }
+            });
+        }
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            int offset = r;
+            readers[r] = new Thread(() -> {
+                AlertGenerator alertGenerator = new AlertGenerator(storage);
+                PatientSnapshot view = new PatientSnapshot();
+                for (int n = 0, done = 0; writing.get() || done < 10; n++) {
+                    int patientId = 1 + (n + offset) % patients;
+                    Patient patient = storage.getAllPatients().stream()
+                            .filter(p -> p.getPatientId() == patientId).findFirst().orElse(null);
+                    if (patient == null) {
+                        continue;
+                    }
+                    alertGenerator.evaluateData(patient, 0L, Long.MAX_VALUE);
+                    String failure = checkPrefix(patient.snapshot(0L, Long.MAX_VALUE, view));
+                    if (failure != null) {
+                        failures.add(failure);
+                        return;
+                    }
+                    evaluations.incrementAndGet();
+                    done++;
+                }
+            });
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        assertEquals(List.of(), failures);
+        assertTrue(evaluations.get() >= readers.length * 10);
+        for (int patientId = 1; patientId <= patients; patientId++) {
+            assertEquals(2 * samples, storage.getRecords(patientId, 0L, Long.MAX_VALUE).size());
+        }
+    }
+
+    /**
+     * Checks that a snapshot of a patient written by testSnapshotsStayConsistentUnderConcurrentIngest
+     * is a point in time of its writer: every heart rate up to some timestamp, the saturations up to
+     * the same or the previous timestamp, and both passes over the view agree.
+     */
+    private static String checkPrefix(PatientSnapshot view) {
+        int[] counts = new int[2];
+        long[] sums = new long[2];
+        String[] failure = new String[1];
+        view.forEachRecord(0L, Long.MAX_VALUE, (timestamp, recordTypeCode, measurementValue) -> {
+            int type = recordTypeCode == RecordTypeRegistry.SATURATION ? 1 : 0;
+            double expected = type == 1 ? 95 + timestamp % 3 : 60 + timestamp % 5;
+            if (timestamp != counts[type] || measurementValue != expected) {
+                failure[0] = "unexpected record " + timestamp + " " + measurementValue + " of patient "
+                        + view.getPatientId();
+                return false;
+            }
+            counts[type]++;
+            sums[0] += timestamp;
+            return true;
+        });
+        if (failure[0] != null) {
+            return failure[0];
+        }
+        if (counts[0] - counts[1] != 0 && counts[0] - counts[1] != 1) {
+            return "torn snapshot: " + counts[0] + " heart rates and " + counts[1] + " saturations";
+        }
+        view.forEachRecordDescending(0L, Long.MAX_VALUE, (timestamp, recordTypeCode, measurementValue) -> {
+            sums[1] += timestamp;
+            return true;
+        });
+        return sums[0] == sums[1] ? null : "passes over one snapshot disagree";
+    }
+
+    @Test
+    void testPatientsArePartitionedAcrossShards() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 4);
+        for (int patientId = 1; patientId <= 100; patientId++) {
+            storage.addPatientData(patientId, patientId, "HeartRate", 1000L);
+            storage.addPatientData(patientId, patientId + 1, "HeartRate", 2000L);
+        }
+
+        assertEquals(4, storage.getShardCount());
+        assertEquals(100, storage.getAllPatients().size());
+        for (int patientId = 1; patientId <= 100; patientId++) {
+            List<PatientRecord> records = storage.getRecords(patientId, 0L, 5000L);
+            assertEquals(2, records.size());
+            assertEquals(patientId, records.get(0).getPatientId());
+            assertEquals(patientId + 1.0, records.get(1).getMeasurementValue());
+        }
+        // independent of the default instance
+        assertTrue(DataStorage.getInstance().getAllPatients().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new DataStorage(StorageBackend.heap(), 0));
+    }
+
+    @Test
+    void testLatestValuesAreAnsweredWithoutReadingHistory() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.addPatientData(17, 96, "Saturation", 1000L);
+        storage.addPatientData(17, 93, "Saturation", 3000L);
+        // a late arrival does not replace the newer measurement
+        storage.addPatientData(17, 99, "Saturation", 2000L);
+        storage.addPatientData(17, 72, "HeartRate", 1500L);
+        storage.addPatientData(18, 120, "SystolicPressure", 500L);
+
+        PatientRecord saturation = storage.getLatestRecord(17, "Saturation");
+        assertEquals(93.0, saturation.getMeasurementValue());
+        assertEquals(3000L, saturation.getTimestamp());
+        assertEquals(17, saturation.getPatientId());
+        assertNull(storage.getLatestRecord(17, "SystolicPressure"));
+        assertNull(storage.getLatestRecord(404, "Saturation"));
+        int types = RecordTypeRegistry.size();
+        assertNull(storage.getLatestRecord(17, "Saturaton"));
+        assertEquals(types, RecordTypeRegistry.size());
+
+        List<PatientRecord> latest = storage.getLatestRecords();
+        assertEquals(3, latest.size());
+        assertEquals(2, latest.stream().filter(record -> record.getPatientId() == 17).count());
+        assertTrue(latest.stream().anyMatch(record -> record.getPatientId() == 18
+                && record.getRecordType().equals("SystolicPressure")
+                && record.getMeasurementValue() == 120.0));
+    }
+
+    @Test
+    void testLatestValueChecksFallBackToTheHistory() {
+        DataStorage storage = DataStorage.getInstance();
+        AlertGenerator alertGenerator = new AlertGenerator(storage);
+        storage.addPatientData(19, 190, "SystolicPressure", 1000L);
+        storage.addPatientData(19, 80, "DiastolicPressure", 1000L);
+        storage.addPatientData(19, 120, "SystolicPressure", 5000L);
+        // an ECG reading deviating from the minute before it, then a normal one
+        for (int i = 0; i < 10; i++) {
+            storage.addPatientData(19, 1.0, "ECG", 1000L + i * 100);
+        }
+        storage.addPatientData(19, 2.0, "ECG", 3000L);
+        storage.addPatientData(19, 1.0, "ECG", 6000L);
+        Patient patient = storage.getAllPatients().stream()
+                .filter(p -> p.getPatientId() == 19).findFirst().get();
+
+        // the latest readings are normal
+        assertFalse(alertGenerator.checkBloodPressureCriticalThreshold(patient, 0L, Long.MAX_VALUE));
+        assertFalse(alertGenerator.checkECG(patient, 0L, Long.MAX_VALUE));
+        // up to 4000 the newest readings are older than the latest ones
+        assertTrue(alertGenerator.checkBloodPressureCriticalThreshold(patient, 0L, 4000L));
+        assertTrue(alertGenerator.checkECG(patient, 0L, 4000L));
+        // no reading at all after 7000
+        assertFalse(alertGenerator.checkBloodPressureCriticalThreshold(patient, 7000L, Long.MAX_VALUE));
+        long withoutEcg = alertGenerator.getEvaluationsWithoutEcgCount();
+        assertFalse(alertGenerator.checkECG(patient, 7000L, Long.MAX_VALUE));
+        assertEquals(withoutEcg + 1, alertGenerator.getEvaluationsWithoutEcgCount());
+    }
+
+    @Test
+    void testRapidDropComparesTheLatestSaturations() {
+        DataStorage storage = DataStorage.getInstance();
+        AlertGenerator alertGenerator = new AlertGenerator(storage);
+        storage.addPatientData(20, 97, "BloodSaturation", 1000L);
+        storage.addPatientData(20, 98, "BloodSaturation", 2000L);
+        storage.addPatientData(20, 92, "BloodSaturation", 3000L);
+        Patient patient = storage.getAllPatients().stream()
+                .filter(p -> p.getPatientId() == 20).findFirst().get();
+
+        // 98 to 92 within a second
+        assertTrue(alertGenerator.checkRapidDropAlert(patient, 0L, Long.MAX_VALUE));
+        // the saturation before the newest one lies before the range
+        assertFalse(alertGenerator.checkRapidDropAlert(patient, 2500L, Long.MAX_VALUE));
+        // up to 2500 the newest reading is older than the latest one
+        assertFalse(alertGenerator.checkRapidDropAlert(patient, 0L, 2500L));
+
+        // more than ten minutes after the last saturation, nothing is compared
+        storage.addPatientData(20, 80, "BloodSaturation", 3000L + 600_001L);
+        assertFalse(alertGenerator.checkRapidDropAlert(patient, 0L, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testCohortQueriesScanAllPatients() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 4);
+        long minute = 60_000L;
+        for (int patientId = 1; patientId <= 200; patientId++) {
+            for (int i = 0; i < 60; i++) {
+                // every tenth patient dips to 90 once, at a minute depending on its ID
+                double saturation = patientId % 10 == 0 && i == patientId % 60 ? 90 : 97;
+                storage.addPatientData(patientId, saturation, "Saturation", i * minute);
+                storage.addPatientData(patientId, 120 + (i % 2) * patientId % 50, "SystolicPressure", i * minute);
+            }
+        }
+
+        List<Integer> lowSaturation = storage.findPatients("Saturation", 0L, 60 * minute, value -> value < 92);
+        assertEquals(20, lowSaturation.size());
+        assertEquals(10, lowSaturation.get(0));
+        assertEquals(200, lowSaturation.get(19));
+        // patient 20 dips in minute 20 only
+        assertFalse(storage.findPatients("Saturation", 21 * minute, 60 * minute, value -> value < 92).contains(20));
+        assertTrue(storage.findPatients("HeartRate", 0L, 60 * minute, value -> true).isEmpty());
+        // a misspelled type matches nothing and is not registered
+        int types = RecordTypeRegistry.size();
+        assertTrue(storage.findPatients("Saturaton", 0L, 60 * minute, value -> true).isEmpty());
+        assertTrue(storage.aggregatePatients("Saturaton", 0L, 60 * minute, aggregate -> true).isEmpty());
+        assertTrue(storage.topPatients("Saturaton", 0L, 60 * minute, Comparator.comparing(Aggregate::getMax), 3)
+                .isEmpty());
+        assertEquals(types, RecordTypeRegistry.size());
+
+        Map<Integer, Aggregate> dipped = storage.aggregatePatients("Saturation", 0L, 60 * minute,
+                aggregate -> aggregate.getMin() < 92);
+        assertEquals(lowSaturation, new ArrayList<>(dipped.keySet()));
+        assertEquals(60, dipped.get(10).getCount());
+
+        List<Integer> widest = storage.topPatients("SystolicPressure", 0L, 60 * minute,
+                Comparator.comparingDouble((Aggregate aggregate) -> aggregate.getMax() - aggregate.getMin()).reversed(),
+                3);
+        // the range of patient p is p % 50, so 49, 99, 149 and 199 tie at the top
+        assertEquals(List.of(49, 99, 149), widest);
+    }
+
+    @Test
+    void testReorderingCommitsInTimestampOrderAndDivertsLateRecords() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        List<Long> diverted = new ArrayList<>();
+        storage.enableReordering(1000L, (patientId, recordTypeCode, timestamp, measurementValue) ->
+                diverted.add(timestamp));
+
+        storage.addPatientData(1, 1, "HeartRate", 5000L);
+        storage.addPatientData(1, 2, "HeartRate", 4500L);
+        // held back until the watermark passes them
+        assertTrue(storage.getRecords(1, 0L, Long.MAX_VALUE).isEmpty());
+
+        storage.addPatientData(1, 3, "HeartRate", 6000L); // watermark 5000
+        List<Long> committed = new ArrayList<>();
+        storage.forEachRecord(1, 0L, Long.MAX_VALUE, (timestamp, recordTypeCode, measurementValue) ->
+                committed.add(timestamp));
+        assertEquals(List.of(4500L, 5000L), committed);
+
+        storage.addPatientData(1, 4, "HeartRate", 4999L); // behind the watermark
+        storage.addPatientData(1, 5, "HeartRate", 5500L); // late, but within the allowed lateness
+        assertEquals(1, storage.getLateRecordCount());
+        assertEquals(List.of(4999L), diverted);
+
+        storage.disableReordering();
+        List<PatientRecord> records = storage.getRecords(1, 0L, Long.MAX_VALUE);
+        assertEquals(4, records.size());
+        assertEquals(5500L, records.get(2).getTimestamp());
+        assertEquals(3.0, records.get(3).getMeasurementValue());
+        // stored as they arrive again
+        storage.addPatientData(1, 6, "HeartRate", 100L);
+        assertEquals(5, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertThrows(IllegalArgumentException.class, () -> storage.enableReordering(-1L, null));
+    }
+
+    @Test
+    void testDuplicateRecordsAreSuppressed() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        for (int pass = 0; pass < 2; pass++) {
+            // e.g. the same file read twice
+            for (int i = 0; i < 1000; i++) {
+                storage.addPatientData(5, 60 + i % 10, "ECG", i * 100L);
+                storage.addPatientData(5, 97, "Saturation", i * 100L);
+            }
+        }
+        // same timestamp, other patient or other type: not a duplicate
+        storage.addPatientData(6, 60, "ECG", 0L);
+        storage.addPatientData(5, 120, "SystolicPressure", 0L);
+        // a resent recent record with another value keeps the stored one
+        storage.addPatientData(5, 1, "ECG", 99_900L);
+
+        assertEquals(2001, storage.getRecords(5, 0L, Long.MAX_VALUE).size());
+        assertEquals(1, storage.getRecords(6, 0L, Long.MAX_VALUE).size());
+        assertEquals(2001, storage.getDuplicateRecordCount());
+        assertEquals(69.0, storage.getLatestRecord(5, "ECG").getMeasurementValue());
+        assertEquals(1000, storage.aggregate(5, "ECG", 0L, Long.MAX_VALUE).getCount());
+    }
+
+    @Test
+    void testRolledUpRecordsAreNotStoredAgain() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        long now = System.currentTimeMillis();
+        long hour = 3_600_000L;
+        storage.setRetentionPolicy(new RetentionPolicy(600_000L, hour, 2 * hour));
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                // the same hour of data read twice, with retention applied after each read
+                for (int i = 0; i < 3600; i++) {
+                    storage.addPatientData(7, i % 2 == 0 ? 90 : 100, "Saturation", now - hour + i * 1000L);
+                }
+                storage.enforceRetention(now);
+            }
+
+            assertEquals(3600, storage.getDuplicateRecordCount());
+            assertEquals(600, storage.getRecords(7, now - 600_000L, now).size());
+            assertEquals(3600, storage.aggregate(7, "Saturation", now - hour, now).getCount());
+            // the minute buckets hold each sample once
+            List<PatientRecord> minutes = storage.getRecords(7, now - 40 * 60_000L, now - 20 * 60_000L);
+            assertFalse(minutes.isEmpty());
+            for (PatientRecord record : minutes) {
+                assertEquals(95.0, record.getMeasurementValue());
+            }
+        } finally {
+            storage.setRetentionPolicy(null);
+        }
+    }
+
+    @Test
+    void testMemoryBudgetDegradesOldestDataFirst() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        long minute = 60_000L;
+        // a day of one reading per second for two patients
+        for (int i = 0; i < 86_400; i++) {
+            for (int patientId = 1; patientId <= 2; patientId++) {
+                storage.addPatientData(patientId, 60 + (i * 7919 + patientId) % 40, "HeartRate", i * 1000L);
+            }
+        }
+        long unlimited = storage.getHeldBytes();
+        assertEquals(unlimited, storage.getHeldBytesByType().get("HeartRate"));
+        assertEquals(unlimited, storage.getHeldBytesByPatient().values().stream().mapToLong(Long::longValue).sum());
+        Aggregate lastHour = storage.aggregate(1, "HeartRate", 23 * 60 * minute, Long.MAX_VALUE);
+
+        storage.setMemoryBudget(unlimited * 9 / 10);
+        storage.enforceMemoryBudget();
+        assertTrue(storage.getHeldBytes() <= unlimited * 9 / 10);
+        // the oldest raw readings were rolled up into minute buckets
+        List<PatientRecord> oldest = storage.getRecords(1, 0L, minute - 1);
+        assertEquals(1, oldest.size());
+        // the newest ten minutes are kept raw, aggregates are unchanged
+        assertEquals(600, storage.getRecords(1, 86_400_000L - 10 * minute, Long.MAX_VALUE).size());
+        assertEquals(lastHour.getCount(),
+                storage.aggregate(1, "HeartRate", 23 * 60 * minute, Long.MAX_VALUE).getCount());
+
+        // even after evicting all but the newest ten minutes the budget is exceeded
+        storage.setMemoryBudget(1024);
+        storage.enforceMemoryBudget();
+        // only the buckets overlapping the newest ten minutes are left, the last hour bucket starts at 23:00
+        assertTrue(storage.getRecords(1, 0L, 23 * 60 * minute - 1).isEmpty());
+        assertEquals(600, storage.getRecords(2, 86_400_000L - 10 * minute, Long.MAX_VALUE).size());
+        storage.addPatientData(3, 70, "HeartRate", 0L);
+        storage.addPatientData(1, 70, "HeartRate", 86_400_000L);
+        assertTrue(storage.getRecords(3, 0L, Long.MAX_VALUE).isEmpty());
+        assertEquals(1, storage.getRejectedRecordCount());
+        assertEquals(601, storage.getRecords(1, 86_400_000L - 10 * minute, Long.MAX_VALUE).size());
+
+        storage.setMemoryBudget(Long.MAX_VALUE);
+        storage.addPatientData(3, 70, "HeartRate", 0L);
+        assertEquals(1, storage.getRecords(3, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testRetentionRollsUpAndEvictsOldData() {
+        DataStorage storage = DataStorage.getInstance();
+        long now = System.currentTimeMillis();
+        long hour = 3_600_000L;
+
+        // three hours of saturation samples, one per second, alternating 90 and 100
+        for (int i = 0; i < 3 * 3600; i++) {
+            storage.addPatientData(500, i % 2 == 0 ? 90 : 100, "Saturation", now - 3 * hour + i * 1000L);
+        }
+
+        // keep raw samples for 10 minutes, minute buckets for 1 hour and hour buckets for 2 hours
+        storage.setRetentionPolicy(new RetentionPolicy(600_000L, hour, 2 * hour));
+        try {
+            storage.enforceRetention(now);
+
+            // the last 10 minutes are still raw
+            assertEquals(600, storage.getRecords(500, now - 600_000L, now).size());
+
+            // older data is served as per-minute averages
+            List<PatientRecord> minutes = storage.getRecords(500, now - 50 * 60_000L, now - 20 * 60_000L);
+            assertTrue(minutes.size() == 30 || minutes.size() == 31);
+            for (PatientRecord record : minutes) {
+                assertEquals(95.0, record.getMeasurementValue());
+                assertEquals(0, record.getTimestamp() % 60_000L);
+            }
+
+            // then as per-hour averages, and nothing is left past the final horizon
+            assertFalse(storage.getRecords(500, now - 2 * hour, now - hour - 1).isEmpty());
+            assertTrue(storage.getRecords(500, 0L, now - 3 * hour).isEmpty());
+
+            // the incrementally maintained buckets still see the raw values
+            Aggregate recent = storage.aggregate(500, "Saturation", now - 30 * 60_000L, now);
+            assertEquals(90.0, recent.getMin());
+            assertEquals(100.0, recent.getMax());
+            // past the minute window the range is widened to whole hours
+            Aggregate older = storage.aggregate(500, "Saturation", now - 2 * hour, now - hour);
+            assertTrue(older.getCount() >= 3600);
+            assertEquals(95.0, older.getAverage());
+            assertEquals(0, storage.getMaintenanceFailureCount());
+            assertNull(storage.getLastMaintenanceFailure());
+        } finally {
+            storage.setRetentionPolicy(null);
+        }
+    }
+
+    @Test
+    void testClearedSnapshotHoldsNoRecords() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.addPatientData(1, 95, "Saturation", 1000L);
+        storage.addPatientData(1, 120, "SystolicPressure", 2000L);
+        Patient patient = storage.getAllPatients().get(0);
+
+        PatientSnapshot view = patient.snapshot(0L, Long.MAX_VALUE, new PatientSnapshot());
+        assertEquals(2, view.getRecords(0L, Long.MAX_VALUE).size());
+        view.clear();
+        assertTrue(view.getRecords(0L, Long.MAX_VALUE).isEmpty());
+        // a cleared snapshot can be filled again
+        assertEquals(2, patient.snapshot(0L, Long.MAX_VALUE, view).getRecords(0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testAlertChecksReadOnlyRawRecords() {
+        DataStorage storage = DataStorage.getInstance();
+        long now = System.currentTimeMillis();
+        long hour = 3_600_000L;
+
+        // an hour alternating 80 and 100, rolled up into buckets averaging 90, then healthy raw samples
+        for (int i = 0; i < 3600; i++) {
+            storage.addPatientData(501, i % 2 == 0 ? 80 : 100, "Saturation", now - hour + i * 1000L);
+        }
+        storage.setRetentionPolicy(new RetentionPolicy(600_000L, hour, 2 * hour));
+        try {
+            storage.enforceRetention(now);
+            for (int i = 0; i < 60; i++) {
+                storage.addPatientData(501, 98, "Saturation", now + i * 1000L);
+            }
+            Patient patient = storage.getAllPatients().stream()
+                    .filter(p -> p.getPatientId() == 501).findFirst().get();
+            assertFalse(patient.getRecords(now - hour, now - 600_000L - 1).isEmpty());
+            assertEquals(patient.getRecords(now - 600_000L, Long.MAX_VALUE).size(),
+                    patient.rawSnapshot(0L, Long.MAX_VALUE, new PatientSnapshot()).getRecords(0L, Long.MAX_VALUE).size());
+
+            // the minute buckets average 90, a value no raw sample had
+            assertFalse(storage.findPatients("Saturation", now - hour, now - 600_000L - 1, value -> value == 90.0)
+                    .contains(501));
+            assertTrue(storage.findPatients("Saturation", now - 600_000L, now, value -> value == 80.0)
+                    .contains(501));
+
+            // the raw samples below 92 are still searched, the bucket averages never are
+            assertTrue(new AlertGenerator(storage).checkLowSaturationAlert(patient, 0L, Long.MAX_VALUE));
+            assertFalse(new AlertGenerator(storage).checkLowSaturationAlert(patient, now, Long.MAX_VALUE));
+            assertTrue(new OxygenSaturationStrategy().checkLowSaturationAlert(patient, 0L, Long.MAX_VALUE));
+            assertFalse(new OxygenSaturationStrategy().checkLowSaturationAlert(patient, now, Long.MAX_VALUE));
+        } finally {
+            storage.setRetentionPolicy(null);
+        }
+    }
+
+    @Test
+    void testRestartRestoresSnapshotAndLog(@TempDir Path directory) throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        long hour = 3_600_000L;
+
+        storage.enableDurability(directory, hour);
+        try {
+            storage.addPatientData(600, 80, "ECG", 1714376789050L);
+            storage.addPatientData(600, 95, "Saturation", 1714376789051L);
+            storage.snapshot();
+            // written after the snapshot, so only found in the log
+            storage.addPatientData(600, 81, "ECG", 1714376789052L);
+            storage.addPatientData(601, 4.2, "RestartTestLabel", 1714376789053L);
+            storage.syncLog();
+        } finally {
+            storage.disableDurability();
+        }
+
+        // simulate a restart
+        storage.clear();
+        assertTrue(storage.getRecords(600, 0L, Long.MAX_VALUE).isEmpty());
+
+        storage.enableDurability(directory, hour);
+        try {
+            List<PatientRecord> records = storage.getRecords(600, 0L, Long.MAX_VALUE);
+            assertEquals(3, records.size());
+            assertEquals(80.0, records.get(0).getMeasurementValue());
+            assertEquals("Saturation", records.get(1).getRecordType());
+            assertEquals(81.0, records.get(2).getMeasurementValue());
+            assertEquals("RestartTestLabel", storage.getRecords(601, 0L, Long.MAX_VALUE).get(0).getRecordType());
+            // aggregate buckets come back from the snapshot and the log alike
+            assertEquals(80.5, storage.aggregate(600, "ECG", 0L, Long.MAX_VALUE).getAverage());
+            assertEquals(81.0, storage.getLatestRecord(600, "ECG").getMeasurementValue());
+            assertEquals(95.0, storage.getLatestRecord(600, "Saturation").getMeasurementValue());
+
+            // the log files before the snapshot were deleted
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.filter(file -> file.toString().endsWith(".snap")).count());
+            }
+        } finally {
+            storage.disableDurability();
+        }
+    }
+
+    @Test
+    void testSyncLogSurvivesConcurrentSnapshots(@TempDir Path directory) throws Exception {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        storage.enableDurability(directory, 3_600_000L);
+        AtomicBoolean snapshotting = new AtomicBoolean(true);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        Thread syncer = new Thread(() -> {
+            for (long i = 0; snapshotting.get(); i++) {
+                storage.addPatientData(610, i, "HeartRate", i);
+                try {
+                    storage.syncLog();
+                } catch (Throwable e) {
+                    failures.add(e);
+                    return;
+                }
+            }
+        });
+        try {
+            syncer.start();
+            // every snapshot rotates the log, possibly under a running fsync
+            for (int i = 0; i < 200 && failures.isEmpty(); i++) {
+                storage.snapshot();
+            }
+        } finally {
+            snapshotting.set(false);
+            syncer.join();
+            storage.disableDurability();
+        }
+
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void testFailedLogWriteKeepsItsRecords(@TempDir Path directory) throws Exception {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        long hour = 3_600_000L;
+        storage.enableDurability(directory, hour);
+        FailingChannel channel;
+        try {
+            channel = replaceLogChannel(storage);
+            storage.addPatientData(630, 97, "Saturation", 1000L);
+            storage.syncLog();
+
+            // the write tears the entry of the second record, then fails
+            channel.failing = true;
+            storage.addPatientData(630, 96, "Saturation", 2000L);
+            storage.addPatientData(630, 95, "Saturation", 3000L);
+            assertThrows(IOException.class, storage::syncLog);
+            // the group commit thread fails too, every few milliseconds
+            for (int i = 0; i < 200 && storage.getPersistenceFailureCount() < 2; i++) {
+                Thread.sleep(5);
+            }
+            assertTrue(storage.getPersistenceFailureCount() >= 2);
+            assertEquals("No space left on device", storage.getLastPersistenceFailure().getMessage());
+
+            channel.failing = false;
+            storage.addPatientData(630, 94, "Saturation", 4000L);
+            storage.syncLog();
+        } finally {
+            storage.disableDurability();
+        }
+
+        DataStorage restarted = new DataStorage(StorageBackend.heap(), 2);
+        restarted.enableDurability(directory, hour);
+        try {
+            List<PatientRecord> records = restarted.getRecords(630, 0L, Long.MAX_VALUE);
+            assertEquals(4, records.size());
+            assertEquals(95.0, records.get(2).getMeasurementValue());
+        } finally {
+            restarted.disableDurability();
+        }
+    }
+
+    /**
+     * Swaps the file channel of the storage's write-ahead log for one whose
+     * writes can be made to fail.
+     */
+    private static FailingChannel replaceLogChannel(DataStorage storage) throws ReflectiveOperationException {
+        Object persistence = readField(storage, "persistence");
+        Object log = readField(persistence, "log");
+        synchronized (log) {
+            FailingChannel channel = new FailingChannel((FileChannel) readField(log, "channel"));
+            Field field = log.getClass().getDeclaredField("channel");
+            field.setAccessible(true);
+            field.set(log, channel);
+            return channel;
+        }
+    }
+
+    private static Object readField(Object owner, String name) throws ReflectiveOperationException {
+        Field field = owner.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(owner);
+    }
+
+    /**
+     * A file channel that, while {@code failing} is set, writes the first half
+     * of a buffer and then fails, like a disk running full in the middle of
+     * an entry.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        volatile boolean failing;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            if (failing) {
+                ByteBuffer half = source.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                delegate.write(half, position);
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(source, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (failing) {
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(source);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            if (failing) {
+                throw new IOException("No space left on device");
+            }
+            return delegate.write(sources, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            return delegate.read(target);
+        }
+
+        @Override
+        public long read(ByteBuffer[] targets, int offset, int length) throws IOException {
+            return delegate.read(targets, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer target, long position) throws IOException {
+            return delegate.read(target, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            return delegate.transferFrom(source, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+
+    @Test
+    void testBatchIngestMatchesSingleRecordIngest() {
+        DataStorage single = new DataStorage(StorageBackend.heap(), 2);
+        DataStorage batched = new DataStorage(StorageBackend.heap(), 2);
+        RecordBatch batch = new RecordBatch(4);
+        for (int i = 0; i < 1000; i++) {
+            // patients interleaved, timestamps out of order, every tenth record repeats one of its patient
+            int patientId = 1 + i % 7;
+            long timestamp = 10_000L + ((i % 10 == 9 ? i - 7 : i) * 37) % 1000;
+            single.addPatientData(patientId, i, "HeartRate", timestamp);
+            batch.add(patientId, i, "HeartRate", timestamp);
+        }
+        batched.addPatientData(batch);
+
+        assertEquals(1000, batch.size());
+        assertEquals(100, single.getDuplicateRecordCount());
+        assertEquals(100, batched.getDuplicateRecordCount());
+        for (int patientId = 1; patientId <= 7; patientId++) {
+            List<PatientRecord> expected = single.getRecords(patientId, 0L, Long.MAX_VALUE);
+            List<PatientRecord> actual = batched.getRecords(patientId, 0L, Long.MAX_VALUE);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+            }
+        }
+    }
+
+    @Test
+    void testBatchIngestReordersAndDivertsLateRecords() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        List<String> diverted = new ArrayList<>();
+        storage.enableReordering(1000L, (patientId, recordTypeCode, timestamp, measurementValue) ->
+                diverted.add(patientId + "@" + timestamp));
+        RecordBatch batch = new RecordBatch();
+        batch.add(1, 1, "HeartRate", 5000L);
+        batch.add(2, 1, "HeartRate", 9000L);
+        batch.add(1, 2, "HeartRate", 4500L);
+        batch.add(1, 3, "HeartRate", 6000L); // watermark 5000
+        batch.add(2, 2, "HeartRate", 7000L); // behind the watermark of patient 2
+        batch.add(1, 4, "HeartRate", 4999L); // behind the watermark of patient 1
+
+        storage.addPatientData(batch);
+
+        assertEquals(2, storage.getLateRecordCount());
+        assertEquals(List.of("1@4999", "2@7000"), diverted);
+        List<Long> committed = new ArrayList<>();
+        storage.forEachRecord(1, 0L, Long.MAX_VALUE, (timestamp, recordTypeCode, measurementValue) ->
+                committed.add(timestamp));
+        assertEquals(List.of(4500L, 5000L), committed);
+        storage.disableReordering();
+        assertEquals(3, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertEquals(1, storage.getRecords(2, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testLineFramerCarriesPartialLines() {
+        List<String> lines = new ArrayList<>();
+        LineFramer framer = new LineFramer(line -> lines.add(line.toString()));
+
+        framer.append("1,80,Heart");
+        assertEquals(List.of(), lines);
+        assertEquals("1,80,Heart", framer.pending());
+        char[] piece = "Rate,100\r\n\n2,90,ECG,200\n3,7".toCharArray();
+        framer.append(piece, 0, piece.length);
+        assertEquals(List.of("1,80,HeartRate,100", "2,90,ECG,200"), lines);
+        assertEquals("3,7", framer.pending());
+        framer.append(",ECG,300");
+        framer.finish();
+
+        assertEquals(List.of("1,80,HeartRate,100", "2,90,ECG,200", "3,7,ECG,300"), lines);
+        assertEquals("", framer.pending());
+    }
+
+    @Test
+    void testStoreDataStoresEveryLineOfAMessage() {
+        DataStorage storage = DataStorage.getInstance();
+
+        storage.storeData("700,80,HeartRate,1000\r\n700,81,HeartRate,2000\n\nnot a record\n700,82,HeartRate,3000");
+
+        List<PatientRecord> records = storage.getRecords(700, 0L, Long.MAX_VALUE);
+        assertEquals(3, records.size());
+        assertEquals(82.0, records.get(2).getMeasurementValue());
+        assertEquals(3000L, records.get(2).getTimestamp());
+        assertEquals("", storage.getDataToProcess());
+    }
+
+    @Test
+    void testReadDataLoadsEveryLine(@TempDir Path directory) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            content.append(710 + i % 3).append(',').append(i).append(",HeartRate,").append(i).append('\n');
+        }
+        content.append("710,-1,HeartRate,10000"); // unterminated last line
+        Files.writeString(directory.resolve("records.txt"), content);
+        DataStorage storage = DataStorage.getInstance();
+
+        new DataReaderImplementation(directory.toString()).readData(storage);
+
+        List<PatientRecord> records = storage.getRecords(710, 0L, Long.MAX_VALUE);
+        assertEquals(3335, records.size());
+        for (int i = 0; i < records.size() - 1; i++) {
+            assertEquals((double) records.get(i).getTimestamp(), records.get(i).getMeasurementValue());
+        }
+        assertEquals(-1.0, records.get(records.size() - 1).getMeasurementValue());
+        assertEquals(3333, storage.getRecords(711, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testReadDataLoadsTheSimulatorsFileOutput(@TempDir Path directory) throws IOException {
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString());
+        for (int i = 0; i < 100; i++) {
+            output.output(730 + i % 2, 1000L + i, "ECG", Double.toString(i / 8.0));
+            output.output(730 + i % 2, 1000L + i, "Saturation", (90 + i % 10) + "%");
+        }
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+
+        new DataReaderImplementation(directory.toString(), RecordFormat.FILE_OUTPUT).readData(storage);
+
+        List<PatientRecord> records = storage.getRecords(731, 0L, Long.MAX_VALUE);
+        assertEquals(100, records.size());
+        for (PatientRecord record : records) {
+            long i = record.getTimestamp() - 1000L;
+            assertEquals("ECG".equals(record.getRecordType()) ? i / 8.0 : 90 + i % 10, record.getMeasurementValue());
+        }
+        assertEquals(100, storage.getRecords(730, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testBulkLoaderKeepsEveryPatientInFileOrder(@TempDir Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int f = 0; f < 3; f++) {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                content.append(720 + i % 5).append(',').append(i).append(",BulkLabel").append(f).append(',')
+                        .append(1000 + f * 2000 + i).append(i % 2 == 0 ? "\r\n" : "\n");
+            }
+            content.append("not a record\n").append("720,1,Bülk,").append(2999 + f * 2000).append('\n');
+            files.add(Files.writeString(directory.resolve("records" + f + ".txt"), content));
+        }
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        // the timestamps grow through the files; with no lateness allowed any record of a patient
+        // stored after a newer one would be diverted
+        storage.enableReordering(0L, null);
+        // small chunks, so lines and patients are spread over many chunks and workers
+        BulkFileLoader loader = new BulkFileLoader(storage, RecordFormat.CSV, 4, 1000);
+
+        loader.load(files);
+
+        assertEquals(0, storage.getLateRecordCount());
+        storage.disableReordering();
+        assertEquals(3 * 2001, loader.getRecordCount());
+        assertEquals(3, loader.getMalformedLineCount());
+        List<PatientRecord> records = storage.getRecords(720, 0L, Long.MAX_VALUE);
+        assertEquals(3 * 400 + 3, records.size());
+        for (PatientRecord record : records) {
+            double expected = record.getRecordType().equals("Bülk") ? 1 : (record.getTimestamp() - 1000) % 2000;
+            assertEquals(expected, record.getMeasurementValue());
+        }
+        assertEquals("Bülk", records.get(records.size() - 1).getRecordType());
+        assertEquals(3 * 400, storage.getRecords(724, 0L, Long.MAX_VALUE).size());
+    }
 }
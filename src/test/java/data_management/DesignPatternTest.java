@@ -221,6 +221,11 @@ class DesignPatternTest {
         // healthy patient
         boolean alert3 = strategy.checkAlert(patient3, records3);
         assertFalse(alert3, "Heart rate alert should not trigger alert");
+        assertEquals(0, strategy.getChecksWithoutEcgCount());
+
+        // no ECG data is counted rather than alerted
+        assertFalse(strategy.checkAlert(new Patient(99), List.of()));
+        assertEquals(1, strategy.getChecksWithoutEcgCount());
 
     }
 
@@ -0,0 +1,124 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.IngestRingBuffer;
+import com.data_management.PatientRecord;
+import com.data_management.RecordBatch;
+import com.data_management.RecordFormat;
+import com.data_management.StorageBackend;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class IngestRingBufferTest {
+
+    @Test
+    void testEveryWaitStrategyStoresAllRecordsInOrder() {
+        for (IngestRingBuffer.WaitStrategy waitStrategy : IngestRingBuffer.WaitStrategy.values()) {
+            DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+            IngestRingBuffer ring = new IngestRingBuffer(storage, RecordFormat.SIMULATOR, 64, waitStrategy);
+            ring.start();
+            for (int i = 0; i < 20_000; i++) {
+                ring.publish((i % 3) + "," + i + ",HeartRate," + i);
+                if (ring.getQueueDepth() > 32) {
+                    Thread.yield(); // leave the consumer time, nothing may be dropped
+                }
+                while (ring.getQueueDepth() == ring.getCapacity()) {
+                    Thread.yield();
+                }
+            }
+            ring.close();
+
+            assertEquals(0, ring.getDroppedRecordCount(), waitStrategy.name());
+            assertEquals(0, ring.getQueueDepth(), waitStrategy.name());
+            for (int patientId = 0; patientId < 3; patientId++) {
+                List<PatientRecord> records = storage.getRecords(patientId, 0L, Long.MAX_VALUE);
+                assertEquals(patientId == 2 ? 6666 : 6667, records.size(), waitStrategy.name());
+                for (int i = 0; i < records.size(); i++) {
+                    assertEquals(patientId + 3L * i, records.get(i).getTimestamp());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDropsAndCountsRecordsThatFindTheRingFull() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        IngestRingBuffer ring = new IngestRingBuffer(storage, RecordFormat.SIMULATOR, 100,
+                IngestRingBuffer.WaitStrategy.BLOCKING);
+        assertEquals(128, ring.getCapacity());
+
+        // not started yet, so nothing is drained
+        for (int i = 0; i < 200; i++) {
+            ring.publish("1," + i + ",HeartRate," + i + "\nnot a record");
+        }
+        assertEquals(128, ring.getQueueDepth());
+        assertEquals(72, ring.getDroppedRecordCount());
+        assertEquals(200, ring.getMalformedLineCount());
+
+        ring.start();
+        ring.close();
+        ring.publish("1,500,HeartRate,500");
+
+        assertEquals(128, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertEquals(0, ring.getQueueDepth());
+        assertEquals(73, ring.getDroppedRecordCount());
+    }
+
+    @Test
+    void testBlockingOverflowWaitsForRoomInsteadOfDropping() {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        IngestRingBuffer ring = new IngestRingBuffer(storage, RecordFormat.SIMULATOR, 16,
+                IngestRingBuffer.WaitStrategy.SLEEPING, IngestRingBuffer.OverflowPolicy.BLOCK);
+        ring.start();
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            message.append("2,").append(i).append(",HeartRate,").append(i).append('\n');
+        }
+        // one message of far more records than the ring holds
+        ring.publish(message.toString());
+        ring.close();
+
+        assertEquals(0, ring.getDroppedRecordCount());
+        assertEquals(1000, ring.getPublishedRecordCount());
+        assertEquals(1000, storage.getRecords(2, 0L, Long.MAX_VALUE).size());
+        assertEquals(999L, ring.getNewestStoredTimestamp());
+    }
+
+    @Test
+    void testCountsBatchesTheStorageFailsToStore() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2) {
+            @Override
+            public void addPatientData(RecordBatch batch) {
+                if (failing.get()) {
+                    throw new IllegalStateException("Storage unavailable");
+                }
+                super.addPatientData(batch);
+            }
+        };
+        IngestRingBuffer ring = new IngestRingBuffer(storage, RecordFormat.SIMULATOR, 64,
+                IngestRingBuffer.WaitStrategy.SLEEPING);
+        // not started yet, so the records are drained as one batch
+        for (int i = 0; i < 10; i++) {
+            ring.publish("9," + (1000 + i) + ",HeartRate," + i);
+        }
+        ring.start();
+        while (ring.getFailedBatchCount() == 0) {
+            Thread.yield();
+        }
+        failing.set(false);
+        ring.publish("1,5,HeartRate,60");
+        ring.close();
+
+        assertEquals(1, ring.getFailedBatchCount());
+        assertEquals(10, ring.getFailedRecordCount());
+        assertEquals("Storage unavailable", ring.getLastStoreFailure().getMessage());
+        // the failed records were never stored, so they do not count as the newest
+        assertEquals(5L, ring.getNewestStoredTimestamp());
+        assertEquals(1, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+    }
+}
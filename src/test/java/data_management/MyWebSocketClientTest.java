@@ -0,0 +1,151 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.ConnectionMetrics;
+import com.data_management.DataStorage;
+import com.data_management.MyWebSocketClient;
+import com.data_management.StorageBackend;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+class MyWebSocketClientTest {
+
+    @Test
+    void testReconnectsAfterTheServerRestarts() throws Exception {
+        int port = freePort();
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 2);
+        MyWebSocketClient client = new MyWebSocketClient(new URI("ws://localhost:" + port), storage);
+        client.setReconnectBackoff(20, 200);
+        // started before the server, the refused attempts are retried
+        client.start();
+        try {
+            WebSocketServer server = startServer(port);
+            await(() -> server.getConnections().size() == 1);
+            for (int i = 0; i < 500; i++) {
+                server.broadcast("1," + i + ",HeartRate," + (60 + i % 40));
+            }
+            await(() -> storage.getRecords(1, 0L, Long.MAX_VALUE).size() == 500);
+            ConnectionMetrics first = client.getConnectionMetrics();
+            assertEquals(1, first.getConnection());
+            assertEquals(500, first.getMessageCount());
+            assertEquals(500, first.getRecordCount());
+            server.stop(1000);
+            await(() -> !first.isOpen());
+
+            WebSocketServer restarted = startServer(port);
+            await(() -> restarted.getConnections().size() == 1);
+            for (int i = 500; i < 800; i++) {
+                restarted.broadcast("1," + i + ",HeartRate," + (60 + i % 40));
+            }
+            await(() -> storage.getRecords(1, 0L, Long.MAX_VALUE).size() == 800);
+            ConnectionMetrics second = client.getConnectionMetrics();
+            assertEquals(2, second.getConnection());
+            assertEquals(300, second.getRecordCount());
+            assertEquals(0, second.getDroppedRecordCount());
+            assertEquals(500, first.getRecordCount());
+            assertEquals(0, client.getIngest().getQueueDepth());
+            assertTrue(second.getLagMillis() >= 0);
+
+            client.shutdown();
+            assertFalse(second.isOpen());
+            restarted.stop(1000);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    void testBacksOffFromAServerDroppingEveryConnection() throws Exception {
+        int port = freePort();
+        List<Long> opened = new CopyOnWriteArrayList<>();
+        WebSocketServer server = startServer(port, conn -> {
+            opened.add(System.nanoTime());
+            conn.close();
+        });
+        MyWebSocketClient client = new MyWebSocketClient(new URI("ws://localhost:" + port),
+                new DataStorage(StorageBackend.heap(), 1));
+        client.setReconnectBackoff(50, 10_000);
+        client.start();
+        try {
+            await(() -> opened.size() == 5);
+            // the handshakes succeed, but without a message the delay still doubles: 200 to 400 ms the fourth time
+            long lastGap = opened.get(4) - opened.get(3);
+            assertTrue(lastGap >= TimeUnit.MILLISECONDS.toNanos(180), "reconnected after " + lastGap + " ns");
+        } finally {
+            client.shutdown();
+            server.stop(1000);
+        }
+    }
+
+    @Test
+    void testRejectsInvalidBackoff() throws Exception {
+        MyWebSocketClient client = new MyWebSocketClient(new URI("ws://localhost:1"),
+                new DataStorage(StorageBackend.heap(), 1));
+        assertThrows(IllegalArgumentException.class, () -> client.setReconnectBackoff(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> client.setReconnectBackoff(20, 10));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static WebSocketServer startServer(int port) throws InterruptedException {
+        return startServer(port, conn -> {
+        });
+    }
+
+    private static WebSocketServer startServer(int port, Consumer<WebSocket> onOpen) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        WebSocketServer server = new WebSocketServer(new InetSocketAddress("localhost", port)) {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                onOpen.accept(conn);
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+            }
+
+            @Override
+            public void onStart() {
+                started.countDown();
+            }
+        };
+        server.setReuseAddr(true);
+        server.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return server;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
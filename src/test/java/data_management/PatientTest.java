@@ -0,0 +1,343 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.Aggregate;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypeRegistry;
+import com.data_management.StorageBackend;
+import com.data_management.TimeInterval;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+class PatientTest {
+
+    @Test
+    void testRecordsOfSeveralTypesAreMergedByTimestamp() {
+        Patient patient = new Patient(7);
+        patient.addRecord(120, "SystolicPressure", 1000L);
+        patient.addRecord(0.5, "ECG", 1001L);
+        patient.addRecord(80, "DiastolicPressure", 999L);
+
+        List<PatientRecord> records = patient.getRecords(0L, 2000L);
+
+        assertEquals(3, records.size());
+        assertEquals("DiastolicPressure", records.get(0).getRecordType());
+        assertEquals("SystolicPressure", records.get(1).getRecordType());
+        assertEquals("ECG", records.get(2).getRecordType());
+        assertEquals(7, records.get(2).getPatientId());
+        assertEquals(0.5, records.get(2).getMeasurementValue());
+    }
+
+    @Test
+    void testColumnsGrowBeyondInitialCapacity() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 1000; i++) {
+            patient.addRecord(i, "ECG", i);
+        }
+
+        List<PatientRecord> records = patient.getRecords(100L, 199L);
+
+        // check that only the records within the range are returned
+        assertEquals(100, records.size());
+        assertEquals(100.0, records.get(0).getMeasurementValue());
+        assertEquals(199L, records.get(99).getTimestamp());
+    }
+
+    @Test
+    void testEmptyRange() {
+        Patient patient = new Patient(1);
+        patient.addRecord(95, "Saturation", 5000L);
+
+        assertTrue(patient.getRecords(0L, 4999L).isEmpty());
+        assertTrue(patient.getRecords(5001L, 6000L).isEmpty());
+    }
+
+    @Test
+    void testOutOfOrderArrivalsAreKeptInTimestampOrder() {
+        Patient patient = new Patient(1);
+        patient.addRecord(1, "ECG", 3000L);
+        patient.addRecord(2, "ECG", 1000L);
+        patient.addRecord(3, "ECG", 2000L);
+        patient.addRecord(4, "ECG", 2000L); // same timestamp keeps arrival order
+        patient.addRecord(5, "ECG", 4000L);
+
+        List<PatientRecord> records = patient.getRecords(1500L, 3000L);
+
+        assertEquals(3, records.size());
+        assertEquals(3.0, records.get(0).getMeasurementValue());
+        assertEquals(4.0, records.get(1).getMeasurementValue());
+        assertEquals(1.0, records.get(2).getMeasurementValue());
+    }
+
+    @Test
+    void testCompressedChunksAreLossless() {
+        Patient patient = new Patient(1);
+        Random random = new Random(42);
+        long[] timestamps = new long[5000];
+        double[] values = new double[5000];
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < timestamps.length; i++) {
+            // mostly regular cadence with jitter, gaps and repeated timestamps
+            timestamp += i % 500 == 0 ? 86_400_000L * 40 : 1000 + random.nextInt(5) - 2;
+            timestamps[i] = i % 7 == 0 && i > 0 ? timestamps[i - 1] : timestamp;
+            values[i] = i % 3 == 0 ? 95 + random.nextInt(3) : random.nextGaussian() * 1e6;
+            if (i % 101 == 0) {
+                values[i] = i % 2 == 0 ? Double.NaN : -0.0;
+            }
+            patient.addRecord(values[i], "ECG", timestamps[i]);
+        }
+
+        List<PatientRecord> records = patient.getRecords(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(timestamps.length, records.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], records.get(i).getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(records.get(i).getMeasurementValue()));
+        }
+    }
+
+    @Test
+    void testRangesAcrossChunksAndLateArrivalsIntoSealedChunks() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 2000; i++) {
+            patient.addRecord(95 + i % 3, "Saturation", i * 1000L);
+        }
+        // late arrivals belonging to chunks that are already sealed
+        for (int i = 0; i < 600; i++) {
+            patient.addRecord(-i, "Saturation", 500_500L);
+        }
+        patient.addRecord(-1000, "Saturation", 0L);
+
+        assertEquals(2601, patient.getRecords(0L, Long.MAX_VALUE).size());
+        List<PatientRecord> records = patient.getRecords(500_000L, 501_000L);
+        assertEquals(602, records.size());
+        assertEquals(500_000L, records.get(0).getTimestamp());
+        assertEquals(0.0, records.get(1).getMeasurementValue());
+        assertEquals(-599.0, records.get(600).getMeasurementValue());
+        assertEquals(501_000L, records.get(601).getTimestamp());
+        List<PatientRecord> first = patient.getRecords(0L, 0L);
+        assertEquals(95.0, first.get(0).getMeasurementValue());
+        assertEquals(-1000.0, first.get(1).getMeasurementValue());
+    }
+
+    @Test
+    void testRegularVitalsAreStoredCompactly() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 10_000; i++) {
+            patient.addRecord(95 + i % 3, "Saturation", i * 1000L);
+        }
+
+        // well below the 16 bytes per sample of uncompressed columns
+        assertTrue(patient.getStoredBytes() < 10_000 * 4);
+    }
+
+    @Test
+    void testAggregatesMatchTheRawRecords() {
+        Patient patient = new Patient(1);
+        Random random = new Random(7);
+        long begin = 1_714_376_400_000L; // on an hour boundary
+        for (int i = 0; i < 4 * 3600; i++) {
+            patient.addRecord(60 + random.nextInt(40), "HeartRate", begin + i * 1000L);
+        }
+
+        for (int query = 0; query < 200; query++) {
+            long start = begin + random.nextInt(4 * 60) * 60_000L;
+            long end = start + random.nextInt(3 * 60) * 60_000L + 59_999L;
+            Aggregate aggregate = patient.aggregate("HeartRate", start, end);
+            List<PatientRecord> records = patient.getRecords(start, end);
+
+            assertEquals(records.size(), aggregate.getCount());
+            assertEquals(records.stream().mapToDouble(PatientRecord::getMeasurementValue).min().getAsDouble(),
+                    aggregate.getMin());
+            assertEquals(records.stream().mapToDouble(PatientRecord::getMeasurementValue).max().getAsDouble(),
+                    aggregate.getMax());
+            assertEquals(records.stream().mapToDouble(PatientRecord::getMeasurementValue).average().getAsDouble(),
+                    aggregate.getAverage(), 1e-9);
+        }
+        assertTrue(patient.aggregate("HeartRate", 0L, begin - 1).isEmpty());
+        assertTrue(Double.isNaN(patient.aggregate("Saturation", 0L, Long.MAX_VALUE).getAverage()));
+    }
+
+    @Test
+    void testVisitorsStreamRecordsInBothDirections() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 1000; i++) {
+            patient.addRecord(i, "ECG", i * 10L);
+            patient.addRecord(-i, "Saturation", i * 10L); // equal timestamps across types
+        }
+        List<PatientRecord> expected = patient.getRecords(500L, 5000L);
+
+        List<Long> ascending = new ArrayList<>();
+        patient.forEachRecord(500L, 5000L, (timestamp, recordTypeCode, measurementValue) -> {
+            ascending.add(timestamp * 31 + recordTypeCode);
+            return true;
+        });
+        List<Long> descending = new ArrayList<>();
+        patient.forEachRecordDescending(500L, 5000L, (timestamp, recordTypeCode, measurementValue) -> {
+            descending.add(timestamp * 31 + recordTypeCode);
+            return true;
+        });
+
+        assertEquals(expected.size(), ascending.size());
+        for (int i = 0; i < expected.size(); i++) {
+            PatientRecord record = expected.get(i);
+            assertEquals(record.getTimestamp() * 31 + record.getRecordTypeCode(), ascending.get(i));
+        }
+        Collections.reverse(descending);
+        assertEquals(ascending, descending);
+
+        // returning false stops the visit
+        int[] visited = {0};
+        patient.forEachRecordDescending(0L, Long.MAX_VALUE, (timestamp, recordTypeCode, measurementValue) -> {
+            visited[0]++;
+            return timestamp > 9980L;
+        });
+        assertEquals(3, visited[0]);
+    }
+
+    @Test
+    void testRecordTypesAreStoredAsCodes() {
+        Patient patient = new Patient(1);
+        patient.addRecord(95, "Saturation", 1000L);
+        patient.addRecord(4.2, "PatientTestLabel", 1001L); // not known in advance
+
+        List<PatientRecord> records = patient.getRecords(0L, 2000L);
+
+        assertEquals(RecordTypeRegistry.SATURATION, records.get(0).getRecordTypeCode());
+        assertEquals("Saturation", records.get(0).getRecordType());
+        assertEquals(RecordTypeRegistry.codeOf("PatientTestLabel"), records.get(1).getRecordTypeCode());
+        assertEquals("PatientTestLabel", records.get(1).getRecordType());
+    }
+
+    @Test
+    void testQueriesDoNotRegisterLabels() {
+        Patient patient = new Patient(13);
+        patient.addRecord(95.0, "Saturation", 1000L);
+        int types = RecordTypeRegistry.size();
+
+        assertNull(patient.getLatestRecord("Saturaton"));
+        assertTrue(patient.aggregate("Saturaton", 0L, 2000L).isEmpty());
+        patient.forEachRecord("Saturaton", 0L, 2000L, (timestamp, recordTypeCode, measurementValue) -> {
+            fail("visited a record of an unknown type");
+            return false;
+        });
+
+        assertEquals(types, RecordTypeRegistry.size());
+        assertEquals(RecordTypeRegistry.UNKNOWN, RecordTypeRegistry.lookup("Saturaton"));
+        assertEquals(RecordTypeRegistry.SATURATION, RecordTypeRegistry.lookup("Saturation"));
+        assertThrows(IllegalArgumentException.class, () -> RecordTypeRegistry.codeOf((String) null));
+        assertThrows(IllegalArgumentException.class, () -> RecordTypeRegistry.codeOf(" "));
+    }
+
+    @Test
+    void testValueQueriesMatchAFullScan() {
+        Patient patient = new Patient(12);
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            // mostly healthy, with a few dips below 92 that may span chunk boundaries
+            double saturation = i % 900 >= 250 && i % 900 < 262 ? 88 + random.nextInt(4) : 95 + random.nextInt(5);
+            patient.addRecord(i % 1000 == 999 ? Double.NaN : saturation, "Saturation", i * 1000L);
+            patient.addRecord(120, "SystolicPressure", i * 1000L);
+        }
+        patient.addRecord(85, "Saturation", 3_500_500L); // late arrival into a sealed chunk
+        double below = Math.nextDown(92.0);
+
+        // the expected runs, from all records
+        List<long[]> expected = new ArrayList<>();
+        long[] run = null;
+        for (PatientRecord record : patient.getRecords(1_000_000L, 4_000_000L)) {
+            if (!record.getRecordType().equals("Saturation")) {
+                continue;
+            }
+            if (record.getMeasurementValue() < 92) {
+                if (run == null) {
+                    run = new long[] {record.getTimestamp(), 0, 0};
+                    expected.add(run);
+                }
+                run[1] = record.getTimestamp();
+                run[2]++;
+            } else {
+                run = null;
+            }
+        }
+
+        List<TimeInterval> intervals = patient.findIntervals("Saturation", 1_000_000L, 4_000_000L,
+                Double.NEGATIVE_INFINITY, below);
+        assertEquals(expected.size(), intervals.size());
+        for (int i = 0; i < intervals.size(); i++) {
+            assertEquals(expected.get(i)[0], intervals.get(i).getStart());
+            assertEquals(expected.get(i)[1], intervals.get(i).getEnd());
+            assertEquals(expected.get(i)[2], intervals.get(i).getCount());
+        }
+        assertEquals(1, intervals.stream().filter(interval -> interval.getStart() == 3_500_500L).count());
+
+        List<Long> matches = new ArrayList<>();
+        patient.forEachRecordBetween("Saturation", 0L, Long.MAX_VALUE, 85, 85,
+                (timestamp, recordTypeCode, measurementValue) -> matches.add(timestamp));
+        assertTrue(matches.contains(3_500_500L));
+        assertTrue(patient.findIntervals("Saturation", 0L, Long.MAX_VALUE, 100, 200).isEmpty());
+        assertTrue(patient.findIntervals("HeartRate", 0L, Long.MAX_VALUE, 0, 200).isEmpty());
+    }
+
+    @Test
+    void testMemoryMappedBackend(@TempDir Path directory) {
+        // small segments so the history spans several segment files
+        Patient patient = new Patient(3, StorageBackend.memoryMapped(directory, 64));
+        for (int i = 0; i < 1000; i++) {
+            patient.addRecord(i, "ECG", i * 10L);
+            patient.addRecord(95, "Saturation", i * 10L + 5);
+        }
+        patient.addRecord(-1, "ECG", 15L); // late arrival splitting a full segment
+
+        List<PatientRecord> records = patient.getRecords(10L, 30L);
+
+        assertEquals(6, records.size());
+        assertEquals(1.0, records.get(0).getMeasurementValue());
+        assertEquals(-1.0, records.get(1).getMeasurementValue());
+        assertEquals(15L, records.get(1).getTimestamp());
+        assertEquals("Saturation", records.get(2).getRecordType());
+        assertEquals(1000, patient.getRecords(0L, 9999L).stream()
+                .filter(record -> record.getRecordTypeCode() == RecordTypeRegistry.SATURATION).count());
+        assertEquals(999.0, patient.getRecords(9990L, 9990L).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testLateArrivalsIntoMappedSegmentsMatchTheHeap(@TempDir Path directory) {
+        for (int entriesPerSegment : new int[]{1, 2, 64}) {
+            Patient heap = new Patient(4);
+            Patient mapped = new Patient(4, StorageBackend.memoryMapped(directory.resolve("e" + entriesPerSegment),
+                    entriesPerSegment));
+            Random random = new Random(entriesPerSegment);
+            for (int i = 0; i < 2000; i++) {
+                // mostly in order, every fifth record late by up to a thousand records, some timestamps repeated
+                long timestamp = i % 5 == 4 ? Math.max(0, i - random.nextInt(1000)) * 10L : i * 10L;
+                heap.addRecord(i, "ECG", timestamp);
+                mapped.addRecord(i, "ECG", timestamp);
+            }
+
+            assertEquals(values(heap.getRecords(0L, Long.MAX_VALUE)), values(mapped.getRecords(0L, Long.MAX_VALUE)));
+            for (int i = 0; i < 100; i++) {
+                long start = random.nextInt(20_000);
+                long end = start + random.nextInt(2000);
+                assertEquals(values(heap.getRecords(start, end)), values(mapped.getRecords(start, end)));
+            }
+        }
+    }
+
+    private static List<Double> values(List<PatientRecord> records) {
+        List<Double> values = new ArrayList<>();
+        for (PatientRecord record : records) {
+            values.add(record.getMeasurementValue());
+        }
+        return values;
+    }
+}
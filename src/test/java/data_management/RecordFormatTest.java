@@ -0,0 +1,138 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.RecordFormat;
+import com.data_management.RecordTypeRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class RecordFormatTest {
+
+    /**
+     * Parses a simulator line with the given value and returns the decoded value.
+     */
+    private static double parseValue(String value) {
+        double[] parsed = {Double.NaN};
+        assertTrue(RecordFormat.SIMULATOR.parse("1,1000,ECG," + value,
+                (patientId, timestamp, recordTypeCode, measurementValue) -> parsed[0] = measurementValue), value);
+        return parsed[0];
+    }
+
+    @Test
+    void testParsesSimulatorPayloads() {
+        List<String> records = new ArrayList<>();
+        String[] lines = {
+                "3,1714376789050,ECG,0.4257190388273451",
+                "3,1714376789051,Saturation,95.0%",
+                "3,1714376789052,SystolicPressure,121.0",
+                "3,1714376789053,Alert,triggered",
+                "3,1714376789054,Alert,resolved",
+                "3,1714376789055,Cholesterol,1.23E-4",
+        };
+        for (String line : lines) {
+            assertTrue(RecordFormat.SIMULATOR.parse(line, (patientId, timestamp, recordTypeCode, measurementValue) ->
+                    records.add(patientId + " " + timestamp + " " + RecordTypeRegistry.labelOf(recordTypeCode) + " "
+                            + measurementValue)), line);
+        }
+
+        assertEquals(List.of(
+                "3 1714376789050 ECG 0.4257190388273451",
+                "3 1714376789051 Saturation 95.0",
+                "3 1714376789052 SystolicPressure 121.0",
+                "3 1714376789053 Alert 1.0",
+                "3 1714376789054 Alert 0.0",
+                "3 1714376789055 Cholesterol 1.23E-4"), records);
+    }
+
+    @Test
+    void testParsesStorageCsv() {
+        long[] parsed = new long[3];
+        assertTrue(RecordFormat.CSV.parse("12,-80.5,HeartRate,1623187420000",
+                (patientId, timestamp, recordTypeCode, measurementValue) -> {
+                    parsed[0] = patientId;
+                    parsed[1] = timestamp;
+                    parsed[2] = (long) (measurementValue * 10);
+                }));
+        assertArrayEquals(new long[] {12, 1623187420000L, -805}, parsed);
+    }
+
+    @Test
+    void testParsesFileOutputLines() {
+        List<String> records = new ArrayList<>();
+        String[] lines = {
+                "Patient ID: 3, Timestamp: 1714376789050, Label: ECG, Data: 0.4257190388273451",
+                "Patient ID: 3, Timestamp: 1714376789051, Label: Saturation, Data: 95.0%",
+                "Patient ID: 42, Timestamp: 1714376789053, Label: Alert, Data: triggered",
+        };
+        for (String line : lines) {
+            assertTrue(RecordFormat.FILE_OUTPUT.parse(line, (patientId, timestamp, recordTypeCode, measurementValue) ->
+                    records.add(patientId + " " + timestamp + " " + RecordTypeRegistry.labelOf(recordTypeCode) + " "
+                            + measurementValue)), line);
+        }
+
+        assertEquals(List.of(
+                "3 1714376789050 ECG 0.4257190388273451",
+                "3 1714376789051 Saturation 95.0",
+                "42 1714376789053 Alert 1.0"), records);
+
+        String[] malformed = {"3,1714376789050,ECG,0.42", "Patient ID: 3, Timestamp: 1714376789050, Label: ECG",
+                "Patient ID: 3, Time: 1714376789050, Label: ECG, Data: 0.42",
+                "Patient ID: , Timestamp: 1714376789050, Label: ECG, Data: 0.42",
+                "Patient ID: 3, Timestamp: 1714376789050, Label: ECG, Data:"};
+        for (String line : malformed) {
+            assertFalse(RecordFormat.FILE_OUTPUT.parse(line, (patientId, timestamp, recordTypeCode, measurementValue) ->
+                    fail("parsed " + line)), line);
+        }
+    }
+
+    @Test
+    void testRejectsMalformedLines() {
+        String[] lines = {"", "1,2,3", "1,2,ECG,4,5", "x,1000,ECG,1", "1,x,ECG,1", "1,1000,ECG,", "1,1000,ECG,1e",
+                "1,1000,ECG,fine", "99999999999,1000,ECG,1", "1,1000,,1", "1,1000, ,1"};
+        for (String line : lines) {
+            assertFalse(RecordFormat.SIMULATOR.parse(line, (patientId, timestamp, recordTypeCode, measurementValue) ->
+                    fail("parsed " + line)), line);
+        }
+    }
+
+    @Test
+    void testDecimalsMatchDoubleParseDouble() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // the shortest representation of an arbitrary double, as the generators print them
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            String text = Double.toString(value);
+            assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(parseValue(text)), text);
+        }
+        for (int i = 0; i < 200_000; i++) {
+            // arbitrary digits, most of them not the shortest representation of any double
+            StringBuilder text = new StringBuilder();
+            int digits = 1 + random.nextInt(20);
+            for (int d = 0; d < digits; d++) {
+                text.append((char) ('0' + random.nextInt(10)));
+            }
+            text.insert(random.nextInt(digits + 1), '.');
+            text.append('e').append(random.nextInt(700) - 350);
+            String value = text.toString();
+            if (value.startsWith(".e") || value.equals(".")) {
+                continue;
+            }
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(parseValue(value)), value);
+        }
+        String[] edgeCases = {"0", "-0.0", "1", "9007199254740993", "2.2250738585072014E-308", "4.9E-324",
+                "1.7976931348623157E308", "1.8E308", "1e-400", "0.1", "123456789012345678901234", "NaN",
+                "-Infinity", " 80 ", "5.", ".5", "+3", "0.30000000000000004", "9007199254740992.5"};
+        for (String value : edgeCases) {
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(parseValue(value)), value);
+        }
+    }
+}
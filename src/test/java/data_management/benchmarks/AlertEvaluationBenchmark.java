@@ -0,0 +1,66 @@
+package data_management.benchmarks;
+
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+import java.util.List;
+
+/**
+ * Compares the heap allocated per alert evaluation when the checks stream a
+ * patient's records through visitors and when they are given a list built by
+ * {@code getRecords}. The data is healthy, so no alert objects are created.
+ */
+public class AlertEvaluationBenchmark {
+
+    private static final int EVALUATIONS = 20_000;
+    private static final long WINDOW_MILLIS = 10 * 60 * 1000L;
+
+    public static void main(String[] args) throws Exception {
+        DataStorage storage = new DataStorage();
+        // ten minutes of vitals: ECG every 100 ms, the others every second
+        for (int i = 0; i < 6000; i++) {
+            long timestamp = i * 100L;
+            storage.addPatientData(1, 0.5 + (i % 7) * 0.01, "ECG", timestamp);
+            if (i % 10 == 0) {
+                storage.addPatientData(1, 97, "Saturation", timestamp);
+                storage.addPatientData(1, 97, "BloodSaturation", timestamp);
+                storage.addPatientData(1, 120 + i % 3, "SystolicPressure", timestamp);
+                storage.addPatientData(1, 80 + i % 3, "DiastolicPressure", timestamp);
+            }
+        }
+        // the rapid drop check compares the newest record with the saturation before it
+        storage.addPatientData(1, 97, "BloodSaturation", WINDOW_MILLIS - 1);
+        Patient patient = storage.getAllPatients().get(0);
+        AlertGenerator alertGenerator = new AlertGenerator(storage);
+
+        BenchmarkReport report = new BenchmarkReport()
+                .column("mode", "%-10s")
+                .column("bytes/evaluation", "%,16d")
+                .column("evaluations/second", "%,18.0f");
+        report.run(() -> {
+            measure(report, "visitor", () -> alertGenerator.evaluateData(patient, 0L, WINDOW_MILLIS));
+            measure(report, "list", () -> {
+                List<PatientRecord> records = storage.getRecords(1, 0L, WINDOW_MILLIS);
+                alertGenerator.checkLowSaturationAlert(patient, records);
+                alertGenerator.checkHypotensiveHypoxemiaAlert(patient, records);
+                alertGenerator.checkRapidDropAlert(patient, records);
+                alertGenerator.checkBloodPressureTrend(patient, records);
+                alertGenerator.checkBloodPressureCriticalThreshold(patient, records);
+                alertGenerator.checkECG(patient, records);
+            });
+        });
+    }
+
+    private static void measure(BenchmarkReport report, String mode, Runnable evaluation) {
+        long allocatedBefore = BenchmarkReport.allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < EVALUATIONS; i++) {
+            evaluation.run();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocated = BenchmarkReport.allocatedBytes() - allocatedBefore;
+        report.row(mode, allocated / EVALUATIONS, EVALUATIONS / (elapsed / 1e9));
+    }
+}
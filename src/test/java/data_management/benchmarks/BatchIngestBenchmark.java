@@ -0,0 +1,51 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.RecordBatch;
+import com.data_management.StorageBackend;
+
+/**
+ * Compares the ingest rate of {@link DataStorage#addPatientData(RecordBatch)}
+ * at 1k and 100k records per batch with adding the same records one at a
+ * time. The records of 100 patients arrive interleaved, as they do from the
+ * simulator.
+ */
+public class BatchIngestBenchmark {
+
+    private static final int RECORDS = 2_000_000;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkReport report = new BenchmarkReport()
+                .column("batch", "%-8s")
+                .column("records/second", "%,16.0f");
+        report.run(() -> {
+            report.row("single", measure(0));
+            report.row("1k", measure(1_000));
+            report.row("100k", measure(100_000));
+        });
+    }
+
+    private static double measure(int batchSize) {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), Runtime.getRuntime().availableProcessors());
+        RecordBatch batch = new RecordBatch(batchSize);
+        long begin = System.nanoTime();
+        for (int i = 0; i < RECORDS; i++) {
+            int patientId = i % PATIENTS;
+            long timestamp = 1_714_376_789_050L + i / PATIENTS;
+            double value = 60 + i % 40;
+            if (batchSize == 0) {
+                storage.addPatientData(patientId, value, "HeartRate", timestamp);
+                continue;
+            }
+            batch.add(patientId, value, "HeartRate", timestamp);
+            if (batch.size() == batchSize) {
+                storage.addPatientData(batch);
+                batch.clear();
+            }
+        }
+        storage.addPatientData(batch);
+        long elapsed = System.nanoTime() - begin;
+        return RECORDS / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,113 @@
+package data_management.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The table a benchmark prints its measurements in, and the warm-up every
+ * benchmark runs before measuring. The benchmarks of this package are not
+ * part of the test suite; run their main methods directly.
+ * <p>
+ * A benchmark declares its columns with a {@link java.util.Formatter} format
+ * each, e.g. {@code "%,16.0f"}; the header is aligned to the width of the
+ * formats. {@link #run(Body)} then runs the measurements a few times to warm
+ * up the JIT, discarding their rows, and prints the rows of the final round.
+ */
+final class BenchmarkReport {
+    static final int WARM_UP_ROUNDS = 2;
+
+    private static final Pattern WIDTH = Pattern.compile("%(-?)[,]?(\\d+)");
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String> formats = new ArrayList<>();
+    private boolean warmingUp;
+
+    /**
+     * Adds a column.
+     *
+     * @param name   the header of the column
+     * @param format the format of its values, with a width
+     * @return this report
+     */
+    BenchmarkReport column(String name, String format) {
+        names.add(name);
+        formats.add(format);
+        return this;
+    }
+
+    /**
+     * Runs the measurements {@value #WARM_UP_ROUNDS} times without reporting,
+     * then once more under the header.
+     *
+     * @param body the measurements, reporting through {@link #row}
+     */
+    void run(Body body) throws Exception {
+        run(WARM_UP_ROUNDS, body);
+    }
+
+    /**
+     * Runs the measurements a number of times without reporting, then once
+     * more under the header.
+     *
+     * @param warmUpRounds the number of unreported rounds
+     * @param body         the measurements, reporting through {@link #row}
+     */
+    void run(int warmUpRounds, Body body) throws Exception {
+        warmingUp = true;
+        try {
+            for (int round = 0; round < warmUpRounds; round++) {
+                body.run();
+            }
+        } finally {
+            warmingUp = false;
+        }
+        printHeader();
+        body.run();
+    }
+
+    /**
+     * Prints one row of measurements, unless the JIT is still warming up.
+     *
+     * @param values the values, one per column
+     */
+    void row(Object... values) {
+        if (warmingUp) {
+            return;
+        }
+        System.out.printf(String.join(" ", formats) + "%n", values);
+    }
+
+    /**
+     * Returns the bytes the current thread has allocated so far; the
+     * difference of two calls is the allocation in between.
+     *
+     * @return the allocated bytes
+     */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void printHeader() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                header.append(' ');
+            }
+            Matcher width = WIDTH.matcher(formats.get(i));
+            header.append(width.find() ? String.format("%" + width.group(1) + width.group(2) + "s", names.get(i))
+                    : names.get(i));
+        }
+        System.out.println(header);
+    }
+
+    /**
+     * The measurements of a benchmark.
+     */
+    interface Body {
+        void run() throws Exception;
+    }
+}
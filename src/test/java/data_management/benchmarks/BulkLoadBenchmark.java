@@ -0,0 +1,116 @@
+package data_management.benchmarks;
+
+import com.data_management.BulkFileLoader;
+import com.data_management.DataStorage;
+import com.data_management.RecordFormat;
+import com.data_management.StorageBackend;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures how fast a directory of record files is loaded: line by line
+ * through {@link DataStorage#storeData}, as {@code readData} did before, and
+ * with {@link BulkFileLoader} on one and on all processors, and the same
+ * records as the simulator's file output writes them, in
+ * {@link RecordFormat#FILE_OUTPUT}. The files are written once per label,
+ * like the simulator's file output, and are in the
+ * page cache, so the numbers show the parsing and storing throughput the
+ * disk would have to keep up with.
+ */
+public class BulkLoadBenchmark {
+
+    private static final String[] LABELS = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure"};
+    private static final int LINES_PER_FILE = 1_000_000;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("bulk-load");
+        try {
+            List<Path> files = writeFiles(directory.resolve("csv"), false);
+            List<Path> fileOutput = writeFiles(directory.resolve("file-output"), true);
+            long bytes = size(files);
+            long fileOutputBytes = size(fileOutput);
+            int cores = Runtime.getRuntime().availableProcessors();
+            BenchmarkReport report = new BenchmarkReport()
+                    .column("loader", "%-16s")
+                    .column("MB/second", "%12.1f")
+                    .column("records/second", "%,16.0f");
+            report.run(() -> {
+                reportLoad(report, "line by line", bytes, measure(storage -> {
+                    for (Path file : files) {
+                        try (BufferedReader reader = Files.newBufferedReader(file)) {
+                            String line;
+                            while ((line = reader.readLine()) != null) {
+                                storage.storeData(line);
+                            }
+                        }
+                    }
+                }));
+                reportLoad(report, "bulk, 1", bytes, measure(storage ->
+                        new BulkFileLoader(storage, RecordFormat.CSV, 1, BulkFileLoader.DEFAULT_CHUNK_BYTES)
+                                .load(files)));
+                reportLoad(report, "bulk, " + cores + (cores == 1 ? " (all)" : ""), bytes, measure(storage ->
+                        new BulkFileLoader(storage, RecordFormat.CSV).load(files)));
+                reportLoad(report, "file output, " + cores, fileOutputBytes, measure(storage ->
+                        new BulkFileLoader(storage, RecordFormat.FILE_OUTPUT).load(fileOutput)));
+            });
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static List<Path> writeFiles(Path directory, boolean fileOutput) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        for (String label : LABELS) {
+            Path file = directory.resolve(label + ".txt");
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                for (int i = 0; i < LINES_PER_FILE; i++) {
+                    int patientId = i % PATIENTS;
+                    double value = 60 + (i * 7919) % 4000 / 100.0;
+                    long timestamp = 1_714_376_789_050L + i / PATIENTS * 10;
+                    writer.write(fileOutput
+                            ? "Patient ID: " + patientId + ", Timestamp: " + timestamp + ", Label: " + label
+                                    + ", Data: " + value
+                            : patientId + "," + value + "," + label + "," + timestamp);
+                    writer.newLine();
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static long size(List<Path> files) throws IOException {
+        long bytes = 0;
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+        return bytes;
+    }
+
+    private static double measure(Load load) throws IOException {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), Runtime.getRuntime().availableProcessors());
+        long begin = System.nanoTime();
+        load.into(storage);
+        return (System.nanoTime() - begin) / 1e9;
+    }
+
+    private static void reportLoad(BenchmarkReport report, String loader, long bytes, double seconds) {
+        report.row(loader, bytes / seconds / 1e6, LABELS.length * LINES_PER_FILE / seconds);
+    }
+
+    private interface Load {
+        void into(DataStorage storage) throws IOException;
+    }
+}
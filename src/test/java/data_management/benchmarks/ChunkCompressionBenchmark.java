@@ -0,0 +1,82 @@
+package data_management.benchmarks;
+
+import com.data_management.Patient;
+
+import java.util.Random;
+
+/**
+ * Measures how well the compressed chunks of the heap backend shrink
+ * typical vitals and how fast they decode. The series mimic the simulator:
+ * saturation drifting by at most 1 per second, blood pressure drifting by at
+ * most 2 per minute and ECG noise with no redundancy in the values.
+ */
+public class ChunkCompressionBenchmark {
+
+    private static final String[] SERIES = {"Saturation", "Pressure", "ECG"};
+    private static final int SAMPLES = 2_000_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        Patient[] patients = new Patient[SERIES.length];
+        for (int i = 0; i < SERIES.length; i++) {
+            patients[i] = fill(SERIES[i]);
+        }
+        BenchmarkReport report = new BenchmarkReport()
+                .column("series", "%-12s")
+                .column("bytes/sample", "%14.2f")
+                .column("ratio", "%9.1fx")
+                .column("decoded/second", "%,18.0f")
+                .column("5 min query (us)", "%16.2f");
+        report.run(() -> {
+            for (int i = 0; i < SERIES.length; i++) {
+                measure(report, SERIES[i], patients[i]);
+            }
+        });
+    }
+
+    private static Patient fill(String series) {
+        Patient patient = new Patient(1);
+        Random random = new Random(1);
+        long cadence = cadence(series);
+        double value = series.equals("Pressure") ? 120 : 95;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (series.equals("ECG")) {
+                value = random.nextGaussian() * 0.2;
+            } else if (series.equals("Pressure")) {
+                value = Math.min(Math.max(value + random.nextInt(5) - 2, 90), 180);
+            } else {
+                value = Math.min(Math.max(value + random.nextInt(3) - 1, 90), 100);
+            }
+            patient.addRecord(value, series, i * cadence);
+        }
+        return patient;
+    }
+
+    private static long cadence(String series) {
+        return series.equals("Pressure") ? 60_000L : 1000L;
+    }
+
+    private static void measure(BenchmarkReport report, String series, Patient patient) {
+        double bytesPerSample = (double) patient.getStoredBytes() / SAMPLES;
+
+        // decode the whole history
+        long begin = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            patient.getRecords(0L, Long.MAX_VALUE);
+        }
+        double decodedPerSecond = (double) SAMPLES * ROUNDS / ((System.nanoTime() - begin) / 1e9);
+
+        // a short window only decodes the chunks overlapping it
+        int queries = 100_000;
+        long cadence = cadence(series);
+        long last = (SAMPLES - 1) * cadence;
+        begin = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            long end = Math.floorMod(i * 7_919L * cadence, last);
+            patient.getRecords(end - 300_000L, end);
+        }
+        double microsPerQuery = (System.nanoTime() - begin) / 1e3 / queries;
+
+        report.row(series, bytesPerSample, 16 / bytesPerSample, decodedPerSecond, microsPerQuery);
+    }
+}
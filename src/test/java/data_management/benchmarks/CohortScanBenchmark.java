@@ -0,0 +1,73 @@
+package data_management.benchmarks;
+
+import com.data_management.Aggregate;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Compares a cohort question over 10,000 patients answered serially through
+ * {@code getAllPatients} and {@code getRecords} with the parallel cohort
+ * queries of {@link DataStorage}.
+ */
+public class CohortScanBenchmark {
+
+    private static final int PATIENTS = 10_000;
+    private static final int SAMPLES = 360; // one hour, every ten seconds
+    private static final long INTERVAL_MILLIS = 10_000L;
+    private static final long END = SAMPLES * INTERVAL_MILLIS;
+
+    public static void main(String[] args) throws Exception {
+        DataStorage storage = new DataStorage();
+        for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+            for (int i = 0; i < SAMPLES; i++) {
+                long timestamp = i * INTERVAL_MILLIS;
+                // about one patient in a hundred dips below 92 once
+                double saturation = patientId % 100 == 0 && i == SAMPLES / 2 ? 90 : 95 + (i + patientId) % 4;
+                storage.addPatientData(patientId, saturation, "Saturation", timestamp);
+                storage.addPatientData(patientId, 110 + (i * patientId) % 40, "SystolicPressure", timestamp);
+            }
+        }
+        Comparator<Aggregate> widestRange =
+                Comparator.comparingDouble((Aggregate aggregate) -> aggregate.getMax() - aggregate.getMin()).reversed();
+
+        BenchmarkReport report = new BenchmarkReport()
+                .column("query", "%-22s")
+                .column("ms", "%,10.1f")
+                .column("result", "%8d");
+        report.run(() -> {
+            measure(report, "serial getRecords", () -> serialLowSaturation(storage).size());
+            measure(report, "parallel findPatients", () ->
+                    storage.findPatients("Saturation", 0L, END, value -> value < 92).size());
+            measure(report, "parallel aggregates", () ->
+                    storage.aggregatePatients("Saturation", 0L, END, aggregate -> aggregate.getMin() < 92).size());
+            measure(report, "parallel top 20", () ->
+                    storage.topPatients("SystolicPressure", 0L, END, widestRange, 20).size());
+        });
+    }
+
+    private static List<Integer> serialLowSaturation(DataStorage storage) {
+        List<Integer> matches = new ArrayList<>();
+        for (Patient patient : storage.getAllPatients()) {
+            for (PatientRecord record : storage.getRecords(patient.getPatientId(), 0L, END)) {
+                if (record.getRecordType().equals("Saturation") && record.getMeasurementValue() < 92) {
+                    matches.add(patient.getPatientId());
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static void measure(BenchmarkReport report, String query, Supplier<Integer> run) {
+        long begin = System.nanoTime();
+        int result = run.get();
+        long elapsed = System.nanoTime() - begin;
+        report.row(query, elapsed / 1e6, result);
+    }
+}
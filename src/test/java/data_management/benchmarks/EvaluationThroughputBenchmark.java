@@ -0,0 +1,137 @@
+package data_management.benchmarks;
+
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures ingest and alert evaluation running at the same time: one writer
+ * keeps adding vitals while a growing number of readers evaluate the same
+ * patients. In the snapshot mode the readers evaluate as
+ * {@link AlertGenerator#evaluateData} does, locking a patient only to capture
+ * it. The locked mode stands in for the path before snapshots, where the
+ * patient stayed read-locked for the whole evaluation and its writer waited.
+ */
+public class EvaluationThroughputBenchmark {
+
+    private static final int PATIENTS = 16;
+    private static final long WINDOW_MILLIS = 10 * 60 * 1000L;
+    private static final long RUN_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        BenchmarkReport report = new BenchmarkReport()
+                .column("mode", "%-9s")
+                .column("readers", "%-8d")
+                .column("records/second", "%,16.0f")
+                .column("evaluations/second", "%,20.0f");
+        // every round takes seconds, one warms up the JIT well enough
+        report.run(1, () -> {
+            for (int readers = 1; readers <= Math.max(4, cores); readers *= 2) {
+                for (boolean locked : new boolean[] {false, true}) {
+                    double[] throughput = run(locked, readers);
+                    report.row(locked ? "locked" : "snapshot", readers, throughput[0], throughput[1]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs one writer and the given number of readers for a while.
+     *
+     * @return the records and the evaluations per second
+     */
+    private static double[] run(boolean locked, int readerCount) throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        ReadWriteLock[] locks = new ReadWriteLock[PATIENTS];
+        for (int p = 0; p < PATIENTS; p++) {
+            locks[p] = new ReentrantReadWriteLock();
+            // ten minutes of vitals, ECG every 100 ms and saturation every second
+            for (int i = 0; i < 6000; i++) {
+                addVitals(storage, p + 1, i);
+            }
+        }
+        List<Patient> patients = storage.getAllPatients();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder records = new LongAdder();
+        LongAdder evaluations = new LongAdder();
+        AtomicLong newest = new AtomicLong(6000 * 100L); // the readers evaluate the last ten minutes
+        Thread writer = new Thread(() -> {
+            for (int i = 6000; running.get(); i++) {
+                for (int p = 0; p < PATIENTS; p++) {
+                    if (locked) {
+                        locks[p].writeLock().lock();
+                    }
+                    try {
+                        records.add(addVitals(storage, p + 1, i));
+                    } finally {
+                        if (locked) {
+                            locks[p].writeLock().unlock();
+                        }
+                    }
+                }
+                newest.set(i * 100L);
+            }
+        });
+        Thread[] readers = new Thread[readerCount];
+        for (int r = 0; r < readerCount; r++) {
+            int offset = r;
+            readers[r] = new Thread(() -> {
+                AlertGenerator alertGenerator = new AlertGenerator(storage);
+                for (int n = offset; running.get(); n++) {
+                    Patient patient = patients.get(n % patients.size());
+                    int index = patient.getPatientId() - 1;
+                    if (locked) {
+                        locks[index].readLock().lock();
+                    }
+                    try {
+                        long end = newest.get();
+                        alertGenerator.evaluateData(patient, end - WINDOW_MILLIS, end);
+                    } finally {
+                        if (locked) {
+                            locks[index].readLock().unlock();
+                        }
+                    }
+                    evaluations.increment();
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return new double[] {records.sum() / seconds, evaluations.sum() / seconds};
+    }
+
+    /**
+     * Adds the vitals of one 100 ms step.
+     *
+     * @return the number of records added
+     */
+    private static int addVitals(DataStorage storage, int patientId, int step) {
+        long timestamp = step * 100L;
+        storage.addPatientData(patientId, 0.5 + (step % 7) * 0.01, "ECG", timestamp);
+        if (step % 10 != 0) {
+            return 1;
+        }
+        storage.addPatientData(patientId, 97, "Saturation", timestamp);
+        return 2;
+    }
+}
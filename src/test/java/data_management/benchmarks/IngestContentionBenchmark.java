@@ -0,0 +1,74 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.StorageBackend;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how ingest into {@link DataStorage} scales with the number of
+ * writer threads. Every thread feeds its own group of patients, so with
+ * per-patient locking the throughput should grow with the core count. A
+ * second round keeps all threads busy and varies the number of shards.
+ */
+public class IngestContentionBenchmark {
+
+    private static final int PATIENTS_PER_THREAD = 50;
+    private static final int RECORDS_PER_THREAD = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        DataStorage storage = DataStorage.getInstance();
+
+        BenchmarkReport byThreads = new BenchmarkReport()
+                .column("threads", "%-8d")
+                .column("records/second", "%,16.0f");
+        byThreads.run(1, () -> {
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                byThreads.row(threads, run(storage, threads));
+            }
+        });
+
+        System.out.println();
+        BenchmarkReport byShards = new BenchmarkReport()
+                .column("shards", "%-8d")
+                .column("records/second", "%,16.0f");
+        // the JIT is warm by now
+        byShards.run(0, () -> {
+            for (int shards = 1; shards <= cores; shards *= 2) {
+                byShards.row(shards, run(new DataStorage(StorageBackend.heap(), shards), cores));
+            }
+        });
+    }
+
+    private static double run(DataStorage storage, int threadCount) throws InterruptedException {
+        storage.clear();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int firstPatient = t * PATIENTS_PER_THREAD;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    int patientId = firstPatient + i % PATIENTS_PER_THREAD;
+                    storage.addPatientData(patientId, i, "ECG", i);
+                }
+            });
+            threads[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        storage.clear();
+
+        return (double) threadCount * RECORDS_PER_THREAD / (elapsed / 1e9);
+    }
+}
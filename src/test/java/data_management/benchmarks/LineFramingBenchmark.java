@@ -0,0 +1,84 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.StorageBackend;
+
+/**
+ * Compares {@link DataStorage#storeData}, which frames the lines of a message
+ * in place, with the previous implementation, which concatenated the message
+ * to a pending string and split it with regular expressions. Messages of one
+ * line model the WebSocket feed, messages of many lines a bulk upload.
+ */
+public class LineFramingBenchmark {
+
+    private static final int RECORDS = 1_000_000;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkReport report = new BenchmarkReport()
+                .column("mode", "%-8s")
+                .column("lines/message", "%-14d")
+                .column("messages/second", "%,18.0f")
+                .column("bytes/message", "%,16d");
+        report.run(() -> {
+            for (int linesPerMessage : new int[] {1, 100}) {
+                String[] messages = messages(linesPerMessage);
+                measure(report, "split", linesPerMessage, messages, LegacyIngest::storeData);
+                measure(report, "framer", linesPerMessage, messages, DataStorage::storeData);
+            }
+        });
+    }
+
+    private static String[] messages(int linesPerMessage) {
+        String[] messages = new String[RECORDS / linesPerMessage];
+        int record = 0;
+        for (int m = 0; m < messages.length; m++) {
+            StringBuilder message = new StringBuilder();
+            for (int l = 0; l < linesPerMessage; l++, record++) {
+                if (l > 0) {
+                    message.append('\n');
+                }
+                message.append(record % PATIENTS).append(',').append(60 + record % 40)
+                        .append(".5,HeartRate,").append(1_714_376_789_050L + record);
+            }
+            messages[m] = message.toString();
+        }
+        return messages;
+    }
+
+    private static void measure(BenchmarkReport report, String mode, int linesPerMessage, String[] messages,
+                                Ingest ingest) {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), 1);
+        long allocatedBefore = BenchmarkReport.allocatedBytes();
+        long begin = System.nanoTime();
+        for (String message : messages) {
+            ingest.store(storage, message);
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocated = BenchmarkReport.allocatedBytes() - allocatedBefore;
+        report.row(mode, linesPerMessage, messages.length / (elapsed / 1e9), allocated / messages.length);
+    }
+
+    private interface Ingest {
+        void store(DataStorage storage, String message);
+    }
+
+    /**
+     * The string buffer and parsing DataStorage used before the line framer.
+     */
+    private static final class LegacyIngest {
+        private static String dataToProcess = "";
+
+        static void storeData(DataStorage storage, String line) {
+            String data = dataToProcess + line;
+            dataToProcess = "";
+            for (String dataLine : data.split("\\n")) {
+                String[] fields = dataLine.split(",");
+                if (fields.length == 4) {
+                    storage.addPatientData(Integer.parseInt(fields[0]), Double.parseDouble(fields[1]), fields[2],
+                            Long.parseLong(fields[3]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package data_management.benchmarks;
+
+import com.data_management.RecordConsumer;
+import com.data_management.RecordFormat;
+import com.data_management.RecordTypeRegistry;
+
+import java.util.Random;
+
+/**
+ * Compares the heap allocated per record when simulator messages are decoded
+ * with {@link RecordFormat#SIMULATOR} and with the {@code String.split} and
+ * {@code parseXxx} calls the WebSocket client used before. The messages mix
+ * the payloads of all generators, including the saturation's percent sign
+ * and the alert states.
+ */
+public class RecordParsingBenchmark {
+
+    private static final int MESSAGES = 100_000;
+    private static final int ROUNDS = 20;
+
+    private static double checksum; // keeps the JIT from discarding the parsed values
+
+    public static void main(String[] args) throws Exception {
+        String[] messages = messages();
+        RecordConsumer consumer = (patientId, timestamp, recordTypeCode, measurementValue) ->
+                checksum += patientId + timestamp + recordTypeCode + measurementValue;
+
+        BenchmarkReport report = new BenchmarkReport()
+                .column("parser", "%-8s")
+                .column("records/second", "%,16.0f")
+                .column("bytes/record", "%,14d");
+        report.run(() -> {
+            measure(report, "split", () -> {
+                for (String message : messages) {
+                    splitAndParse(message, consumer);
+                }
+            });
+            measure(report, "format", () -> {
+                for (String message : messages) {
+                    RecordFormat.SIMULATOR.parse(message, consumer);
+                }
+            });
+        });
+    }
+
+    private static String[] messages() {
+        Random random = new Random(42);
+        String[] labels = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure", "Cholesterol", "Alert"};
+        String[] messages = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            String label = labels[i % labels.length];
+            String data;
+            switch (label) {
+                case "ECG":
+                case "Cholesterol":
+                    data = Double.toString(random.nextDouble() * 200);
+                    break;
+                case "Saturation":
+                    data = Double.toString(90 + random.nextInt(11)) + "%";
+                    break;
+                case "Alert":
+                    data = random.nextBoolean() ? "triggered" : "resolved";
+                    break;
+                default:
+                    data = Double.toString(80 + random.nextInt(60));
+            }
+            messages[i] = (i % 100) + "," + (1_714_376_789_050L + i) + "," + label + "," + data;
+        }
+        return messages;
+    }
+
+    /**
+     * The parsing the WebSocket client did before, extended by the value
+     * notations it could not read.
+     */
+    private static void splitAndParse(String message, RecordConsumer consumer) {
+        String[] parts = message.split(",");
+        if (parts.length == 4) {
+            String data = parts[3];
+            double value;
+            if (data.equals("triggered")) {
+                value = 1;
+            } else if (data.equals("resolved")) {
+                value = 0;
+            } else {
+                value = Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+            }
+            consumer.accept(Integer.parseInt(parts[0]), Long.parseLong(parts[1]),
+                    RecordTypeRegistry.codeOf(parts[2]), value);
+        }
+    }
+
+    private static void measure(BenchmarkReport report, String parser, Runnable round) {
+        long allocatedBefore = BenchmarkReport.allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            round.run();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocated = BenchmarkReport.allocatedBytes() - allocatedBefore;
+        long records = (long) ROUNDS * MESSAGES;
+        report.row(parser, records / (elapsed / 1e9), allocated / records);
+    }
+}
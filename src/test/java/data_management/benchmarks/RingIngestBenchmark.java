@@ -0,0 +1,59 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.IngestRingBuffer;
+import com.data_management.RecordFormat;
+import com.data_management.StorageBackend;
+
+/**
+ * Measures how long the receiving thread spends per simulator message when it
+ * stores the message itself, as {@code onMessage} did before, and when it
+ * hands the message to an {@link IngestRingBuffer} with each wait strategy,
+ * and how many records get through end to end.
+ */
+public class RingIngestBenchmark {
+
+    private static final int MESSAGES = 2_000_000;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        String[] messages = new String[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = (i % PATIENTS) + "," + (1_714_376_789_050L + i / PATIENTS) + ",ECG," + (i % 977) / 100.0;
+        }
+        BenchmarkReport report = new BenchmarkReport()
+                .column("receiver", "%-12s")
+                .column("ns/message", "%16.1f")
+                .column("records/second", "%,16.0f")
+                .column("dropped", "%10d");
+        report.run(() -> {
+            DataStorage storage = new DataStorage(StorageBackend.heap(), Runtime.getRuntime().availableProcessors());
+            long begin = System.nanoTime();
+            for (String message : messages) {
+                storage.storeData(message, RecordFormat.SIMULATOR);
+            }
+            long elapsed = System.nanoTime() - begin;
+            report.row("direct", (double) elapsed / MESSAGES, MESSAGES / (elapsed / 1e9), 0L);
+            for (IngestRingBuffer.WaitStrategy waitStrategy : IngestRingBuffer.WaitStrategy.values()) {
+                measure(report, messages, waitStrategy);
+            }
+        });
+    }
+
+    private static void measure(BenchmarkReport report, String[] messages,
+                                IngestRingBuffer.WaitStrategy waitStrategy) {
+        DataStorage storage = new DataStorage(StorageBackend.heap(), Runtime.getRuntime().availableProcessors());
+        IngestRingBuffer ring = new IngestRingBuffer(storage, RecordFormat.SIMULATOR,
+                IngestRingBuffer.DEFAULT_CAPACITY, waitStrategy);
+        ring.start();
+        long begin = System.nanoTime();
+        for (String message : messages) {
+            ring.publish(message);
+        }
+        long published = System.nanoTime() - begin;
+        ring.close();
+        long elapsed = System.nanoTime() - begin;
+        report.row(waitStrategy.name().toLowerCase(), (double) published / MESSAGES,
+                (MESSAGES - ring.getDroppedRecordCount()) / (elapsed / 1e9), ring.getDroppedRecordCount());
+    }
+}